@@ -0,0 +1,121 @@
+package com.nearbit.common;
+
+/*
+ * Copyright (C) 2016 Benny Chen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.geotools.referencing.CRS;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.NoSuchAuthorityCodeException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nearbit.dev.api.isochrones.PositionChecker;
+
+/**
+ * Keeps decoded coordinate reference systems and the transforms between them,
+ * so the EPSG factory is only hit once per code instead of on every request.
+ * CRS and MathTransform objects are immutable and can be shared between threads.
+ *
+ * @author  Benny Chen
+ */
+public class CRSRegistry {
+
+	static final Logger LOGGER = LoggerFactory.getLogger(CRSRegistry.class);
+
+	/**
+	 * the code of the geographic crs the network layers and the outputs are in
+	 */
+	public static final String GEO_CODE = "EPSG:4326";
+
+	private static final ConcurrentMap<String, CoordinateReferenceSystem> crsMap = new ConcurrentHashMap<String, CoordinateReferenceSystem>();
+	private static final ConcurrentMap<String, MathTransform> transformMap = new ConcurrentHashMap<String, MathTransform>();
+
+	private CRSRegistry() {
+	}
+
+	/**
+	 * Decodes EPSG:4326 and the crs of every projection zone known to
+	 * PositionChecker, with the transforms between them in both directions.
+	 * Must be done after PositionChecker.init().
+	 */
+	public static void init() {
+
+		long execT1 = System.currentTimeMillis();
+		for (SimpleFeature zone : PositionChecker.getZones(null)) {
+			String epsgCode = zone.getAttribute("epsg_code").toString();
+			try {
+				getTransform(GEO_CODE, epsgCode);
+				getTransform(epsgCode, GEO_CODE);
+			} catch (FactoryException e) {
+				LOGGER.error("=== failed to decode {}: {}", epsgCode, e.getMessage());
+			}
+		}
+		long execT2 = System.currentTimeMillis();
+		LOGGER.info("==== decoded {} crs and {} transforms in {} seconds",
+				new Object[] { crsMap.size(), transformMap.size(), (execT2 - execT1) / 1000d });
+	}
+
+	/**
+	 * @param code
+	 *            e.g. EPSG:28355
+	 * @return the decoded crs
+	 * @throws NoSuchAuthorityCodeException
+	 * @throws FactoryException
+	 */
+	public static CoordinateReferenceSystem getCRS(String code) throws NoSuchAuthorityCodeException, FactoryException {
+
+		CoordinateReferenceSystem crs = crsMap.get(code);
+		if (crs == null) {
+			//two threads may decode the same code at once, both get the first one stored
+			CoordinateReferenceSystem decoded = CRS.decode(code);
+			crs = crsMap.putIfAbsent(code, decoded);
+			if (crs == null) {
+				crs = decoded;
+			}
+		}
+		return crs;
+	}
+
+	/**
+	 * @param fromCode
+	 *            e.g. EPSG:4326
+	 * @param toCode
+	 *            e.g. EPSG:28355
+	 * @return the transform between the two crs, lenient to allow for some error due to different datums
+	 * @throws NoSuchAuthorityCodeException
+	 * @throws FactoryException
+	 */
+	public static MathTransform getTransform(String fromCode, String toCode) throws NoSuchAuthorityCodeException,
+			FactoryException {
+
+		String key = fromCode + "|" + toCode;
+		MathTransform transform = transformMap.get(key);
+		if (transform == null) {
+			MathTransform found = CRS.findMathTransform(getCRS(fromCode), getCRS(toCode), true);
+			transform = transformMap.putIfAbsent(key, found);
+			if (transform == null) {
+				transform = found;
+			}
+		}
+		return transform;
+	}
+}
@@ -18,17 +18,24 @@ package com.nearbit.common;
  */
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
 import java.util.regex.Pattern;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.feature.DefaultFeatureCollection;
-import org.geotools.referencing.CRS;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.NoSuchAuthorityCodeException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.CoordinateSequenceFilter;
 import com.vividsolutions.jts.geom.Geometry;
 
 public class GeometryUtils {
@@ -200,8 +207,68 @@ public class GeometryUtils {
 			double lon = (fc.getBounds().getMaxX() + fc.getBounds().getMinX()) / 2.0;
 			double lat = (fc.getBounds().getMaxY() + fc.getBounds().getMinY()) / 2.0;
 
-			CoordinateReferenceSystem crs = CRS.decode("AUTO2:42001," + lon + "," + lat);
+			//AUTO2:42001 only depends on the UTM zone and the hemisphere, so decode it at the zone's central meridian
+			int zone = Math.min((int) Math.floor((lon + 180.0) / 6.0), 59);
+			double centralMeridian = zone * 6.0 - 177.0;
+			CoordinateReferenceSystem crs = CRSRegistry.getCRS("AUTO2:42001," + centralMeridian + "," + (lat < 0 ? -1.0 : 0.0));
 
 			return crs;
 		}
+		
+		/**
+		 * Transform the coordinates of many geometries in place, packing them into one array
+		 * so the transform is called once instead of once per coordinate
+		 * 
+		 * @param geoms
+		 * @param transform
+		 * @throws TransformException
+		 */
+		public static void transform(List<Geometry> geoms, MathTransform transform) throws TransformException {
+			
+			//a geometry listed twice must only be transformed once
+			Set<Geometry> unique = Collections.newSetFromMap(new IdentityHashMap<Geometry, Boolean>());
+			List<Geometry> targets = new ArrayList<Geometry>();
+			int numPoints = 0;
+			for (Geometry geom : geoms) {
+				if (geom != null && unique.add(geom)) {
+					targets.add(geom);
+					numPoints += geom.getNumPoints();
+				}
+			}
+			
+			final double[] coords = new double[numPoints * 2];
+			final int[] cursor = new int[] { 0 };
+			for (Geometry geom : targets) {
+				geom.apply(new CoordinateSequenceFilter() {
+					public void filter(CoordinateSequence seq, int i) {
+						coords[cursor[0]++] = seq.getOrdinate(i, CoordinateSequence.X);
+						coords[cursor[0]++] = seq.getOrdinate(i, CoordinateSequence.Y);
+					}
+					public boolean isDone() {
+						return false;
+					}
+					public boolean isGeometryChanged() {
+						return false;
+					}
+				});
+			}
+			
+			transform.transform(coords, 0, coords, 0, numPoints);
+			
+			cursor[0] = 0;
+			for (Geometry geom : targets) {
+				geom.apply(new CoordinateSequenceFilter() {
+					public void filter(CoordinateSequence seq, int i) {
+						seq.setOrdinate(i, CoordinateSequence.X, coords[cursor[0]++]);
+						seq.setOrdinate(i, CoordinateSequence.Y, coords[cursor[0]++]);
+					}
+					public boolean isDone() {
+						return false;
+					}
+					public boolean isGeometryChanged() {
+						return true;
+					}
+				});
+			}
+		}
 }
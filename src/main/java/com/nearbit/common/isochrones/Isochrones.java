@@ -18,62 +18,45 @@ package com.nearbit.common.isochrones;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import org.geotools.data.crs.ForceCoordinateSystemFeatureResults;
-import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
-import org.geotools.data.simple.SimpleFeatureSource;
-import org.geotools.data.store.ReprojectingFeatureCollection;
-import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.DefaultFeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.geometry.jts.GeometryBuilder;
 import org.geotools.geometry.jts.GeometryCollector;
 import org.geotools.geometry.jts.JTS;
-import org.geotools.graph.build.feature.FeatureGraphGenerator;
-import org.geotools.graph.build.line.LineStringGraphGenerator;
-import org.geotools.graph.structure.Graph;
-import org.geotools.graph.structure.Node;
-import org.geotools.referencing.CRS;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.feature.type.FeatureType;
-import org.opengis.filter.Filter;
-import org.opengis.filter.FilterFactory2;
-import org.opengis.geometry.MismatchedDimensionException;
-import org.opengis.referencing.FactoryException;
-import org.opengis.referencing.NoSuchAuthorityCodeException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.MathTransform;
 import org.opensphere.geometry.algorithm.ConcaveHull;
+import org.opensphere.geometry.algorithm.ConcaveHullTriangulation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.nearbit.common.AppConfig;
+import com.nearbit.common.CRSRegistry;
+import com.nearbit.common.GeometryUtils;
 import com.nearbit.dev.api.isochrones.PositionChecker;
 import com.nearbit.dev.api.isochrones.IsochronesOutput;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.GeometryCollection;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.Point;
-import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.geom.PrecisionModel;
-import com.vividsolutions.jts.index.SpatialIndex;
-import com.vividsolutions.jts.index.strtree.STRtree;
-import com.vividsolutions.jts.linearref.LinearLocation;
-import com.vividsolutions.jts.linearref.LocationIndexedLine;
 
 /**
  * Generates Network Buffers, which can be used as service areas
@@ -90,208 +73,37 @@ public final class Isochrones {
 	private Isochrones() {
 	}
 
-	private static Graph createGraph(
-			LocationIndexedLine connectedLine, SimpleFeatureCollection networkRegion, Point pointOfInterest) {
+	public static IsochronesOutput run(IsochronesNetworkSource network, String networkLayerName, Double reachDistance, Double bufSize, SimpleFeature pointFeature, String id, String polygondetaillevel, int concavehullthreshold) throws Exception {
 		
-		Coordinate pt = pointOfInterest.getCoordinate();
-		
-		//find the projection point on the connected(nearest) line  
-		LinearLocation here = connectedLine.project(pt);
-		
-		Geometry lineA = connectedLine.extractLine(connectedLine.getStartIndex(), here);
-		Geometry lineB = connectedLine.extractLine(here, connectedLine.getEndIndex());
-
-		Geometry originalLine = connectedLine.extractLine(connectedLine.getStartIndex(), connectedLine.getEndIndex());
-
-		if (lineB.isEmpty() || lineA.isEmpty() || (lineB.getLength() == 0.0) || (lineA.getLength() == 0.0)) {
-			
-			FeatureGraphGenerator networkGraphGen = buildFeatureNetwork(networkRegion);
-			Graph graph = networkGraphGen.getGraph();
-
-			return graph;
-		} else {
-			
-			networkRegion = removeFeature(networkRegion, originalLine);
-
-			GeometryFactory gf = new GeometryFactory(precision);
-			lineA = gf.createLineString(lineA.getCoordinates());
-			lineB = gf.createLineString(lineB.getCoordinates());
-
-			SimpleFeatureType edgeType = createEdgeFeatureType(networkRegion.getSchema().getCoordinateReferenceSystem());
-			
-			SimpleFeature featureB = buildFeatureFromGeometry(edgeType, lineB);
-			SimpleFeature featureA = buildFeatureFromGeometry(edgeType, lineA);
-			FeatureGraphGenerator networkGraphGen = buildFeatureNetwork(networkRegion);
-			networkGraphGen.add(featureA);
-			networkGraphGen.add(featureB);
-
-			Graph graph = networkGraphGen.getGraph();
-
-			return graph;
-
-		}
+		List<IsochronesOutput> outputs = run(network, networkLayerName, Arrays.asList(reachDistance), bufSize,
+				Arrays.asList(pointFeature), Arrays.asList(id), polygondetaillevel, concavehullthreshold);
+		return outputs.get(0);
 	}
-
+	
 	/**
-	 * Constructs a geotools Graph line network from a feature source
+	 * Generates the isochrones of several radii around one seed. The network is
+	 * loaded, the seed snapped and the network searched once, to the largest
+	 * radius, and the edges and polygon of every radius are derived from the
+	 * same distance labels.
 	 * 
-	 * @param featureCollection
-	 *            the network feature collection
-	 * @return returns a geotools FeatureGraphGenerator based on the features
-	 *         within the region of interest
-	 * @throws IOException
+	 * @param reachDistances
+	 *            the radii
+	 * @param pointFeatures
+	 *            the seed feature of each radius, all at the same location
+	 * @param ids
+	 *            the output feature id of each radius
+	 * @return the output of each radius, in the order of reachDistances, null if the seed could not be placed on the network
 	 */
-	private static FeatureGraphGenerator buildFeatureNetwork(
-			SimpleFeatureCollection featureCollection) {
-		// create a linear graph generator
-		LineStringGraphGenerator lineStringGen = new LineStringGraphGenerator();
-
-		// wrap it in a feature graph generator
-		FeatureGraphGenerator featureGen = new FeatureGraphGenerator(lineStringGen);
-
-		// put all the features into the graph generator
-		SimpleFeatureIterator iter = featureCollection.features();
-
-		SimpleFeatureType edgeType = createEdgeFeatureType(featureCollection.getSchema().getCoordinateReferenceSystem());
-
-		GeometryFactory gf = new GeometryFactory(precision);
-		try {
-			while (iter.hasNext()) {
-				SimpleFeature feature = iter.next();
-				Geometry mls = (Geometry) feature.getDefaultGeometry();
-				for (int i = 0; i < mls.getNumGeometries(); i++) {
-					Coordinate[] coords = ((LineString) mls.getGeometryN(i)).getCoordinates();
-					LineString lineString = gf.createLineString(coords);
-					SimpleFeature segmentFeature = buildFeatureFromGeometry(edgeType, lineString);
-					featureGen.add(segmentFeature);
-				}
-
-			}
-		} finally {
-			iter.close();
-		}
-		return featureGen;
-	}
-
-	private static Node findStartNode(Graph graph, Geometry inputPoint) {
-		double minDist = 99999999999.0f;
-		Node startNode = null;
-		for (Node node : (Collection<Node>) graph.getNodes()) {
-
-			Geometry nodeGeom = (Geometry) node.getObject();
-			double dist = nodeGeom.distance(inputPoint);
-			if(dist<minDist){
-				minDist = dist;
-				startNode = node;
-			}
-		}
-	
-		return startNode;
-	}
-	
-	private static SimpleFeatureCollection removeFeature(SimpleFeatureCollection networkRegion,
-			Geometry originalLine) {
-		
-		DefaultFeatureCollection result = new DefaultFeatureCollection();
-		SimpleFeatureIterator features = networkRegion.features();
-		//List<SimpleFeature> newFeatures = new ArrayList();
-		while (features.hasNext()) {
-			SimpleFeature feature = features.next();
-			Geometry geom = (Geometry) feature.getDefaultGeometry();
-			if (!(geom.equals(originalLine))) {
-				//newFeatures.add(feature);
-				result.add(feature);
-			}
-		}
-		features.close();
-		
-		return (SimpleFeatureCollection)result;
-	}
-
-	private static Map<Node, List> graphToMap(Graph graph) {
-		Map<Node, List> networkMap = new HashMap<Node, List>();
-		for (Node node : (Collection<Node>) graph.getNodes()) {
-			networkMap.put(node, node.getEdges());
-			
-		}
-		return networkMap;
-	}
-
-	private static LocationIndexedLine findNearestEdgeLine(
-			SimpleFeatureCollection network, Double roadDistance,
-			Double bufferDistance, Point pointOfInterest) throws IOException {
-		// Build network Graph - within bounds
-		Double maxDistance = roadDistance + bufferDistance;
-		SpatialIndex index = createLineStringIndex(network);
-
-		Coordinate pt = pointOfInterest.getCoordinate();
-		Envelope search = new Envelope(pt);
-		search.expandBy(maxDistance);
-
-		/*
-		 * Query the spatial index for objects within the search envelope. Note
-		 * that this just compares the point envelope to the line envelopes so
-		 * it is possible that the point is actually more distant than
-		 * MAX_SEARCH_DISTANCE from a line.
-		 */
-		List<LocationIndexedLine> lines = index.query(search);
-
-		// Initialize the minimum distance found to our maximum acceptable
-		// distance plus a little bit
-		double minDist = maxDistance;// + 1.0e-6;
-		Coordinate minDistPoint = null;
-		LocationIndexedLine connectedLine = null;
-
-		for (LocationIndexedLine line : lines) {
-
-			LinearLocation here = line.project(pt); // What does project do?
-			Coordinate point = line.extractPoint(here); // What does extracPoint
-			// do?
-			double dist = point.distance(pt);
-			if (dist <= minDist) {
-				minDist = dist;
-				minDistPoint = point;
-				connectedLine = line;
-			}
-		}
-
-		if (minDistPoint != null) {
-			//LOGGER.info("{} - snapped by moving {}\n", pt.toString(), minDist);
-			return connectedLine;
-		}
-		return null;
-	}
-
-	private static SpatialIndex createLineStringIndex(
-			SimpleFeatureCollection network) throws IOException {
-		SpatialIndex index = new STRtree();
-
-		// Create line string index
-		// Just in case: check for null or empty geometry
-		SimpleFeatureIterator features = network.features();
-		try {
-			while (features.hasNext()) {
-				SimpleFeature feature = features.next();
-				Geometry geom = (Geometry) (feature.getDefaultGeometry());
-				if (geom != null) {
-					Envelope env = geom.getEnvelopeInternal();
-					if (!env.isNull()) {
-						index.insert(env, new LocationIndexedLine(geom));
-					}
-				}
-			}
-		} finally {
-			features.close();
-		}
-
-		return index;
-	}
-
-	public static IsochronesOutput run(SimpleFeatureSource network, Double reachDistance, Double bufSize, SimpleFeature pointFeature, String id, String polygondetaillevel, int concavehullthreshold) throws Exception {
+	public static List<IsochronesOutput> run(IsochronesNetworkSource network, String networkLayerName, List<Double> reachDistances, Double bufSize, List<SimpleFeature> pointFeatures, List<String> ids, String polygondetaillevel, int concavehullthreshold) throws Exception {
 		
 		////////////////////////////////////////part 1
-		//create a performanceStats to store all preocessing details
+		//create a performanceStats to store all preocessing details, shared by the outputs of all radii
 		JSONObject performanceStats = new JSONObject();
+		List<IsochronesOutput> outputs = new ArrayList<IsochronesOutput>(Collections.<IsochronesOutput>nCopies(reachDistances.size(), null));
+		
+		//the search runs once to the largest radius, the smaller ones are cut from its labels
+		double reachDistance = Collections.max(reachDistances);
+		SimpleFeature pointFeature = pointFeatures.get(0);
 		
 		DecimalFormat df = new DecimalFormat("#.00");
 		long execStart = System.currentTimeMillis();
@@ -299,90 +111,444 @@ public final class Isochrones {
 
 		Point pointOfInterestGeo = (Point) pointFeature.getDefaultGeometry();
 
-		CoordinateReferenceSystem geoCRS = CRS.decode("EPSG:4326");
-		CoordinateReferenceSystem prjCRS = CRS.decode(PositionChecker.getEPSGCode(pointOfInterestGeo));
-		
-	    boolean lenient = true; // allow for some error due to different datums
-	    MathTransform transformToPrjCRS = CRS.findMathTransform(geoCRS, prjCRS, lenient);
-	    MathTransform transformToGeoCRS = CRS.findMathTransform(prjCRS, geoCRS, lenient);
+		String prjCode = PositionChecker.getEPSGCode(pointOfInterestGeo);
+		//decoded crs and transforms are shared between requests
+		CoordinateReferenceSystem geoCRS = CRSRegistry.getCRS(CRSRegistry.GEO_CODE);
+	    MathTransform transformToPrjCRS = CRSRegistry.getTransform(CRSRegistry.GEO_CODE, prjCode);
+	    MathTransform transformToGeoCRS = CRSRegistry.getTransform(prjCode, CRSRegistry.GEO_CODE);
 	   
 	    Point pointOfInterestPrj = (Point)JTS.transform(pointOfInterestGeo, transformToPrjCRS);
-		Geometry pointBufferPrj = pointOfInterestPrj.buffer(reachDistance + bufSize);
-		Geometry pointBufferGeo = JTS.transform(pointBufferPrj, transformToGeoCRS);
 		
 		long execT2 = System.currentTimeMillis();
 		performanceStats.put("t_1", (execT2 - execT1) / 1000d);
 		LOGGER.info("==== Section1 (create point buffer) Execution time is:{} seconds", df.format((execT2 - execT1) / 1000d));
 		execT1 = execT2;
-		//query network
-		SimpleFeatureCollection networkRegionGeo = featuresInRegion(network, pointBufferGeo);
-		if(networkRegionGeo!=null && networkRegionGeo.size()==0){
+		
+		//use the resident graph of this layer and zone, only layers not kept in memory are loaded from the database
+		IsochronesGraph networkGraph = IsochronesGraphStore.getGraph(networkLayerName, prjCode);
+		double loadTime = 0;
+		if(networkGraph == null){
+			long loadStart = System.currentTimeMillis();
+			Geometry pointBufferPrj = pointOfInterestPrj.buffer(reachDistance + bufSize);
+			Geometry pointBufferGeo = JTS.transform(pointBufferPrj, transformToGeoCRS);
+			
+			//query the network once and project it in bulk
+			networkGraph = IsochronesTileCache.loadGraph(network, networkLayerName, pointBufferGeo.getEnvelope(), prjCode, performanceStats);
+			loadTime = (System.currentTimeMillis() - loadStart) / 1000d;
+		}
+		performanceStats.put("t_load", loadTime);
+		if(networkGraph.getEdgeCount()==0){
 			LOGGER.error("No network segments found in given radius around the point");
-			return null;
+			return outputs;
 		}
-		performanceStats.put("num_rawlink", networkRegionGeo.size());
-		//convert network into projection
-		SimpleFeatureCollection networkRegionPrj = new ForceCoordinateSystemFeatureResults(networkRegionGeo, geoCRS, false);
-		networkRegionPrj = new ReprojectingFeatureCollection(networkRegionPrj, prjCRS);
+		performanceStats.put("num_rawlink", networkGraph.getEdgeCount());
 		
 		execT2 = System.currentTimeMillis();
 		performanceStats.put("t_2", (execT2 - execT1) / 1000d);
 		LOGGER.info("==== Section2 (load clipped road network) Execution time is:{} seconds", df.format((execT2 - execT1) / 1000d));
 		execT1 = execT2;
 		
-		LocationIndexedLine nearestLine = findNearestEdgeLine(networkRegionPrj, reachDistance, bufSize, pointOfInterestPrj);
-		//LOGGER.info("Found nearest edge line {}", nearestLine);
+		IsochronesSnap snap = networkGraph.getSnapIndex().snap(pointOfInterestPrj.getX(), pointOfInterestPrj.getY(), reachDistance + bufSize);
 		
 		execT2 = System.currentTimeMillis();
 		performanceStats.put("t_3", (execT2 - execT1) / 1000d);
 		LOGGER.info("==== Section3 (find nearest edge) Execution time is:{} seconds", df.format((execT2 - execT1) / 1000d));
 		execT1 = execT2;
 		
-		if (nearestLine == null) {
+		if (snap == null) {
 			LOGGER.error("Failed to snap point {} to network",pointFeature.getID());
-			return null;
+			return outputs;
 		}
-
-		Graph networkGraph = createGraph(nearestLine, networkRegionPrj, pointOfInterestPrj);
-		
-		Node startNode = findStartNode(networkGraph,pointOfInterestPrj);
+		performanceStats.put("snap_edge", snap.edgeID);
+		performanceStats.put("snap_distance", snap.distance);
 		
+		//the end of the nearest edge that is closer to the snapped location, used when the seed snaps onto a node
+		int startNode = snap.offset <= networkGraph.getEdgeLength(snap.edgeID) / 2
+				? networkGraph.getEdgeFrom(snap.edgeID) : networkGraph.getEdgeTo(snap.edgeID);
+		boolean snappedInsideEdge = snap.offset > 0 && snap.offset < networkGraph.getEdgeLength(snap.edgeID);
+		 
 		execT2 = System.currentTimeMillis();
 		performanceStats.put("t_4", (execT2 - execT1) / 1000d);
-		LOGGER.info("==== Section4 (create a graph) Execution time is:{} seconds", df.format((execT2 - execT1) / 1000d));
+		LOGGER.info("==== Section4 (prepare start node) Execution time is:{} seconds", df.format((execT2 - execT1) / 1000d));
 		execT1 = execT2;
-		 
-		LinkedList<IsochronesNode> isochronesNodeList = new LinkedList<IsochronesNode>();
 		
-		IsochronesNode initialNode = new IsochronesNode();
-		initialNode.node =  startNode;
-		isochronesNodeList.add(initialNode);
-		
-		IsochronesFJ nbfj = new IsochronesFJ(isochronesNodeList, reachDistance);
-		nbfj.createBuffer();
+		List<Map<Integer, IsochronesEdge>> visitedWholeEdgeMaps = new ArrayList<Map<Integer, IsochronesEdge>>();
+		List<Map<String, IsochronesEdge>> visitedChoppedEdgeMaps = new ArrayList<Map<String, IsochronesEdge>>();
+		if(AppConfig.getString("isochronesTRAVERSAL").equalsIgnoreCase("bfs")){
+			searchBFS(networkGraph, new int[] { startNode }, reachDistances, visitedWholeEdgeMaps, visitedChoppedEdgeMaps, performanceStats);
+		}else{
+			//long radii sweep the contraction hierarchy, large graphs are searched in parallel, smaller ones do not
+			//repay the fork/join overhead, a seed inside an edge starts from both ends of it, without splitting the edge
+			IsochronesLabels labels;
+			if(IsochronesPHAST.isEnabled(networkGraph, reachDistance)){
+				labels = snappedInsideEdge
+						? IsochronesPHAST.search(networkGraph, new IsochronesSnap[] { snap }, reachDistance)
+						: IsochronesPHAST.search(networkGraph, new int[] { startNode }, new double[] { 0.0 }, reachDistance);
+				performanceStats.put("traversal", "phast");
+			}else if(IsochronesDeltaStepping.isEnabled(networkGraph)){
+				labels = snappedInsideEdge
+						? IsochronesDeltaStepping.search(networkGraph, snap, reachDistance)
+						: IsochronesDeltaStepping.search(networkGraph, new int[] { startNode }, new double[] { 0.0 }, reachDistance);
+				performanceStats.put("traversal", "deltastepping");
+			}else{
+				labels = snappedInsideEdge
+						? IsochronesDijkstra.search(networkGraph, snap, reachDistance)
+						: IsochronesDijkstra.search(networkGraph, new int[] { startNode }, new double[] { 0.0 }, reachDistance);
+				performanceStats.put("traversal", "dijkstra");
+			}
+			collectEdges(labels, reachDistances, visitedWholeEdgeMaps, visitedChoppedEdgeMaps, performanceStats);
+		}
 		
 		execT2 = System.currentTimeMillis();
 		performanceStats.put("t_5", (execT2 - execT1) / 1000d);
-		LOGGER.info("==== Section5 (calculate isochrones) Execution time is:{} seconds", df.format((execT2 - execT1) / 1000d));
+		performanceStats.put("num_radii", reachDistances.size());
+		LOGGER.info("==== Section5 (calculate isochrones) Execution time is:{} seconds, {} relaxations", df.format((execT2 - execT1) / 1000d), performanceStats.get("num_relax"));
+		
+		String bufferScope = IsochronesBufferCache.scope(networkLayerName, prjCode, networkGraph);
+		ConcaveHullTriangulation hullTriangulation = triangulateNodes(polygondetaillevel, reachDistances, visitedWholeEdgeMaps,
+				visitedChoppedEdgeMaps, pointOfInterestPrj.getFactory());
+		for (int i = 0; i < reachDistances.size(); i++) {
+			outputs.set(i, buildOutput(reachDistances.get(i), bufSize, pointFeatures.get(i).getAttribute("id"),
+					pointOfInterestGeo.getY()+","+pointOfInterestGeo.getX(), ids.get(i), polygondetaillevel, concavehullthreshold,
+					visitedWholeEdgeMaps.get(i), visitedChoppedEdgeMaps.get(i), bufferScope, networkGraph.getEdgeCount(), hullTriangulation,
+					pointOfInterestPrj, geoCRS, transformToGeoCRS, new JSONObject(performanceStats, JSONObject.getNames(performanceStats)),
+					execStart));
+		}
+		
+		return outputs;
+	}
+	
+	/**
+	 * Generates one merged isochrone per radius for many seeds of the same
+	 * projection zone. Every seed is snapped onto the network and the search
+	 * starts from all of them at distance zero, so one search gives the area
+	 * reachable from any of the seeds, instead of an isochrone per seed and a
+	 * union of them.
+	 * 
+	 * @param reachDistances
+	 *            the radii
+	 * @param pointFeatures
+	 *            the seeds, all in the projection zone prjCode
+	 * @param prjCode
+	 *            the projection zone of the seeds, e.g. EPSG:28355
+	 * @param seedId
+	 *            the id attribute of the outputs, their feature ids are prjCode and the index of the radius, e.g. EPSG:28355_0
+	 * @return the merged output of each radius, in the order of reachDistances, with the fallback circle if no seed could be placed on the network
+	 */
+	public static List<IsochronesOutput> runMultiSource(IsochronesNetworkSource network, String networkLayerName, List<Double> reachDistances, Double bufSize, List<SimpleFeature> pointFeatures, String prjCode, String seedId, String polygondetaillevel, int concavehullthreshold) throws Exception {
+		return runSeeds(network, networkLayerName, reachDistances, bufSize, pointFeatures, prjCode, seedId, polygondetaillevel, concavehullthreshold, false);
+	}
+	
+	/**
+	 * Partitions the network within reachDistance of many facilities of the
+	 * same projection zone: every part of it goes to the facility nearest to
+	 * it by network distance. One labelled search from all facilities at once
+	 * replaces an isochrone per facility and an overlay of them.
+	 * 
+	 * @param pointFeatures
+	 *            the facilities, all in the projection zone prjCode
+	 * @param prjCode
+	 *            the projection zone of the facilities, e.g. EPSG:28355
+	 * @return the output of each facility, in the order of pointFeatures, with the fallback circle for a facility that could not be placed on the network
+	 */
+	public static List<IsochronesOutput> runPartition(IsochronesNetworkSource network, String networkLayerName, Double reachDistance, Double bufSize, List<SimpleFeature> pointFeatures, String prjCode, String polygondetaillevel, int concavehullthreshold) throws Exception {
+		return runSeeds(network, networkLayerName, Arrays.asList(reachDistance), bufSize, pointFeatures, prjCode, null, polygondetaillevel, concavehullthreshold, true);
+	}
+	
+	/**
+	 * Searches from many seeds at once
+	 * 
+	 * @param seedId
+	 *            the id attribute of the merged outputs, null for a partition
+	 * @param partition
+	 *            false for one merged output per radius, true for one output
+	 *            per seed with the part of the network nearest to it
+	 */
+	private static List<IsochronesOutput> runSeeds(IsochronesNetworkSource network, String networkLayerName, List<Double> reachDistances, Double bufSize, List<SimpleFeature> pointFeatures, String prjCode, String seedId, String polygondetaillevel, int concavehullthreshold, boolean partition) throws Exception {
+		
+		JSONObject performanceStats = new JSONObject();
+		int outputCount = partition ? pointFeatures.size() : reachDistances.size();
+		List<IsochronesOutput> outputs = new ArrayList<IsochronesOutput>(Collections.<IsochronesOutput>nCopies(outputCount, null));
+		double reachDistance = Collections.max(reachDistances);
+		
+		DecimalFormat df = new DecimalFormat("#.00");
+		long execStart = System.currentTimeMillis();
+		long execT1 = System.currentTimeMillis();
+		
+		CoordinateReferenceSystem geoCRS = CRSRegistry.getCRS(CRSRegistry.GEO_CODE);
+	    MathTransform transformToPrjCRS = CRSRegistry.getTransform(CRSRegistry.GEO_CODE, prjCode);
+	    MathTransform transformToGeoCRS = CRSRegistry.getTransform(prjCode, CRSRegistry.GEO_CODE);
+	    
+	    //project all seeds in one bulk transform
+	    Point[] seeds = new Point[pointFeatures.size()];
+	    List<Geometry> seedGeoms = new ArrayList<Geometry>();
+	    for (int i = 0; i < seeds.length; i++) {
+	    	seeds[i] = (Point) ((Geometry) pointFeatures.get(i).getDefaultGeometry()).clone();
+	    	seedGeoms.add(seeds[i]);
+	    }
+	    GeometryUtils.transform(seedGeoms, transformToPrjCRS);
+	    Geometry seedsPrj = seeds[0].getFactory().createMultiPoint(seeds);
+	    performanceStats.put("num_seeds", seeds.length);
+		
+		long execT2 = System.currentTimeMillis();
+		performanceStats.put("t_1", (execT2 - execT1) / 1000d);
+		LOGGER.info("==== Section1 (project {} seeds) Execution time is:{} seconds", seeds.length, df.format((execT2 - execT1) / 1000d));
+		execT1 = execT2;
+		
+		IsochronesGraph networkGraph = IsochronesGraphStore.getGraph(networkLayerName, prjCode);
+		double loadTime = 0;
+		if(networkGraph == null){
+			long loadStart = System.currentTimeMillis();
+			Envelope seedsEnvPrj = new Envelope(seedsPrj.getEnvelopeInternal());
+			seedsEnvPrj.expandBy(reachDistance + bufSize);
+			Geometry regionGeo = JTS.transform(JTS.toGeometry(seedsEnvPrj), transformToGeoCRS);
+			
+			networkGraph = IsochronesTileCache.loadGraph(network, networkLayerName, regionGeo.getEnvelope(), prjCode, performanceStats);
+			loadTime = (System.currentTimeMillis() - loadStart) / 1000d;
+		}
+		performanceStats.put("t_load", loadTime);
+		if(networkGraph.getEdgeCount()==0){
+			LOGGER.error("No network segments found in given radius around the seeds");
+			return outputs;
+		}
+		performanceStats.put("num_rawlink", networkGraph.getEdgeCount());
+		
+		execT2 = System.currentTimeMillis();
+		performanceStats.put("t_2", (execT2 - execT1) / 1000d);
+		LOGGER.info("==== Section2 (load clipped road network) Execution time is:{} seconds", df.format((execT2 - execT1) / 1000d));
+		execT1 = execT2;
+		
+		//seeds too far from the network are left out, like a single seed that fails to snap
+		List<IsochronesSnap> snaps = new ArrayList<IsochronesSnap>();
+		int[] snapIndex = new int[seeds.length];
+		for (int i = 0; i < seeds.length; i++) {
+			IsochronesSnap snap = networkGraph.getSnapIndex().snap(seeds[i].getX(), seeds[i].getY(), reachDistance + bufSize);
+			snapIndex[i] = snap != null ? snaps.size() : -1;
+			if (snap != null) {
+				snaps.add(snap);
+			}
+		}
+		performanceStats.put("num_snapped", snaps.size());
+		
+		execT2 = System.currentTimeMillis();
+		performanceStats.put("t_3", (execT2 - execT1) / 1000d);
+		LOGGER.info("==== Section3 (snap {} of {} seeds) Execution time is:{} seconds", new Object[] { snaps.size(), seeds.length, df.format((execT2 - execT1) / 1000d) });
 		execT1 = execT2;
 		
+		List<Map<Integer, IsochronesEdge>> visitedWholeEdgeMaps = new ArrayList<Map<Integer, IsochronesEdge>>();
+		List<Map<String, IsochronesEdge>> visitedChoppedEdgeMaps = new ArrayList<Map<String, IsochronesEdge>>();
+		if(snaps.isEmpty()){
+			//every output falls back to the circle around its seeds, so the other zones of a batch are still returned
+			LOGGER.error("Failed to snap any seed to network");
+			for (int i = 0; !partition && i < reachDistances.size(); i++) {
+				visitedWholeEdgeMaps.add(new HashMap<Integer, IsochronesEdge>());
+				visitedChoppedEdgeMaps.add(new HashMap<String, IsochronesEdge>());
+			}
+			performanceStats.put("num_relax", 0);
+		}else if(partition){
+			//only the sequential search records owners, it cannot be lowered together with the distance in parallel
+			IsochronesLabels labels = IsochronesDijkstra.searchPartition(networkGraph, snaps.toArray(new IsochronesSnap[snaps.size()]), reachDistance);
+			try{
+				labels.collectPartition(reachDistance, snaps.size(), geometryFactory, visitedWholeEdgeMaps, visitedChoppedEdgeMaps);
+				performanceStats.put("traversal", "partition");
+				performanceStats.put("num_relax", labels.getRelaxCount());
+				performanceStats.put("num_settled", labels.getSettledCount());
+			}finally{
+				labels.release();
+			}
+		}else if(AppConfig.getString("isochronesTRAVERSAL").equalsIgnoreCase("bfs")){
+			int[] startNodes = new int[snaps.size()];
+			for (int i = 0; i < startNodes.length; i++) {
+				IsochronesSnap snap = snaps.get(i);
+				startNodes[i] = snap.offset <= networkGraph.getEdgeLength(snap.edgeID) / 2
+						? networkGraph.getEdgeFrom(snap.edgeID) : networkGraph.getEdgeTo(snap.edgeID);
+			}
+			searchBFS(networkGraph, startNodes, reachDistances, visitedWholeEdgeMaps, visitedChoppedEdgeMaps, performanceStats);
+		}else{
+			IsochronesSnap[] snapArray = snaps.toArray(new IsochronesSnap[snaps.size()]);
+			IsochronesLabels labels;
+			if(IsochronesPHAST.isEnabled(networkGraph, reachDistance)){
+				labels = IsochronesPHAST.search(networkGraph, snapArray, reachDistance);
+				performanceStats.put("traversal", "phast");
+			}else if(IsochronesDeltaStepping.isEnabled(networkGraph)){
+				labels = IsochronesDeltaStepping.search(networkGraph, snapArray, reachDistance);
+				performanceStats.put("traversal", "deltastepping");
+			}else{
+				labels = IsochronesDijkstra.search(networkGraph, snapArray, reachDistance);
+				performanceStats.put("traversal", "dijkstra");
+			}
+			collectEdges(labels, reachDistances, visitedWholeEdgeMaps, visitedChoppedEdgeMaps, performanceStats);
+		}
+		
+		execT2 = System.currentTimeMillis();
+		performanceStats.put("t_5", (execT2 - execT1) / 1000d);
+		performanceStats.put("num_radii", reachDistances.size());
+		LOGGER.info("==== Section5 (calculate multi-source isochrones or partition) Execution time is:{} seconds, {} relaxations", df.format((execT2 - execT1) / 1000d), performanceStats.get("num_relax"));
+		
+		String bufferScope = IsochronesBufferCache.scope(networkLayerName, prjCode, networkGraph);
+		if(partition){
+			//a facility that failed to snap gets no part of the network, and so the fallback circle
+			for (int i = 0; i < seeds.length; i++) {
+				SimpleFeature pointFeature = pointFeatures.get(i);
+				Point pointOfInterestGeo = (Point) pointFeature.getDefaultGeometry();
+				Map<Integer, IsochronesEdge> visitedWholeEdgeMap = snapIndex[i] >= 0 ? visitedWholeEdgeMaps.get(snapIndex[i]) : new HashMap<Integer, IsochronesEdge>();
+				Map<String, IsochronesEdge> visitedChoppedEdgeMap = snapIndex[i] >= 0 ? visitedChoppedEdgeMaps.get(snapIndex[i]) : new HashMap<String, IsochronesEdge>();
+				outputs.set(i, buildOutput(reachDistance, bufSize, pointFeature.getAttribute("id"),
+						pointOfInterestGeo.getY()+","+pointOfInterestGeo.getX(), String.valueOf(pointFeature.getID()), polygondetaillevel,
+						concavehullthreshold, visitedWholeEdgeMap, visitedChoppedEdgeMap, bufferScope, networkGraph.getEdgeCount(), null,
+						seeds[i], geoCRS, transformToGeoCRS, new JSONObject(performanceStats, JSONObject.getNames(performanceStats)),
+						execStart));
+			}
+		}else{
+			ConcaveHullTriangulation hullTriangulation = triangulateNodes(polygondetaillevel, reachDistances, visitedWholeEdgeMaps,
+					visitedChoppedEdgeMaps, seedsPrj.getFactory());
+			for (int i = 0; i < reachDistances.size(); i++) {
+				//the outputs are collected with those of the other zones, keyed by feature id
+				outputs.set(i, buildOutput(reachDistances.get(i), bufSize, seedId, "", prjCode + "_" + i, polygondetaillevel,
+						concavehullthreshold, visitedWholeEdgeMaps.get(i), visitedChoppedEdgeMaps.get(i), bufferScope,
+						networkGraph.getEdgeCount(), hullTriangulation, seedsPrj, geoCRS, transformToGeoCRS,
+						new JSONObject(performanceStats, JSONObject.getNames(performanceStats)), execStart));
+			}
+		}
+		
+		return outputs;
+	}
+	
+	/**
+	 * Runs the label-correcting breadth first search, kept for comparison, once per radius since it cannot share its labels between radii
+	 */
+	private static void searchBFS(IsochronesGraph networkGraph, int[] startNodes, List<Double> reachDistances,
+			List<Map<Integer, IsochronesEdge>> visitedWholeEdgeMaps, List<Map<String, IsochronesEdge>> visitedChoppedEdgeMaps,
+			JSONObject performanceStats) throws JSONException {
+		
+		long relaxCount = 0;
+		int settledCount = 0;
+		for (Double radius : reachDistances) {
+			LinkedList<IsochronesNode> isochronesNodeList = new LinkedList<IsochronesNode>();
+			for (int startNode : startNodes) {
+				IsochronesNode initialNode = new IsochronesNode();
+				initialNode.nodeID =  startNode;
+				isochronesNodeList.add(initialNode);
+			}
+			
+			IsochronesFJ nbfj = new IsochronesFJ(networkGraph, isochronesNodeList, radius);
+			nbfj.createBuffer();
+			visitedWholeEdgeMaps.add(nbfj.visitedWholeEdgeMap);
+			visitedChoppedEdgeMaps.add(nbfj.visitedChoppedEdgeMap);
+			relaxCount += nbfj.relaxCount;
+			settledCount = Math.max(settledCount, nbfj.visitedIsochronesNodeMap.size());
+		}
+		performanceStats.put("traversal", "bfs");
+		performanceStats.put("num_relax", relaxCount);
+		performanceStats.put("num_settled", settledCount);
+	}
+	
+	/**
+	 * Derives the reached edges of every radius from the labels of one search, then releases the labels
+	 */
+	private static void collectEdges(IsochronesLabels labels, List<Double> reachDistances,
+			List<Map<Integer, IsochronesEdge>> visitedWholeEdgeMaps, List<Map<String, IsochronesEdge>> visitedChoppedEdgeMaps,
+			JSONObject performanceStats) throws JSONException {
+		
+		try{
+			for (Double radius : reachDistances) {
+				Map<Integer, IsochronesEdge> visitedWholeEdgeMap = new HashMap<Integer, IsochronesEdge>();
+				Map<String, IsochronesEdge> visitedChoppedEdgeMap = new HashMap<String, IsochronesEdge>();
+				labels.collectEdges(radius, geometryFactory, visitedWholeEdgeMap, visitedChoppedEdgeMap);
+				visitedWholeEdgeMaps.add(visitedWholeEdgeMap);
+				visitedChoppedEdgeMaps.add(visitedChoppedEdgeMap);
+			}
+			performanceStats.put("num_relax", labels.getRelaxCount());
+			performanceStats.put("num_settled", labels.getSettledCount());
+		}finally{
+			labels.release();
+		}
+	}
+	
+	/**
+	 * Triangulates the reached nodes of all radii once for the concave hulls of the "mid" and "low" levels, the hull of
+	 * each radius is then eroded from the nodes within its travel distance. The ends of the chopped edges of a radius
+	 * are within the travel distance of the larger radii too, so they are also in their hulls, on the edges they reach.
+	 * 
+	 * @return null if there is a single radius or no concave hull to build
+	 */
+	private static ConcaveHullTriangulation triangulateNodes(String polygondetaillevel, List<Double> reachDistances,
+			List<Map<Integer, IsochronesEdge>> visitedWholeEdgeMaps, List<Map<String, IsochronesEdge>> visitedChoppedEdgeMaps,
+			GeometryFactory gf) {
+		
+		if (reachDistances.size() < 2
+				|| !(polygondetaillevel.equalsIgnoreCase("mid") || polygondetaillevel.equalsIgnoreCase("low"))) {
+			return null;
+		}
+		DecimalFormat df = new DecimalFormat("#.00");
+		long execT1 = System.currentTimeMillis();
+		List<IsochronesEdge> isoEdges = new ArrayList<IsochronesEdge>();
+		for (int i = 0; i < reachDistances.size(); i++) {
+			isoEdges.addAll(visitedWholeEdgeMaps.get(i).values());
+			isoEdges.addAll(visitedChoppedEdgeMaps.get(i).values());
+		}
+		Coordinate[] nodes = new Coordinate[isoEdges.size()];
+		double[] travelDistances = new double[isoEdges.size()];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = isoEdges.get(i).toNodeCoordinate;
+			travelDistances[i] = isoEdges.get(i).traverseDistance;
+		}
+		double[] radii = new double[reachDistances.size()];
+		for (int i = 0; i < radii.length; i++) {
+			radii[i] = reachDistances.get(i);
+		}
+		ConcaveHullTriangulation hullTriangulation = new ConcaveHullTriangulation(nodes, travelDistances, radii, gf);
+		LOGGER.info("==== Section6-hull (triangulate nodes of {} radii) Execution time is:{} seconds", radii.length,
+				df.format((System.currentTimeMillis() - execT1) / 1000d));
+		return hullTriangulation;
+	}
+	
+	/**
+	 * Builds the edge and node features and the polygon of one radius from its reached edges
+	 * 
+	 * @param seedId
+	 *            the id attribute of the outputs
+	 * @param seedCoord
+	 *            the seedcoord attribute of the outputs
+	 * @param bufferScope
+	 *            where the buffers of whole edges are cached between requests, null if they are not
+	 * @param graphEdgeCount
+	 *            the edges of the searched graph, larger ids of whole edges are not cached
+	 * @param hullTriangulation
+	 *            the nodes of all radii for the concave hull, null to triangulate the nodes of this radius
+	 * @param seedsPrj
+	 *            the seed point, or the seed points of a multi-source search, in projected crs
+	 */
+	private static IsochronesOutput buildOutput(Double reachDistance, Double bufSize, Object seedId, String seedCoord, String id,
+			String polygondetaillevel, int concavehullthreshold, Map<Integer, IsochronesEdge> visitedWholeEdgeMap,
+			Map<String, IsochronesEdge> visitedChoppedEdgeMap, String bufferScope, int graphEdgeCount,
+			ConcaveHullTriangulation hullTriangulation, Geometry seedsPrj, CoordinateReferenceSystem geoCRS, MathTransform transformToGeoCRS, JSONObject performanceStats,
+			long execStart) throws Exception {
+		
+		DecimalFormat df = new DecimalFormat("#.00");
+		long execT1 = System.currentTimeMillis();
+		long execT2;
+		
 		//parse visitedIsochronesNodeMap into edge FeatureCollection
 		
 		DefaultFeatureCollection isoEdgeFC = new DefaultFeatureCollection();
 		DefaultFeatureCollection isoNodeFC = new DefaultFeatureCollection();
 		GeometryCollector isoNodeGC = new GeometryCollector(); // this contains all nodes except start node
 		
-		Set<Integer> visitedWholeEdgeMapIDs =  nbfj.visitedWholeEdgeMap.keySet();
-		Set<String> visitedChoppedEdgeMapIDs =  nbfj.visitedChoppedEdgeMap.keySet();
+		Set<Integer> visitedWholeEdgeMapIDs =  visitedWholeEdgeMap.keySet();
+		Set<String> visitedChoppedEdgeMapIDs =  visitedChoppedEdgeMap.keySet();
 		
-		SimpleFeatureType isoEdgeFeatureType = createIsochronesEdgeFeatureType(prjCRS);
+		//the features are output in geographic crs, their geometries stay projected until the final bulk transform
+		SimpleFeatureType isoEdgeFeatureType = createIsochronesEdgeFeatureType(geoCRS);
 		SimpleFeatureBuilder sfb_isoEdge = new SimpleFeatureBuilder(isoEdgeFeatureType);
 		
-		SimpleFeatureType isoNodeFeatureType = createIsochronesNodeFeatureType(prjCRS);
+		SimpleFeatureType isoNodeFeatureType = createIsochronesNodeFeatureType(geoCRS);
 		SimpleFeatureBuilder sfb_isoNode = new SimpleFeatureBuilder(isoNodeFeatureType);
 		
-		//a fast way to union geometry 
-		Geometry[] edgeBuffers = new Geometry[visitedWholeEdgeMapIDs.size()+ visitedChoppedEdgeMapIDs.size()]; 
+		//buffered and unioned in parallel for the high detail level, or rasterized for the raster one
+		Geometry[] edgeGeoms = new Geometry[visitedWholeEdgeMapIDs.size()+ visitedChoppedEdgeMapIDs.size()]; 
+		//the graph edge of each whole edge, -1 for a chopped one or one only of this request
+		int[] edgeIds = new int[edgeGeoms.length];
 		int count = 0;
 		
 		//iso leaf Node geometry builder
@@ -393,11 +559,11 @@ public final class Isochrones {
 		//loop visitedWholeEdgeMapIDs
 		for (Integer edgeid : visitedWholeEdgeMapIDs) {	
 			
-			IsochronesEdge isoEdge =  nbfj.visitedWholeEdgeMap.get(edgeid);
+			IsochronesEdge isoEdge =  visitedWholeEdgeMap.get(edgeid);
 
 			//build up edge featurecollection
 			SimpleFeature f_isoEdge = sfb_isoEdge.buildFeature(null);
-			LineString edgeGeom = (LineString)(((SimpleFeature)isoEdge.edge.getObject()).getDefaultGeometry());
+			LineString edgeGeom = isoEdge.geometry;
 			f_isoEdge.setDefaultGeometry(edgeGeom);
 			f_isoEdge.setAttribute("isleaf", isoEdge.isLeaf);
 			f_isoEdge.setAttribute("ischopped", isoEdge.isChopped);
@@ -405,8 +571,8 @@ public final class Isochrones {
 			f_isoEdge.setAttribute("travdist", isoEdge.traverseDistance);
 			f_isoEdge.setAttribute("radius", reachDistance);
 			f_isoEdge.setAttribute("bufsize", bufSize);
-			f_isoEdge.setAttribute("seedcoord", pointOfInterestGeo.getY()+","+pointOfInterestGeo.getX());
-			f_isoEdge.setAttribute("id", pointFeature.getAttribute("id"));
+			f_isoEdge.setAttribute("seedcoord", seedCoord);
+			f_isoEdge.setAttribute("id", seedId);
 			isoEdgeFC.add(f_isoEdge);
 			
 			
@@ -420,13 +586,14 @@ public final class Isochrones {
 			f_isoNode.setAttribute("nodeid", isoEdge.toNodeID);
 			f_isoNode.setAttribute("radius", reachDistance);
 			f_isoNode.setAttribute("bufsize", bufSize);
-			f_isoNode.setAttribute("seedcoord", pointOfInterestGeo.getY()+","+pointOfInterestGeo.getX());
-			f_isoNode.setAttribute("id", pointFeature.getAttribute("id"));
+			f_isoNode.setAttribute("seedcoord", seedCoord);
+			f_isoNode.setAttribute("id", seedId);
 			isoNodeFC.add(f_isoNode);
 			isoNodeGC.add(nodeGeom);
 
-			//build up edgebuffer array
-			edgeBuffers[count] = edgeGeom.buffer(bufSize);
+			edgeGeoms[count] = edgeGeom;
+			//ids past the graph edges are snap halves and seed segments of this request only
+			edgeIds[count] = edgeid < graphEdgeCount ? edgeid : -1;
 			
 			if(isoEdge.isLeaf) {
 				isoLeafNodeGC.add(nodeGeom);
@@ -436,29 +603,31 @@ public final class Isochrones {
 			count++;
 		}
 		
-		//also add startNode into isoNodeFC
-		SimpleFeature f_isoStartNode = sfb_isoNode.buildFeature(null);
-		
-		f_isoStartNode.setDefaultGeometry(pointOfInterestPrj);
-		f_isoStartNode.setAttribute("isleaf", false);
-		f_isoStartNode.setAttribute("travdist", 0);
-		f_isoStartNode.setAttribute("nodeid", 0);
-		f_isoStartNode.setAttribute("radius", reachDistance);
-		f_isoStartNode.setAttribute("bufsize", bufSize);
-		f_isoStartNode.setAttribute("seedcoord", pointOfInterestGeo.getY()+","+pointOfInterestGeo.getX());
-		f_isoStartNode.setAttribute("id", pointFeature.getAttribute("id"));
-
-		isoNodeFC.add(f_isoStartNode);
+		//also add startNode into isoNodeFC, one for each seed of a multi-source search
+		for (int i = 0; i < seedsPrj.getNumGeometries(); i++) {
+			SimpleFeature f_isoStartNode = sfb_isoNode.buildFeature(null);
+			
+			f_isoStartNode.setDefaultGeometry(seedsPrj.getGeometryN(i).clone());
+			f_isoStartNode.setAttribute("isleaf", false);
+			f_isoStartNode.setAttribute("travdist", 0);
+			f_isoStartNode.setAttribute("nodeid", 0);
+			f_isoStartNode.setAttribute("radius", reachDistance);
+			f_isoStartNode.setAttribute("bufsize", bufSize);
+			f_isoStartNode.setAttribute("seedcoord", seedCoord);
+			f_isoStartNode.setAttribute("id", seedId);
+	
+			isoNodeFC.add(f_isoStartNode);
+		}
 		
 		//loop visitedChoppedEdgeMapIDs
 		for (String edgecode : visitedChoppedEdgeMapIDs) {	
 			
-			IsochronesEdge isoEdge =  nbfj.visitedChoppedEdgeMap.get(edgecode);
+			IsochronesEdge isoEdge =  visitedChoppedEdgeMap.get(edgecode);
 			
 
 			//build up edge featurecollection
 			SimpleFeature f_isoEdge = sfb_isoEdge.buildFeature(null);
-			LineString edgeGeom = (LineString)(((SimpleFeature)isoEdge.edge.getObject()).getDefaultGeometry());
+			LineString edgeGeom = isoEdge.geometry;
 			f_isoEdge.setDefaultGeometry(edgeGeom);
 			f_isoEdge.setAttribute("isleaf", true);
 			f_isoEdge.setAttribute("ischopped", true);
@@ -466,8 +635,8 @@ public final class Isochrones {
 			f_isoEdge.setAttribute("travdist", isoEdge.traverseDistance);
 			f_isoEdge.setAttribute("radius", reachDistance);
 			f_isoEdge.setAttribute("bufsize", bufSize);
-			f_isoEdge.setAttribute("seedcoord", pointOfInterestGeo.getY()+","+pointOfInterestGeo.getX());
-			f_isoEdge.setAttribute("id", pointFeature.getAttribute("id"));
+			f_isoEdge.setAttribute("seedcoord", seedCoord);
+			f_isoEdge.setAttribute("id", seedId);
 
 			isoEdgeFC.add(f_isoEdge);
 			
@@ -482,15 +651,15 @@ public final class Isochrones {
 			f_isoNode.setAttribute("nodeid", isoEdge.toNodeID);
 			f_isoNode.setAttribute("radius", reachDistance);
 			f_isoNode.setAttribute("bufsize", bufSize);
-			f_isoNode.setAttribute("seedcoord", pointOfInterestGeo.getY()+","+pointOfInterestGeo.getX());
-			f_isoNode.setAttribute("id", pointFeature.getAttribute("id"));
+			f_isoNode.setAttribute("seedcoord", seedCoord);
+			f_isoNode.setAttribute("id", seedId);
 
 			isoNodeFC.add(f_isoNode);
 			isoNodeGC.add(nodeGeom);
 			//check whether a isoNode feature can be ignored -- there is no need to do this for leaf node
 			
-			//build up edgebuffer array
-			edgeBuffers[count] = edgeGeom.buffer(bufSize);
+			edgeGeoms[count] = edgeGeom;
+			edgeIds[count] = -1;
 			
 			isoLeafNodeGC.add(nodeGeom);
 			isoLeafNodeCounter++;
@@ -510,9 +679,15 @@ public final class Isochrones {
 	    
 		//if serviceArea is empty, create a circle for this point
 		if(isoEdgeFC==null || isoEdgeFC.isEmpty()){
-			Geometry circlePrj = pointOfInterestPrj.buffer(bufSize);
+			Geometry circlePrj = seedsPrj.buffer(bufSize);
 			Geometry circleGeo = JTS.transform(circlePrj, transformToGeoCRS);
-			sao.serviceAreaPolgyon = buildIsochronePolygonFeature(pointFeature, circleGeo, id, "failure", roadArea);
+			sao.serviceAreaPolgyon = buildIsochronePolygonFeature(seedId, seedCoord, circleGeo, id, "failure", roadArea);
+			//no edges or nodes, but empty collections so batches can add them like the others
+			sao.serviceAreaLines = new DefaultFeatureCollection();
+			sao.serviceAreaNodes = new DefaultFeatureCollection();
+			performanceStats.put("para_radius", reachDistance);
+			performanceStats.put("para_id", seedId);
+			sao.performanceStats = performanceStats;
 			return sao;
 		}
 		
@@ -521,20 +696,41 @@ public final class Isochrones {
 		// ref: http://www.rotefabrik.free.fr/concave_hull/
 		// http://www.bostongis.com/postgis_concavehull.snippet
 		// https://alastaira.wordpress.com/2011/03/22/alpha-shapes-and-concave-hulls/
-		GeometryCollection gc = new GeometryCollection(edgeBuffers, ((Geometry)pointFeature.getDefaultGeometry()).getFactory());
-		
 		if(polygondetaillevel.equalsIgnoreCase("high")){
-			all = gc.union();
+			//buffers of whole edges of a resident graph are shared with other requests
+			Geometry[] edgeBuffers = new Geometry[edgeGeoms.length];
+			int[] missingIds = edgeIds;
+			if(bufferScope != null){
+				int hits = IsochronesBufferCache.get(bufferScope, edgeIds, bufSize, edgeBuffers, seedsPrj.getFactory());
+				missingIds = new int[edgeIds.length];
+				for (int i = 0; i < edgeIds.length; i++) {
+					missingIds[i] = edgeBuffers[i] == null ? edgeIds[i] : -1;
+				}
+				performanceStats.put("num_buffer_hit", hits);
+			}
+			all = IsochronesUnion.bufferUnion(edgeGeoms, edgeBuffers, bufSize);
+			if(bufferScope != null){
+				IsochronesBufferCache.put(bufferScope, missingIds, bufSize, edgeBuffers);
+			}
 			execT2 = System.currentTimeMillis();
 			performanceStats.put("t_7", (execT2 - execT1) / 1000d);
 			LOGGER.info("==== Section7-high (union buffered polygons) Execution time is:{} seconds", df.format((execT2 - execT1) / 1000d));
 			execT1 = execT2;
+		}else if(polygondetaillevel.equalsIgnoreCase("raster"))
+		{
+			//approximate the union of the buffered edges on a grid, for when the exact outline is not needed
+			all = IsochronesRaster.bufferUnion(edgeGeoms, bufSize, seedsPrj.getFactory());
+			execT2 = System.currentTimeMillis();
+			performanceStats.put("t_7", (execT2 - execT1) / 1000d);
+			LOGGER.info("==== Section7-raster (trace rasterized buffers) Execution time is:{} seconds", df.format((execT2 - execT1) / 1000d));
+			execT1 = execT2;
 		}else if(polygondetaillevel.equalsIgnoreCase("mid"))
 		{
 			
 			//use endpoints to generate concavehull, set threshold value with 1/4 of the reachDistance (the reachDistance might be different for one searvice area calculation request if radiusarr is passed in, so this can be self-adaptive)
-			ConcaveHull ch = new ConcaveHull(isoNodeGC.collect(), reachDistance/4.0);
-			all = ch.getConcaveHull().buffer(bufSize);
+			Geometry hull = hullTriangulation != null ? hullTriangulation.getConcaveHull(reachDistance/4.0, reachDistance)
+					: new ConcaveHull(isoNodeGC.collect(), reachDistance/4.0).getConcaveHull();
+			all = hull.buffer(bufSize);
 			execT2 = System.currentTimeMillis();
 			performanceStats.put("t_7", (execT2 - execT1) / 1000d);
 			LOGGER.info("==== Section7-mid (create concave hull with dynamic threshold) Execution time is:{} seconds", df.format((execT2 - execT1) / 1000d));
@@ -542,8 +738,9 @@ public final class Isochrones {
 		}else if(polygondetaillevel.equalsIgnoreCase("low"))
 		{
 			//use endpoints to generate concavehull, set threshold value with fixed concavehullthreshold
-			ConcaveHull ch = new ConcaveHull(isoNodeGC.collect(), concavehullthreshold);
-			all = ch.getConcaveHull().buffer(bufSize);
+			Geometry hull = hullTriangulation != null ? hullTriangulation.getConcaveHull(concavehullthreshold, reachDistance)
+					: new ConcaveHull(isoNodeGC.collect(), concavehullthreshold).getConcaveHull();
+			all = hull.buffer(bufSize);
 			execT2 = System.currentTimeMillis();
 			performanceStats.put("t_7", (execT2 - execT1) / 1000d);
 			LOGGER.info("==== Section7-low (create concave hull with fixed threshold) Execution time is:{} seconds", df.format((execT2 - execT1) / 1000d));
@@ -561,43 +758,53 @@ public final class Isochrones {
 		
 		roadArea = all.getArea();
 		
-		//the buffered network is in projected crs, need to project it back to geographic crs
-	    Geometry allGeo = JTS.transform(all, transformToGeoCRS);
+		//the buffered network, edges and nodes are in projected crs, project them back to geographic crs in one bulk transform
+		List<Geometry> outputGeoms = new ArrayList<Geometry>();
+		outputGeoms.add(all);
+		addDefaultGeometries(isoEdgeFC, outputGeoms);
+		addDefaultGeometries(isoNodeFC, outputGeoms);
+		GeometryUtils.transform(outputGeoms, transformToGeoCRS);
 	    
-		sao.serviceAreaPolgyon = buildIsochronePolygonFeature(pointFeature, allGeo, id, "success", roadArea);
-		
-		SimpleFeatureCollection isoEdgeFCGeo = new ForceCoordinateSystemFeatureResults(isoEdgeFC, prjCRS, false);
-		isoEdgeFCGeo = new ReprojectingFeatureCollection(isoEdgeFCGeo, geoCRS);
-		sao.serviceAreaLines = isoEdgeFCGeo;
-		
-		SimpleFeatureCollection isoNodeFCGeo = new ForceCoordinateSystemFeatureResults(isoNodeFC, prjCRS, false);
-		isoNodeFCGeo = new ReprojectingFeatureCollection(isoNodeFCGeo, geoCRS);
-		sao.serviceAreaNodes = isoNodeFCGeo;
+		sao.serviceAreaPolgyon = buildIsochronePolygonFeature(seedId, seedCoord, all, id, "success", roadArea);
+		sao.serviceAreaLines = isoEdgeFC;
+		sao.serviceAreaNodes = isoNodeFC;
 		
 		execT2 = System.currentTimeMillis();
 		performanceStats.put("t_all", (execT2 - execStart) / 1000d);
 		LOGGER.info("==== Single Isochrone Execution time is:{} seconds", df.format((execT2 - execStart) / 1000d));
 		
 		//append other info for performanceStats
-		performanceStats.put("num_isolink", isoEdgeFCGeo.size());
-		performanceStats.put("num_isonode", isoNodeFCGeo.size());
+		performanceStats.put("num_isolink", isoEdgeFC.size());
+		performanceStats.put("num_isonode", isoNodeFC.size());
 		performanceStats.put("num_isoleafnode", isoLeafNodeCounter);
 		performanceStats.put("para_radius", reachDistance);
 		performanceStats.put("para_bufsize", bufSize);
-		performanceStats.put("para_seedcoord", pointOfInterestGeo.getY()+","+pointOfInterestGeo.getX());
-		performanceStats.put("para_id", pointFeature.getAttribute("id"));
+		performanceStats.put("para_seedcoord", seedCoord);
+		performanceStats.put("para_id", seedId);
 		sao.performanceStats = performanceStats;
 
 		return sao;
 	}
 	
+	private static void addDefaultGeometries(DefaultFeatureCollection fc, List<Geometry> geoms) {
+		SimpleFeatureIterator iter = fc.features();
+		try {
+			while (iter.hasNext()) {
+				geoms.add((Geometry) iter.next().getDefaultGeometry());
+			}
+		} finally {
+			iter.close();
+		}
+	}
+	
 	private static SimpleFeature buildIsochronePolygonFeature(
-			SimpleFeature sourceFeature, Geometry geom, String id, String status, double roadArea) {
+			Object seedId, String seedCoord, Geometry geom, String id, String status, double roadArea) {
 		
 		SimpleFeatureTypeBuilder stb = new SimpleFeatureTypeBuilder();
 		
 		stb.setName("buffnetwork");
-		stb.add("the_geom", Polygon.class);
+		//a MultiPolygon where the outline falls apart, e.g. a raster polygon coarsened past its cell budget
+		stb.add("the_geom", Geometry.class);
 		stb.setDefaultGeometry("the_geom");
 		stb.add("id", String.class);
 		stb.add("seedcoord", String.class);
@@ -606,12 +813,10 @@ public final class Isochrones {
 		SimpleFeatureType featureType = stb.buildFeatureType();
 		SimpleFeatureBuilder sfb = new SimpleFeatureBuilder(featureType);
 		SimpleFeature sf = sfb.buildFeature(id);
-		
-		Point pt = (Point)sourceFeature.getDefaultGeometry();
 
 		sf.setAttribute("the_geom", geom);
-		sf.setAttribute("id", sourceFeature.getAttribute("id"));
-		sf.setAttribute("seedcoord", pt.getY()+","+pt.getX());
+		sf.setAttribute("id", seedId);
+		sf.setAttribute("seedcoord", seedCoord);
 		sf.setAttribute("calcstatus", status);
 		sf.setAttribute("roadarea",roadArea);
 		
@@ -673,38 +878,7 @@ public final class Isochrones {
 		return sfb.buildFeature(null);
 	}
 
-	private static SimpleFeatureCollection featuresInRegion(
-			SimpleFeatureSource featureSource, Geometry roi) throws IOException, MismatchedDimensionException, NoSuchAuthorityCodeException, FactoryException {
-		// Construct a filter which first filters within the bbox of roi and
-		// then filters with intersections of roi
-		FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
-		FeatureType schema = featureSource.getSchema();
-
-		String geometryPropertyName = schema.getGeometryDescriptor().getLocalName();
-
-		Filter filter = ff.intersects(ff.property(geometryPropertyName),ff.literal(roi.getEnvelope()));
-
-		SimpleFeatureCollection features = featureSource.getFeatures(filter);
-		
-		//LOGGER.info("Read {} features from road network source",features.size());
-		
-
-		return features;
-	}
-
-	private static SimpleFeatureType createEdgeFeatureType(CoordinateReferenceSystem crs) {
 
-		SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
-		builder.setName("Edge");
-		builder.setCRS(crs); // <- Coordinate reference system
-
-		// add attributes in order
-		builder.add("Edge", LineString.class);
-
-		// build the type
-		return builder.buildFeatureType();
-	}
-	
 	private static SimpleFeatureType createIsochronesEdgeFeatureType(CoordinateReferenceSystem crs) {
 
 		SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
@@ -19,21 +19,29 @@ package com.nearbit.common.isochrones;
  */
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
-import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.json.JSONArray;
 import org.opengis.feature.simple.SimpleFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.nearbit.dev.api.isochrones.IsochronesOutput;
+import com.nearbit.dev.api.isochrones.PositionChecker;
+import com.vividsolutions.jts.geom.Point;
 
 /**
  * Generates network buffers for a set of points, using Fork/Join for
@@ -48,7 +56,8 @@ public class IsochronesBatch { //extends RecursiveAction {
   // */
   // private static final long serialVersionUID = 1L;
   static final Logger LOGGER = LoggerFactory.getLogger(IsochronesBatch.class);
-  private SimpleFeatureSource network;
+  private IsochronesNetworkSource network;
+  private String networkLayerName;
   private SimpleFeatureCollection points;
   private DefaultFeatureCollection buffers;
   private DefaultFeatureCollection roadlines;
@@ -57,6 +66,7 @@ public class IsochronesBatch { //extends RecursiveAction {
   private JSONArray performanceStatsArray;
   private Double bufferSize;
   private ArrayList<Double> distanceArray;
+  private List<Double> bufferRadii;
   private String polygondetaillevel;
   private int concavehullthreshold;
 
@@ -65,6 +75,8 @@ public class IsochronesBatch { //extends RecursiveAction {
    * 
    * @param network
    *          The network to use to generate service networks
+   * @param networkLayerName
+   *          The layer name of the network, used to find its resident graph
    * @param points
    *          The set of points of interest
    * @param distanceArray
@@ -72,11 +84,13 @@ public class IsochronesBatch { //extends RecursiveAction {
    * @param bufferSize
    *          The length to buffer the service network
    */
-  public IsochronesBatch(SimpleFeatureSource network,
+  public IsochronesBatch(IsochronesNetworkSource network, String networkLayerName,
 	      SimpleFeatureCollection points, ArrayList<Double> distanceArray, Double bufferSize, String polygondetaillevel, int concavehullthreshold) {
 	    this.network = network;
+	    this.networkLayerName = networkLayerName;
 	    this.points = points;
 	    this.distanceArray = distanceArray;
+	    this.bufferRadii = distanceArray;
 	    this.bufferSize = bufferSize;
 	    this.buffers = new DefaultFeatureCollection();
 	    this.roadlines = new DefaultFeatureCollection();
@@ -111,28 +125,56 @@ public class IsochronesBatch { //extends RecursiveAction {
 	  return performanceStatsArray;  
 }
   
+  /**
+   * @return the radius of each buffer, in the order of getBuffers()
+   */
+  public List<Double> getBufferRadii(){
+	  return bufferRadii;
+}
+  
   public boolean createBuffersAdvanced() {
 	    ExecutorService executorService = Executors.newFixedThreadPool(Runtime
 	        .getRuntime().availableProcessors());
 	    
 	    try {
-		    List<Future> futures = new ArrayList<Future>();
+		    //points at the same location, e.g. the copies of a seed made for each radius of a composite request,
+		    //share one network search, keep the index of each point so the outputs stay in the input order
+		    Map<String, BuffernatorAdvanced> seeds = new LinkedHashMap<String, BuffernatorAdvanced>();
 		    int count = 0;
 		    SimpleFeatureIterator features = points.features();
 		    while (features.hasNext()) {
 		        SimpleFeature point = features.next();
-		        BuffernatorAdvanced ac = new BuffernatorAdvanced(distanceArray.get(count), point, network);
-		        Future future = executorService.submit(ac);
-		        futures.add(future);
+		        Point location = (Point) point.getDefaultGeometry();
+		        String key = location.getX() + "," + location.getY();
+		        BuffernatorAdvanced ac = seeds.get(key);
+		        if (ac == null) {
+		        	ac = new BuffernatorAdvanced(network);
+		        	seeds.put(key, ac);
+		        }
+		        ac.add(count, distanceArray.get(count), point);
 		        count++;
 		    }
 		    features.close();
 
-		    for (Future future : futures) {
-		    		buffers.add(((IsochronesOutput)future.get()).serviceAreaPolgyon);
-		    		roadlines.addAll(((IsochronesOutput)future.get()).serviceAreaLines); 
-		    		roadnodes.addAll(((IsochronesOutput)future.get()).serviceAreaNodes);
-		    		performanceStatsArray.put(((IsochronesOutput)future.get()).performanceStats);
+		    List<Future<List<IsochronesOutput>>> futures = new ArrayList<Future<List<IsochronesOutput>>>();
+		    for (BuffernatorAdvanced ac : seeds.values()) {
+		    	futures.add(executorService.submit(ac));
+		    }
+		    
+		    IsochronesOutput[] outputs = new IsochronesOutput[count];
+		    int seed = 0;
+		    for (BuffernatorAdvanced ac : seeds.values()) {
+		    	List<IsochronesOutput> seedOutputs = futures.get(seed++).get();
+		    	for (int i = 0; i < seedOutputs.size(); i++) {
+		    		outputs[ac.indices.get(i)] = seedOutputs.get(i);
+		    	}
+		    }
+
+		    for (IsochronesOutput output : outputs) {
+		    		buffers.add(output.serviceAreaPolgyon);
+		    		roadlines.addAll(output.serviceAreaLines); 
+		    		roadnodes.addAll(output.serviceAreaNodes);
+		    		performanceStatsArray.put(output.performanceStats);
 		    }
 		    
 		    LOGGER.debug("Completed {} buffers for {} points", buffers.size(), points.size());
@@ -146,22 +188,176 @@ public class IsochronesBatch { //extends RecursiveAction {
 	    return false;
 	  }
   
-  class BuffernatorAdvanced implements Callable<IsochronesOutput> {
-  	private Double reachDistance;
-    private SimpleFeature point;
-    private SimpleFeatureSource network;
+  /**
+   * Generates one merged buffer per distinct radius for all points, instead of
+   * one buffer per point. The points of each projection zone are searched
+   * together, so there is one buffer per zone and radius.
+   * 
+   * @return true if all buffers were generated
+   */
+  public boolean createMultiSourceBuffers() {
+	  return createZoneBuffers(false);
+  }
+  
+  /**
+   * Generates one buffer per point, covering the part of the network which is
+   * closer to that point than to any other point, within the largest radius.
+   * The points of each projection zone are partitioned in one search.
+   * 
+   * @return true if all buffers were generated
+   */
+  public boolean createPartitionBuffers() {
+	  return createZoneBuffers(true);
+  }
+  
+  private boolean createZoneBuffers(boolean partition) {
+	    ExecutorService executorService = Executors.newFixedThreadPool(Runtime
+	        .getRuntime().availableProcessors());
+	    
+	    try {
+	    	//a partition has one radius, the largest requested
+	    	List<Double> radii = partition ? Arrays.asList(Collections.max(distanceArray))
+	    			: new ArrayList<Double>(new LinkedHashSet<Double>(distanceArray));
+	    	
+	    	//a graph covers one projection zone only, and a seed listed once per radius is searched from once,
+	    	//a facility of a partition at the location of another one shares its part
+		    Map<String, List<SimpleFeature>> zones = new LinkedHashMap<String, List<SimpleFeature>>();
+		    Map<String, SimpleFeature> locations = new HashMap<String, SimpleFeature>();
+		    Map<SimpleFeature, SimpleFeature> sharedParts = new LinkedHashMap<SimpleFeature, SimpleFeature>();
+		    SimpleFeatureIterator features = points.features();
+		    while (features.hasNext()) {
+		        SimpleFeature point = features.next();
+		        Point location = (Point) point.getDefaultGeometry();
+		        SimpleFeature first = locations.get(location.getX() + "," + location.getY());
+		        if (first != null) {
+		        	if (partition) {
+		        		sharedParts.put(point, first);
+		        	}
+		        	continue;
+		        }
+		        locations.put(location.getX() + "," + location.getY(), point);
+		        String epsgCode = PositionChecker.getEPSGCode(location);
+		        List<SimpleFeature> zonePoints = zones.get(epsgCode);
+		        if (zonePoints == null) {
+		        	zonePoints = new ArrayList<SimpleFeature>();
+		        	zones.put(epsgCode, zonePoints);
+		        }
+		        zonePoints.add(point);
+		    }
+		    features.close();
+		    
+		    List<Future<List<IsochronesOutput>>> futures = new ArrayList<Future<List<IsochronesOutput>>>();
+		    for (Map.Entry<String, List<SimpleFeature>> zone : zones.entrySet()) {
+		    	futures.add(executorService.submit(new MultiSourceBuffernator(radii, zone.getValue(), zone.getKey(), partition)));
+		    }
+
+		    Map<String, Double> radiusById = new HashMap<String, Double>();
+		    Map<String, IsochronesOutput> outputById = new HashMap<String, IsochronesOutput>();
+		    for (Future<List<IsochronesOutput>> future : futures) {
+		    	List<IsochronesOutput> zoneOutputs = future.get();
+		    	for (int i = 0; i < zoneOutputs.size(); i++) {
+		    		IsochronesOutput output = zoneOutputs.get(i);
+		    		buffers.add(output.serviceAreaPolgyon);
+		    		roadlines.addAll(output.serviceAreaLines); 
+		    		roadnodes.addAll(output.serviceAreaNodes);
+		    		performanceStatsArray.put(output.performanceStats);
+		    		radiusById.put(output.serviceAreaPolgyon.getID(), radii.get(partition ? 0 : i));
+		    		outputById.put(output.serviceAreaPolgyon.getID(), output);
+		    	}
+		    }
+		    
+		    //every facility of a partition gets a polygon, the lines and nodes of a shared part are returned once
+		    for (Map.Entry<SimpleFeature, SimpleFeature> shared : sharedParts.entrySet()) {
+		    	SimpleFeature point = shared.getKey();
+		    	IsochronesOutput output = outputById.get(shared.getValue().getID());
+		    	SimpleFeatureBuilder builder = new SimpleFeatureBuilder(output.serviceAreaPolgyon.getFeatureType());
+		    	builder.init(output.serviceAreaPolgyon);
+		    	SimpleFeature polygon = builder.buildFeature(point.getID());
+		    	polygon.setAttribute("id", point.getAttribute("id"));
+		    	buffers.add(polygon);
+		    	performanceStatsArray.put(output.performanceStats);
+		    	radiusById.put(polygon.getID(), radii.get(0));
+		    }
+		    
+		    //the buffers are iterated in the order of their feature ids, not in the order they were added
+		    bufferRadii = new ArrayList<Double>();
+		    SimpleFeatureIterator bufferFeatures = buffers.features();
+		    while (bufferFeatures.hasNext()) {
+		    	bufferRadii.add(radiusById.get(bufferFeatures.next().getID()));
+		    }
+		    bufferFeatures.close();
+		    
+		    LOGGER.debug("Completed {} {} buffers for {} points", new Object[] { buffers.size(),
+		    		partition ? "partition" : "multi-source", points.size() });
+		    return true;
+	    } catch (Exception e) {
+	      LOGGER.error("=== {}", e.getMessage());
+	    } finally {
+	      executorService.shutdownNow();
+	    }
+	    
+	    return false;
+	  }
+  
+  /**
+   * Generates the merged isochrones, or the partition, of all points of one projection zone
+   */
+  class MultiSourceBuffernator implements Callable<List<IsochronesOutput>> {
+  	private List<Double> reachDistances;
+    private List<SimpleFeature> points;
+    private String epsgCode;
+    private boolean partition;
+
+    MultiSourceBuffernator(List<Double> reachDistances, List<SimpleFeature> points, String epsgCode, boolean partition) {
+      this.reachDistances = reachDistances;
+      this.points = points;
+      this.epsgCode = epsgCode;
+      this.partition = partition;
+    }
+
+    public List<IsochronesOutput> call() throws Exception {
+    	
+      if (partition) {
+    	  return Isochrones.runPartition(network, networkLayerName, reachDistances.get(0), bufferSize, points, epsgCode, polygondetaillevel, concavehullthreshold);
+      }
+      //the merged isochrones carry the ids of the seeds they were searched from
+      StringBuilder seedIds = new StringBuilder();
+      for (SimpleFeature point : points) {
+    	  Object id = point.getAttribute("id");
+    	  if (id != null && !id.toString().isEmpty()) {
+    		  seedIds.append(seedIds.length() > 0 ? "," : "").append(id);
+    	  }
+      }
+      return Isochrones.runMultiSource(network, networkLayerName, reachDistances, bufferSize, points, epsgCode, seedIds.toString(), polygondetaillevel, concavehullthreshold);
+    }
+  }
+  
+  /**
+   * Generates the isochrones of all radii requested for one seed location
+   */
+  class BuffernatorAdvanced implements Callable<List<IsochronesOutput>> {
+    private List<Integer> indices = new ArrayList<Integer>();
+  	private List<Double> reachDistances = new ArrayList<Double>();
+    private List<SimpleFeature> points = new ArrayList<SimpleFeature>();
+    private List<String> ids = new ArrayList<String>();
+    private IsochronesNetworkSource network;
 
-    BuffernatorAdvanced(Double reachDistance, SimpleFeature point, SimpleFeatureSource network) {
-      this.reachDistance = reachDistance;
-      this.point = point;
+    BuffernatorAdvanced(IsochronesNetworkSource network) {
       this.network = network;
     }
+    
+    void add(int index, Double reachDistance, SimpleFeature point) {
+      indices.add(index);
+      reachDistances.add(reachDistance);
+      points.add(point);
+      ids.add(String.valueOf(point.getID()));
+    }
 
-    public IsochronesOutput call() throws Exception {
+    public List<IsochronesOutput> call() throws Exception {
     	
-      IsochronesOutput sao = Isochrones.run(network, reachDistance, bufferSize, point, String.valueOf(point.getID()), polygondetaillevel, concavehullthreshold);
+      List<IsochronesOutput> saos = Isochrones.run(network, networkLayerName, reachDistances, bufferSize, points, ids, polygondetaillevel, concavehullthreshold);
       
-      return sao;
+      return saos;
     }
   }
 }
\ No newline at end of file
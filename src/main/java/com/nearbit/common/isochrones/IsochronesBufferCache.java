@@ -0,0 +1,205 @@
+package com.nearbit.common.isochrones;
+
+/*
+ * Copyright (C) 2016 Benny Chen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.nearbit.common.AppConfig;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+
+/**
+ * Keeps the buffer polygons of whole edges of the resident graphs between
+ * requests, so overlapping "high" isochrones in a city buffer most of their
+ * edges only once. Buffers are stored as WKB in direct byte buffers, off the
+ * heap, keyed by layer, projection zone, edge id and buffer size, and the
+ * least recently used ones are evicted once they take more than
+ * isochronesBUFFER_CACHE_MB, 0 disables the cache. Edges of graphs loaded for
+ * a single request have no stable ids, and chopped edges differ per request,
+ * those are always buffered on demand.
+ *
+ * @author  Benny Chen
+ */
+public class IsochronesBufferCache {
+
+	//a rough size of the key and map entry of a buffer, on the heap
+	private static final int ENTRY_OVERHEAD = 128;
+
+	//in access order, so the first entry is the least recently used buffer
+	private static final Map<String, ByteBuffer> buffers = new LinkedHashMap<String, ByteBuffer>(1024, 0.75f, true);
+
+	//guarded by buffers
+	private static long cachedBytes = 0;
+	private static long hitCount = 0;
+	private static long missCount = 0;
+	private static long evictionCount = 0;
+
+	private IsochronesBufferCache() {
+	}
+
+	/**
+	 * @param layerName
+	 * @param epsgCode
+	 * @param graph
+	 *            the graph a request searched
+	 * @return the scope the buffers of the edges of the graph are cached in, or
+	 *         null if the graph is not resident or the cache is disabled
+	 */
+	public static String scope(String layerName, String epsgCode, IsochronesGraph graph) {
+		if (budget() <= 0 || graph != IsochronesGraphStore.getGraph(layerName, epsgCode)) {
+			return null;
+		}
+		return layerName + "|" + epsgCode;
+	}
+
+	/**
+	 * Looks up the buffers of several edges at once
+	 *
+	 * @param scope
+	 *            see {@link #scope(String, String, IsochronesGraph)}
+	 * @param edgeIds
+	 *            the edge ids, -1 for an edge that is not to be looked up
+	 * @param bufSize
+	 * @param found
+	 *            receives the cached buffers, the others are left null
+	 * @param gf
+	 *            the factory of the buffers
+	 * @return the number of buffers found
+	 */
+	public static int get(String scope, int[] edgeIds, double bufSize, Geometry[] found, GeometryFactory gf) {
+
+		ByteBuffer[] wkbs = new ByteBuffer[edgeIds.length];
+		int hits = 0;
+		int misses = 0;
+		synchronized (buffers) {
+			for (int i = 0; i < edgeIds.length; i++) {
+				if (edgeIds[i] >= 0) {
+					wkbs[i] = buffers.get(key(scope, edgeIds[i], bufSize));
+					if (wkbs[i] != null) {
+						hits++;
+					} else {
+						misses++;
+					}
+				}
+			}
+			hitCount += hits;
+			missCount += misses;
+		}
+
+		//decoded outside the lock, the cached byte buffers are never written again
+		WKBReader reader = new WKBReader(gf);
+		for (int i = 0; i < wkbs.length; i++) {
+			if (wkbs[i] == null) {
+				continue;
+			}
+			ByteBuffer wkb = wkbs[i].duplicate();
+			byte[] bytes = new byte[wkb.remaining()];
+			wkb.get(bytes);
+			try {
+				found[i] = reader.read(bytes);
+			} catch (ParseException e) {
+				throw new IllegalStateException("corrupt cached buffer", e);
+			}
+		}
+		return hits;
+	}
+
+	/**
+	 * Caches the buffers of several edges, evicting the least recently used ones beyond the budget
+	 *
+	 * @param scope
+	 *            see {@link #scope(String, String, IsochronesGraph)}
+	 * @param edgeIds
+	 *            the edge ids, -1 for a buffer that is not to be cached
+	 * @param bufSize
+	 * @param edgeBuffers
+	 *            the buffers, null for a buffer that is not to be cached
+	 */
+	public static void put(String scope, int[] edgeIds, double bufSize, Geometry[] edgeBuffers) {
+
+		String[] keys = new String[edgeIds.length];
+		ByteBuffer[] wkbs = new ByteBuffer[edgeIds.length];
+		WKBWriter writer = new WKBWriter();
+		for (int i = 0; i < edgeIds.length; i++) {
+			if (edgeIds[i] >= 0 && edgeBuffers[i] != null) {
+				byte[] bytes = writer.write(edgeBuffers[i]);
+				wkbs[i] = ByteBuffer.allocateDirect(bytes.length);
+				wkbs[i].put(bytes).flip();
+				keys[i] = key(scope, edgeIds[i], bufSize);
+			}
+		}
+
+		synchronized (buffers) {
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] == null) {
+					continue;
+				}
+				ByteBuffer old = buffers.put(keys[i], wkbs[i]);
+				//another request may have buffered the same edge meanwhile
+				cachedBytes += size(wkbs[i]) - (old != null ? size(old) : 0);
+			}
+			long budget = budget();
+			Iterator<ByteBuffer> lru = buffers.values().iterator();
+			while (cachedBytes > budget && lru.hasNext()) {
+				cachedBytes -= size(lru.next());
+				lru.remove();
+				evictionCount++;
+			}
+		}
+	}
+
+	/**
+	 * @return the size of the cache and its hits, misses and evictions since the start
+	 * @throws JSONException
+	 */
+	public static JSONObject getStats() throws JSONException {
+		JSONObject stats = new JSONObject();
+		synchronized (buffers) {
+			long requested = hitCount + missCount;
+			stats.put("buffers", buffers.size());
+			stats.put("bytes", cachedBytes);
+			stats.put("budgetbytes", budget());
+			stats.put("hits", hitCount);
+			stats.put("misses", missCount);
+			stats.put("evictions", evictionCount);
+			stats.put("hitrate", requested > 0 ? (double) hitCount / requested : 0);
+		}
+		return stats;
+	}
+
+	private static long size(ByteBuffer wkb) {
+		return wkb.capacity() + ENTRY_OVERHEAD;
+	}
+
+	private static long budget() {
+		return (long) (Double.parseDouble(AppConfig.getString("isochronesBUFFER_CACHE_MB")) * 1024 * 1024);
+	}
+
+	private static String key(String scope, int edgeId, double bufSize) {
+		return scope + "|" + edgeId + "|" + bufSize;
+	}
+}
@@ -0,0 +1,158 @@
+package com.nearbit.common.isochrones;
+
+/*
+ * Copyright (C) 2016 Benny Chen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geotools.data.DataStore;
+import org.geotools.data.DataStoreFinder;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+import com.nearbit.common.PostgresDataStore;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * Reads the network through a GeoTools DataStore: the PostGIS database, or a
+ * GeoPackage or shapefile per network layer. Only the geometry column is
+ * read, and each line part of a feature is passed on as a line.
+ *
+ * @author  Benny Chen
+ */
+public class IsochronesDataStoreSource implements IsochronesNetworkSource {
+
+	//null for the database, the network files are found in dir otherwise
+	private final File dir;
+	private final String extension;
+
+	private final PostgresDataStore pgDS = new PostgresDataStore();
+	//the file DataStores opened so far, by layer
+	private final Map<String, DataStore> fileStores = new HashMap<String, DataStore>();
+
+	private IsochronesDataStoreSource(File dir, String extension) {
+		this.dir = dir;
+		this.extension = extension;
+	}
+
+	/**
+	 * @return a source reading the network layers from the database, the connection is only opened once a layer is read
+	 */
+	public static IsochronesDataStoreSource postgis() {
+		return new IsochronesDataStoreSource(null, null);
+	}
+
+	/**
+	 * @param dir
+	 *            holds a &lt;layer&gt;.gpkg file per network layer, its features in EPSG:4326
+	 */
+	public static IsochronesDataStoreSource geoPackage(File dir) {
+		return new IsochronesDataStoreSource(dir, ".gpkg");
+	}
+
+	/**
+	 * @param dir
+	 *            holds a &lt;layer&gt;.shp file per network layer, its features in EPSG:4326
+	 */
+	public static IsochronesDataStoreSource shapefile(File dir) {
+		return new IsochronesDataStoreSource(dir, ".shp");
+	}
+
+	public void readLines(String layerName, Geometry regionGeo, LineHandler handler) throws Exception {
+		SimpleFeatureIterator iter = featuresInRegion(getFeatureSource(layerName), regionGeo).features();
+		try {
+			while (iter.hasNext()) {
+				SimpleFeature feature = iter.next();
+				Geometry geom = (Geometry) feature.getDefaultGeometry();
+				if (geom == null) {
+					continue;
+				}
+				for (int i = 0; i < geom.getNumGeometries(); i++) {
+					Geometry part = geom.getGeometryN(i);
+					if (part instanceof LineString) {
+						handler.line(feature.getID() + "#" + i, part.getCoordinates());
+					}
+				}
+			}
+		} finally {
+			iter.close();
+		}
+	}
+
+	public void dispose() {
+		pgDS.dispose();
+		for (DataStore store : fileStores.values()) {
+			store.dispose();
+		}
+		fileStores.clear();
+	}
+
+	private SimpleFeatureSource getFeatureSource(String layerName) throws IOException {
+		if (dir == null) {
+			return pgDS.getFeatureSource(layerName);
+		}
+
+		DataStore store = fileStores.get(layerName);
+		if (store == null) {
+			File file = new File(dir, layerName + extension);
+			if (!file.isFile()) {
+				throw new IOException("no network file " + file.getPath());
+			}
+			Map<String, Serializable> params = new HashMap<String, Serializable>();
+			if (extension.equals(".gpkg")) {
+				params.put("dbtype", "geopkg");
+				params.put("database", file.getPath());
+			} else {
+				params.put("url", file.toURI().toURL());
+			}
+			store = DataStoreFinder.getDataStore(params);
+			if (store == null) {
+				throw new IOException("cannot open " + file.getPath());
+			}
+			fileStores.put(layerName, store);
+		}
+		//a GeoPackage may hold other tables, the network is the one named after the layer
+		String[] typeNames = store.getTypeNames();
+		for (String typeName : typeNames) {
+			if (typeName.equalsIgnoreCase(layerName)) {
+				return store.getFeatureSource(typeName);
+			}
+		}
+		return store.getFeatureSource(typeNames[0]);
+	}
+
+	private static SimpleFeatureCollection featuresInRegion(SimpleFeatureSource featureSource, Geometry roi)
+			throws Exception {
+		FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
+		String geometryPropertyName = featureSource.getSchema().getGeometryDescriptor().getLocalName();
+		Filter filter = ff.intersects(ff.property(geometryPropertyName), ff.literal(roi));
+		//the graph only needs the geometries, leave the other columns in the database
+		Query query = new Query(featureSource.getSchema().getTypeName(), filter, new String[] { geometryPropertyName });
+		return featureSource.getFeatures(query);
+	}
+}
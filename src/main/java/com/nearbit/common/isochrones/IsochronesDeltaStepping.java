@@ -0,0 +1,333 @@
+package com.nearbit.common.isochrones;
+
+/*
+ * Copyright (C) 2016 Benny Chen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import jsr166y.ForkJoinPool;
+import jsr166y.RecursiveAction;
+
+import com.nearbit.common.AppConfig;
+
+/**
+ * A parallel bounded search over an {@link IsochronesGraph} using
+ * delta-stepping. Nodes are kept in buckets of width delta by tentative
+ * distance. The buckets are emptied in order, and the edges of each bucket's
+ * frontier are relaxed in parallel on a ForkJoinPool: light edges (not longer
+ * than delta) repeatedly until the bucket stays empty, heavy edges once
+ * afterwards. Tentative distances are lowered with compare-and-set, so the
+ * result is the same as that of {@link IsochronesDijkstra}.
+ *
+ * @author  Benny Chen
+ */
+public class IsochronesDeltaStepping {
+
+	//frontier slices smaller than this are relaxed on the current thread
+	private static final int SPLIT_THRESHOLD = 256;
+
+	private static ForkJoinPool pool;
+
+	private IsochronesDeltaStepping() {
+	}
+
+	/**
+	 * @param graph
+	 * @return true if the graph has at least isochronesPARALLEL_MIN_NODES nodes,
+	 *         below that the sequential search is faster
+	 */
+	public static boolean isEnabled(IsochronesGraph graph) {
+		return graph.getNodeCount() >= Integer.parseInt(AppConfig.getString("isochronesPARALLEL_MIN_NODES"));
+	}
+
+	/**
+	 * Settles every node within maxDistance of the sources on the shared pool,
+	 * with delta set to the mean edge length of the graph
+	 *
+	 * @see #search(ForkJoinPool, IsochronesGraph, int[], double[], double, double)
+	 */
+	public static IsochronesLabels search(IsochronesGraph graph, int[] sourceNodes, double[] sourceDistances, double maxDistance) {
+		return search(getPool(), graph, sourceNodes, sourceDistances, maxDistance, graph.getMeanEdgeLength());
+	}
+
+	/**
+	 * Settles every node within maxDistance of a seed snapped onto an edge, on the shared pool
+	 *
+	 * @see IsochronesDijkstra#search(IsochronesGraph, IsochronesSnap, double)
+	 */
+	public static IsochronesLabels search(IsochronesGraph graph, IsochronesSnap snap, double maxDistance) {
+		return search(graph, new IsochronesSnap[] { snap }, maxDistance);
+	}
+
+	/**
+	 * Settles every node within maxDistance of any of several snapped seeds, on the shared pool
+	 *
+	 * @see IsochronesDijkstra#search(IsochronesGraph, IsochronesSnap[], double)
+	 */
+	public static IsochronesLabels search(IsochronesGraph graph, IsochronesSnap[] snaps, double maxDistance) {
+		IsochronesLabels labels = search(graph, IsochronesDijkstra.snapSources(graph, snaps),
+				IsochronesDijkstra.snapSourceDistances(graph, snaps), maxDistance);
+		labels.setSnaps(snaps);
+		return labels;
+	}
+
+	/**
+	 * Settles every node within maxDistance of the sources
+	 *
+	 * @param pool
+	 *            the pool the relaxations run on
+	 * @param graph
+	 *            the graph to search
+	 * @param sourceNodes
+	 *            the start nodes
+	 * @param sourceDistances
+	 *            the distance each start node is already away from the seed
+	 * @param maxDistance
+	 *            nodes further than this are not settled
+	 * @param delta
+	 *            the bucket width
+	 * @return the labels of the search, call {@link IsochronesLabels#release()} once they are consumed
+	 */
+	public static IsochronesLabels search(ForkJoinPool pool, IsochronesGraph graph, int[] sourceNodes,
+			double[] sourceDistances, double maxDistance, double delta) {
+
+		IsochronesLabels labels = IsochronesDijkstra.acquire(graph);
+		labels.reset(maxDistance);
+		AtomicLongArray tentative = labels.tentative();
+		double[] expanded = labels.expanded();
+
+		if (!(delta > 0)) {
+			delta = Math.max(maxDistance, 1);
+		}
+		IntList[] buckets = new IntList[(int) (maxDistance / delta) + 1];
+		AtomicLong relaxCount = new AtomicLong();
+		ConcurrentLinkedQueue<int[]> improved = new ConcurrentLinkedQueue<int[]>();
+		//every node that was expanded, so its working state can be reset
+		IntList reached = new IntList();
+
+		for (int i = 0; i < sourceNodes.length; i++) {
+			labels.markSource(sourceNodes[i]);
+			if (sourceDistances[i] <= maxDistance && lowerTentative(tentative, sourceNodes[i], sourceDistances[i])) {
+				addToBucket(buckets, sourceNodes[i], sourceDistances[i], delta);
+			}
+		}
+
+		for (int b = 0; b < buckets.length; b++) {
+			IntList settledInBucket = new IntList();
+
+			while (buckets[b] != null) {
+				IntList bucket = buckets[b];
+				buckets[b] = null;
+
+				//skip stale entries and nodes already expanded at their current distance
+				IntList frontier = new IntList();
+				for (int i = 0; i < bucket.size; i++) {
+					int node = bucket.values[i];
+					double dist = Double.longBitsToDouble(tentative.get(node));
+					if (bucketIndex(dist, delta, buckets.length) != b || expanded[node] == dist) {
+						continue;
+					}
+					if (expanded[node] == Double.POSITIVE_INFINITY) {
+						reached.add(node);
+					}
+					expanded[node] = dist;
+					frontier.add(node);
+				}
+				if (frontier.size == 0) {
+					continue;
+				}
+				settledInBucket.addAll(frontier);
+
+				relax(pool, new Relaxation(graph, labels, tentative, frontier.values, 0, frontier.size, true, maxDistance,
+						delta, improved, relaxCount));
+				distribute(improved, tentative, buckets, delta);
+			}
+
+			if (settledInBucket.size > 0) {
+				relax(pool, new Relaxation(graph, labels, tentative, settledInBucket.values, 0, settledInBucket.size, false,
+						maxDistance, delta, improved, relaxCount));
+				distribute(improved, tentative, buckets, delta);
+			}
+		}
+
+		long infinity = Double.doubleToLongBits(Double.POSITIVE_INFINITY);
+		for (int i = 0; i < reached.size; i++) {
+			int node = reached.values[i];
+			labels.settle(node, Double.longBitsToDouble(tentative.get(node)));
+			tentative.set(node, infinity);
+			expanded[node] = Double.POSITIVE_INFINITY;
+		}
+		labels.addRelaxCount(relaxCount.get());
+
+		return labels;
+	}
+
+	//shared with the other parallel stages of a request, see IsochronesUnion
+	static synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			int parallelism = Integer.parseInt(AppConfig.getString("isochronesPARALLELISM"));
+			pool = parallelism > 0 ? new ForkJoinPool(parallelism) : new ForkJoinPool();
+		}
+		return pool;
+	}
+
+	//small frontiers, e.g. the first buckets around the seed, are not worth a hand-off to the pool
+	private static void relax(ForkJoinPool pool, Relaxation relaxation) {
+		if (relaxation.to - relaxation.from > SPLIT_THRESHOLD) {
+			pool.invoke(relaxation);
+		} else {
+			relaxation.compute();
+		}
+	}
+
+	private static int bucketIndex(double dist, double delta, int bucketCount) {
+		return Math.min((int) (dist / delta), bucketCount - 1);
+	}
+
+	private static void addToBucket(IntList[] buckets, int node, double dist, double delta) {
+		int b = bucketIndex(dist, delta, buckets.length);
+		if (buckets[b] == null) {
+			buckets[b] = new IntList();
+		}
+		buckets[b].add(node);
+	}
+
+	private static void distribute(ConcurrentLinkedQueue<int[]> improved, AtomicLongArray tentative, IntList[] buckets,
+			double delta) {
+		int[] nodes;
+		while ((nodes = improved.poll()) != null) {
+			for (int node : nodes) {
+				addToBucket(buckets, node, Double.longBitsToDouble(tentative.get(node)), delta);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the tentative distance of the node was lowered to dist
+	 */
+	private static boolean lowerTentative(AtomicLongArray tentative, int node, double dist) {
+		long bits = Double.doubleToLongBits(dist);
+		while (true) {
+			long current = tentative.get(node);
+			if (Double.longBitsToDouble(current) <= dist) {
+				return false;
+			}
+			if (tentative.compareAndSet(node, current, bits)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Relaxes either the light or the heavy edges of a slice of the frontier,
+	 * splitting the slice until it is small enough
+	 */
+	static class Relaxation extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final IsochronesGraph graph;
+		private final IsochronesLabels labels;
+		private final AtomicLongArray tentative;
+		private final int[] frontier;
+		private final int from;
+		private final int to;
+		private final boolean light;
+		private final double maxDistance;
+		private final double delta;
+		private final ConcurrentLinkedQueue<int[]> improved;
+		private final AtomicLong relaxCount;
+
+		Relaxation(IsochronesGraph graph, IsochronesLabels labels, AtomicLongArray tentative, int[] frontier, int from,
+				int to, boolean light, double maxDistance, double delta, ConcurrentLinkedQueue<int[]> improved,
+				AtomicLong relaxCount) {
+			this.graph = graph;
+			this.labels = labels;
+			this.tentative = tentative;
+			this.frontier = frontier;
+			this.from = from;
+			this.to = to;
+			this.light = light;
+			this.maxDistance = maxDistance;
+			this.delta = delta;
+			this.improved = improved;
+			this.relaxCount = relaxCount;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > SPLIT_THRESHOLD) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Relaxation(graph, labels, tentative, frontier, from, mid, light, maxDistance, delta, improved,
+						relaxCount), new Relaxation(graph, labels, tentative, frontier, mid, to, light, maxDistance, delta,
+						improved, relaxCount));
+				return;
+			}
+
+			IntList lowered = new IntList();
+			long relaxed = 0;
+			for (int i = from; i < to; i++) {
+				int node = frontier[i];
+				//a leaf only leads back to where it was reached from
+				if (graph.getDegree(node) == 1 && !labels.isSource(node)) {
+					continue;
+				}
+				double nodeDistance = Double.longBitsToDouble(tentative.get(node));
+				for (int slot = graph.getAdjStart(node); slot < graph.getAdjEnd(node); slot++) {
+					double edgeLength = graph.getEdgeLength(graph.getAdjEdge(slot));
+					if ((edgeLength <= delta) != light) {
+						continue;
+					}
+					relaxed++;
+					double toDistance = nodeDistance + edgeLength;
+					if (toDistance <= maxDistance && lowerTentative(tentative, graph.getAdjNode(slot), toDistance)) {
+						lowered.add(graph.getAdjNode(slot));
+					}
+				}
+			}
+			relaxCount.addAndGet(relaxed);
+			if (lowered.size > 0) {
+				improved.add(Arrays.copyOf(lowered.values, lowered.size));
+			}
+		}
+	}
+
+	/**
+	 * A growable list of int node ids
+	 */
+	static class IntList {
+		int[] values = new int[16];
+		int size = 0;
+
+		void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		void addAll(IntList other) {
+			if (size + other.size > values.length) {
+				values = Arrays.copyOf(values, Math.max(size + other.size, size * 2));
+			}
+			System.arraycopy(other.values, 0, values, size, other.size);
+			size += other.size;
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package com.nearbit.common.isochrones;
+
+/*
+ * Copyright (C) 2016 Benny Chen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded Dijkstra search over an {@link IsochronesGraph}. Nodes are
+ * queued in an indexed binary heap keyed by int node id, so every node is
+ * settled exactly once, in order of network distance.
+ *
+ * @author  Benny Chen
+ */
+public class IsochronesDijkstra {
+
+	//labels are sized by the graph, keep them for reuse instead of allocating them per request,
+	//but no more per graph than searches run at once in a batch, the extras of a burst are left to the gc
+	private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+	private static final Map<IsochronesGraph, BlockingQueue<IsochronesLabels>> labelsPool = Collections
+			.synchronizedMap(new WeakHashMap<IsochronesGraph, BlockingQueue<IsochronesLabels>>());
+
+	private IsochronesDijkstra() {
+	}
+
+	/**
+	 * Settles every node within maxDistance of the sources
+	 *
+	 * @param graph
+	 *            the graph to search
+	 * @param sourceNodes
+	 *            the start nodes
+	 * @param sourceDistances
+	 *            the distance each start node is already away from the seed
+	 * @param maxDistance
+	 *            the search stops once the nearest unsettled node is further than this
+	 * @return the labels of the search, call {@link IsochronesLabels#release()} once they are consumed
+	 */
+	public static IsochronesLabels search(IsochronesGraph graph, int[] sourceNodes, double[] sourceDistances, double maxDistance) {
+		return search(graph, sourceNodes, sourceDistances, null, maxDistance);
+	}
+
+	/**
+	 * Settles every node within maxDistance of the sources, and records for
+	 * each settled node the owner of the source it was reached from
+	 *
+	 * @param sourceOwners
+	 *            the owner of each start node, null to not record owners
+	 * @see #search(IsochronesGraph, int[], double[], double)
+	 * @see IsochronesLabels#getOwner(int)
+	 */
+	public static IsochronesLabels search(IsochronesGraph graph, int[] sourceNodes, double[] sourceDistances,
+			int[] sourceOwners, double maxDistance) {
+
+		IsochronesLabels labels = acquire(graph);
+		labels.reset(maxDistance);
+		IsochronesHeap heap = labels.heap;
+		int[] owners = sourceOwners != null ? labels.owners() : null;
+
+		for (int i = 0; i < sourceNodes.length; i++) {
+			labels.markSource(sourceNodes[i]);
+			if (sourceDistances[i] <= maxDistance && heap.update(sourceNodes[i], sourceDistances[i]) && owners != null) {
+				owners[sourceNodes[i]] = sourceOwners[i];
+			}
+		}
+
+		while (!heap.isEmpty()) {
+			double nodeDistance = heap.peekKey();
+			int node = heap.poll();
+			labels.settle(node, nodeDistance);
+
+			//a leaf only leads back to where it was reached from
+			if (graph.getDegree(node) == 1 && !labels.isSource(node)) {
+				continue;
+			}
+
+			for (int slot = graph.getAdjStart(node); slot < graph.getAdjEnd(node); slot++) {
+				int toNode = graph.getAdjNode(slot);
+				labels.countRelax();
+				if (labels.isSettled(toNode)) {
+					continue;
+				}
+				double toDistance = nodeDistance + graph.getEdgeLength(graph.getAdjEdge(slot));
+				if (toDistance > maxDistance) {
+					continue;
+				}
+				//ties keep the owner that reached the node first
+				if (heap.update(toNode, toDistance) && owners != null) {
+					owners[toNode] = owners[node];
+				}
+			}
+		}
+
+		return labels;
+	}
+
+	/**
+	 * Settles every node within maxDistance of a seed snapped onto an edge.
+	 * The search starts from both ends of the edge, each at the distance
+	 * along the edge from the snapped location, so the edge never has to be
+	 * split.
+	 *
+	 * @param graph
+	 *            the graph to search
+	 * @param snap
+	 *            the snapped seed
+	 * @param maxDistance
+	 *            the search stops once the nearest unsettled node is further than this
+	 * @return the labels of the search, call {@link IsochronesLabels#release()} once they are consumed
+	 */
+	public static IsochronesLabels search(IsochronesGraph graph, IsochronesSnap snap, double maxDistance) {
+		return search(graph, new IsochronesSnap[] { snap }, maxDistance);
+	}
+
+	/**
+	 * Settles every node within maxDistance of any of several snapped seeds,
+	 * all seeded at distance zero, so one search gives the merged reachable
+	 * set of all of them
+	 *
+	 * @see #search(IsochronesGraph, IsochronesSnap, double)
+	 */
+	public static IsochronesLabels search(IsochronesGraph graph, IsochronesSnap[] snaps, double maxDistance) {
+		IsochronesLabels labels = search(graph, snapSources(graph, snaps), snapSourceDistances(graph, snaps), maxDistance);
+		labels.setSnaps(snaps);
+		return labels;
+	}
+
+	/**
+	 * Settles every node within maxDistance of any of several snapped seeds
+	 * and labels each node with the index of the seed nearest to it by network
+	 * distance, so one search partitions the network between the seeds
+	 *
+	 * @see IsochronesLabels#collectPartition
+	 */
+	public static IsochronesLabels searchPartition(IsochronesGraph graph, IsochronesSnap[] snaps, double maxDistance) {
+		int[] owners = new int[snaps.length * 2];
+		for (int i = 0; i < snaps.length; i++) {
+			owners[i * 2] = i;
+			owners[i * 2 + 1] = i;
+		}
+		IsochronesLabels labels = search(graph, snapSources(graph, snaps), snapSourceDistances(graph, snaps), owners,
+				maxDistance);
+		labels.setSnaps(snaps);
+		return labels;
+	}
+
+	static int[] snapSources(IsochronesGraph graph, IsochronesSnap[] snaps) {
+		int[] sources = new int[snaps.length * 2];
+		for (int i = 0; i < snaps.length; i++) {
+			sources[i * 2] = graph.getEdgeFrom(snaps[i].edgeID);
+			sources[i * 2 + 1] = graph.getEdgeTo(snaps[i].edgeID);
+		}
+		return sources;
+	}
+
+	static double[] snapSourceDistances(IsochronesGraph graph, IsochronesSnap[] snaps) {
+		double[] distances = new double[snaps.length * 2];
+		for (int i = 0; i < snaps.length; i++) {
+			distances[i * 2] = snaps[i].offset;
+			distances[i * 2 + 1] = graph.getEdgeLength(snaps[i].edgeID) - snaps[i].offset;
+		}
+		return distances;
+	}
+
+	static IsochronesLabels acquire(IsochronesGraph graph) {
+		BlockingQueue<IsochronesLabels> queue;
+		synchronized (labelsPool) {
+			queue = labelsPool.get(graph);
+			if (queue == null) {
+				queue = new ArrayBlockingQueue<IsochronesLabels>(POOL_SIZE);
+				labelsPool.put(graph, queue);
+			}
+		}
+		IsochronesLabels labels = queue.poll();
+		if (labels == null) {
+			labels = new IsochronesLabels(graph);
+		}
+		labels.attach(graph);
+		return labels;
+	}
+
+	static void release(IsochronesGraph graph, IsochronesLabels labels) {
+		BlockingQueue<IsochronesLabels> queue = labelsPool.get(graph);
+		if (queue != null) {
+			//dropped if the pool is full
+			queue.offer(labels);
+		}
+	}
+}
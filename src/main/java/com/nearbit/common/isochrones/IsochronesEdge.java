@@ -1,13 +1,12 @@
 package com.nearbit.common.isochrones;
 
-import org.geotools.graph.structure.Edge;
-import org.geotools.graph.structure.Node;
-
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
 
 public class IsochronesEdge {
 	public double traverseDistance = 0.0f; //from start point to the end node of this edge
-	public Edge edge = null;
+	public int edgeID = -1; //the id of the edge in IsochronesGraph, a chopped edge keeps the id of the whole edge
+	public LineString geometry = null; //the whole edge geometry, or the chopped part of it
 	public boolean isLeaf = false;
 	public boolean isChopped = false;
 	public Integer fromNodeID = -1; //from which node the edge is built
@@ -20,24 +20,17 @@ import java.text.DecimalFormat;
  */
 
 import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import jsr166y.RecursiveAction;
-import org.geotools.feature.simple.SimpleFeatureBuilder;
-import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
-import org.geotools.graph.structure.Edge;
-import org.geotools.graph.structure.Node;
-import org.geotools.graph.structure.basic.BasicEdge;
-import org.geotools.graph.structure.basic.BasicNode;
-import org.opengis.feature.simple.SimpleFeature;
-import org.opengis.feature.simple.SimpleFeatureType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.PrecisionModel;
 import com.vividsolutions.jts.linearref.LengthIndexedLine;
 
 /**
@@ -50,28 +43,30 @@ public class IsochronesFJ extends RecursiveAction {
 
 	static final Logger LOGGER = LoggerFactory.getLogger(IsochronesFJ.class);
 
+	private static final int GEOMETRY_PRECISION = 100;
+	private static GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(GEOMETRY_PRECISION));
+
+	public IsochronesGraph graph;
 	public LinkedList <IsochronesNode> isochronesNodeList;
 	public Map<Integer, IsochronesNode> visitedIsochronesNodeMap;
 	public Map<Integer, Geometry> visitedWholeEdgeBufferMap;
 	public Map<Integer, IsochronesEdge> visitedWholeEdgeMap;
 	public Map<String, IsochronesEdge> visitedChoppedEdgeMap; //string is the choppededgecode, which is constructed by "choppedEdgeId-fromNodeId"
 	public Double distance;
+	public long relaxCount = 0; //number of edges followed from a visited node
 
 	/**
 	 * Intialise inputs
 	 * 
-	 * @param network
+	 * @param graph
 	 *            Network/graph dataset
-	 * @param currentPath
-	 *            The current path being traversed
+	 * @param isochronesNodeList
+	 *            The start nodes of the traversal
 	 * @param distance
 	 *            The maximum distance to traverse a path
-	 * @param nmEdges
-	 *            The normal Edges (set of edges)
-	 * @param ucEdges
-	 * 			  The uncontained-chopped Edges (set of edges)
 	 */
-	public IsochronesFJ(LinkedList<IsochronesNode> isochronesNodeList, Double distance) {
+	public IsochronesFJ(IsochronesGraph graph, LinkedList<IsochronesNode> isochronesNodeList, Double distance) {
+		this.graph = graph;
 		this.isochronesNodeList = isochronesNodeList;
 		this.distance = distance;
 		this.visitedIsochronesNodeMap = new ConcurrentHashMap<Integer, IsochronesNode>();
@@ -114,18 +109,20 @@ public class IsochronesFJ extends RecursiveAction {
 			}
 			BFSLoopCount++;
 			
+			int curNode = curIsoNode.nodeID;
 			double curTrasverseDistance = curIsoNode.traverseDistance;
-			//LOGGER.info("=== visit nodeid {}, {}", curIsoNode.node.getID(), "travdist:"+curIsoNode.traverseDistance);
-			visitedIsochronesNodeMap.put(curIsoNode.node.getID(), curIsoNode);
+			//LOGGER.info("=== visit nodeid {}, {}", curNode, "travdist:"+curIsoNode.traverseDistance);
+			visitedIsochronesNodeMap.put(curNode, curIsoNode);
 			
 			//add all of connected edges to isochronesNodeList 
-			List<Edge> graphEdges = (List<Edge>)curIsoNode.node.getEdges();
-			
-			for (Edge inEdge : graphEdges) {
+			for (int slot = graph.getAdjStart(curNode); slot < graph.getAdjEnd(curNode); slot++) {
+				
+				int inEdge = graph.getAdjEdge(slot);
+				int newNode = graph.getAdjNode(slot);
+				relaxCount++;
 				
 				//get the length of edge
-				Geometry edgeGeom = (Geometry)(((SimpleFeature) inEdge.getObject()).getDefaultGeometry());
-				double edgeLen = edgeGeom.getLength();
+				double edgeLen = graph.getEdgeLength(inEdge);
 				
 				//build a new IsochronesNode object
 				IsochronesNode newIsochronesNode = new IsochronesNode();
@@ -139,77 +136,53 @@ public class IsochronesFJ extends RecursiveAction {
 					//					if no, then there is no need to add it; 
 					//					if yes, then update the node's inEdge and traverseDistance info in visitedIsochronesNodeMap and then add it again so that this node (and its connected nodes) can be revisited 
 					
-					Node newNode = null;
-					
-					//make sure newNode is distant away from curIsoNode.node, it should be either inEdge.getNodeA or inEdge.getNodeB
-					Coordinate curIsoNodeCoord = ((Point)curIsoNode.node.getObject()).getCoordinate();
-					Coordinate nodeACoord = ((Point)inEdge.getNodeA().getObject()).getCoordinate();
-					Coordinate nodeBCoord = ((Point)inEdge.getNodeB().getObject()).getCoordinate();
-					if(curIsoNodeCoord.distance(nodeACoord) > curIsoNodeCoord.distance(nodeBCoord)){
-						newNode = inEdge.getNodeA();
-					}else
-					{
-						newNode = inEdge.getNodeB();
-					}
-					/*
-					if(curIsoNode.node.equals(inEdge.getNodeB())){
-						newNode = inEdge.getNodeA();
-					}else
-					{
-						newNode = inEdge.getNodeB();
-					}
-					*/
-					
 					//add whole edge to visitedWholeEdgeMap
 					
 					//if nodeA is the end, then assign nodeA's coord to toNodeCoordinate
 					boolean isLeaf = false;
-					if(inEdge.getNodeA().getDegree() == 1 || inEdge.getNodeB().getDegree() == 1)
+					if(graph.getDegree(graph.getEdgeFrom(inEdge)) == 1 || graph.getDegree(graph.getEdgeTo(inEdge)) == 1)
 					{
 						//just in case the startnode is a leaf node, the bfs should continue.
 						//must not set a startnode as a leaf node, otherwise the search will be terminated incorrectly
 						if(!isStartNode) isLeaf = true;
 					}
 					
-					//construct a newEdge with correct NodeA and NodeB and pass it instead of 'inEdge' to newIsoEdge.edge and newIsochronesNode.inEdge, the reason is that 'inEdge' might have wrong NodeA and NodeB order
-					Edge newEdge = new BasicEdge(curIsoNode.node, newNode);
-					newEdge.setObject(inEdge.getObject());
-					newEdge.setID(inEdge.getID());
-					
 					IsochronesEdge newIsoEdge = new IsochronesEdge();
-					newIsoEdge.edge = newEdge;
+					newIsoEdge.edgeID = inEdge;
 					newIsoEdge.isLeaf = isLeaf;
 					newIsoEdge.traverseDistance = edgeLen + curTrasverseDistance;
-					newIsoEdge.fromNodeID = curIsoNode.node.getID();
-					newIsoEdge.toNodeID = newNode.getID();
-					newIsoEdge.toNodeCoordinate = ((Point)newNode.getObject()).getCoordinate();
+					newIsoEdge.fromNodeID = curNode;
+					newIsoEdge.toNodeID = newNode;
+					newIsoEdge.toNodeCoordinate = graph.getNodeCoordinate(newNode);
 
 					//check if visitedWholeEdgeMap has already contains newIsoEdge
-					if(!visitedWholeEdgeMap.containsKey(inEdge.getID())){
-						visitedWholeEdgeMap.put(inEdge.getID(), newIsoEdge);
+					if(!visitedWholeEdgeMap.containsKey(inEdge)){
+						newIsoEdge.geometry = graph.getEdgeGeometry(inEdge, geometryFactory);
+						visitedWholeEdgeMap.put(inEdge, newIsoEdge);
 					}
 					else
 					{
 						//if contains, update visitedWholeEdgeMap only when current travdist is smaller than that of existing one
-						double existingTravDist = visitedWholeEdgeMap.get(inEdge.getID()).traverseDistance;
-						if(newIsoEdge.traverseDistance < existingTravDist){
-							visitedWholeEdgeMap.put(inEdge.getID(), newIsoEdge);
+						IsochronesEdge existingIsoEdge = visitedWholeEdgeMap.get(inEdge);
+						newIsoEdge.geometry = existingIsoEdge.geometry;
+						if(newIsoEdge.traverseDistance < existingIsoEdge.traverseDistance){
+							visitedWholeEdgeMap.put(inEdge, newIsoEdge);
 						}
 					}
 					//the buffer whole edge is very valuable to eliminate those chopped edges that are "contained" inside
 					//if wholeEdge never be buffered, put its buffer in visitedWholeEdgeBufferMap
-					if(!visitedWholeEdgeBufferMap.containsKey(inEdge.getID())){
-						visitedWholeEdgeBufferMap.put(inEdge.getID(), edgeGeom.buffer(1));
+					if(!visitedWholeEdgeBufferMap.containsKey(inEdge)){
+						visitedWholeEdgeBufferMap.put(inEdge, newIsoEdge.geometry.buffer(1));
 					}
 
-					newIsochronesNode.node = newNode;
-					newIsochronesNode.inEdge = newEdge;
+					newIsochronesNode.nodeID = newNode;
+					newIsochronesNode.inEdge = newIsoEdge;
 					newIsochronesNode.isLeaf = isLeaf;
 					newIsochronesNode.traverseDistance = edgeLen + curTrasverseDistance;
-					newIsochronesNode.fromNodeID = curIsoNode.node.getID();
+					newIsochronesNode.fromNodeID = curNode;
 					
 					//if this is not in visitedIsochronesNodeMap yet
-					if(!visitedIsochronesNodeMap.containsKey(newNode.getID())){
+					if(!visitedIsochronesNodeMap.containsKey(newNode)){
 						
 						if(!isLeaf){
 							//if this is not a leaf, then put it into isochronesNodeList so it can be visited later
@@ -217,15 +190,15 @@ public class IsochronesFJ extends RecursiveAction {
 						else{
 							//if this is a leaf, then put it in visitedIsochronesNodeMap, and not put it into isochronesNodeList
 							//since the outer condition check can ensure it is not in visitedIsochronesNodeMap yet, so we can put it in directly
-							visitedIsochronesNodeMap.put(newNode.getID(), newIsochronesNode);
+							visitedIsochronesNodeMap.put(newNode, newIsochronesNode);
 						}
 						
 					}else //if this is already in visitedIsochronesNodeMap yet
 					{
-						double oldTraverseDistance = ((IsochronesNode)visitedIsochronesNodeMap.get(newNode.getID())).traverseDistance;
+						double oldTraverseDistance = ((IsochronesNode)visitedIsochronesNodeMap.get(newNode)).traverseDistance;
 						if(edgeLen + curTrasverseDistance < oldTraverseDistance){
 							//update visited node in visitedIsochronesNodeMap with smaller traverseDistance
-							visitedIsochronesNodeMap.put(newNode.getID(), newIsochronesNode);
+							visitedIsochronesNodeMap.put(newNode, newIsochronesNode);
 							/* TODO:
 							//and add it back to isochronesNodeList if necessary, so its following nodes can be revisited as well.
 							//check if the newIsochronesNode with same nodeID has already in isochronesNodeList
@@ -245,110 +218,75 @@ public class IsochronesFJ extends RecursiveAction {
 					//edge chopping required. create a newIsochronesNode (isLeaf=true) and put it into visitedIsochronesNodeMap. 
 					//There is no need to add this newIsochronesNode to isochronesNodeList for visiting
 					
-					//first we need to chop the edge
-					double length = distance - (edgeLen + curTrasverseDistance);
-					Node node = curIsoNode.node;
-					Node newNode = new BasicNode();
-					//assign newNode with a system generated id
-					newNode.setID(leafNodeId);
+					//first we need to chop the edge, keeping the part that can still be reached from curNode
+					double length = distance - curTrasverseDistance;
+					int choppedNode = leafNodeId;
 					//update leafNodeId for next use
 					leafNodeId = leafNodeId - 1;
 					
-					//build a chopped edge and use it as inEdge for the newIsochronesNode
-					Edge newEdge = new BasicEdge(node, newNode);
-					
-					//give the chopped edge the same id as the whole edge, important!
-					newEdge.setID(inEdge.getID()); 
-
-					Geometry lineGeom = ((Geometry) ((SimpleFeature) inEdge.getObject()).getDefaultGeometry());
-					
+					LineString lineGeom = graph.getEdgeGeometry(inEdge, geometryFactory);
 					LengthIndexedLine line = new LengthIndexedLine(lineGeom);
-					
-					boolean chopEdgeFlagSuccess = true;
 
+					//a chopped edge always starts at curNode
 					Geometry newLine = null;
-					if (node.equals(inEdge.getNodeA())) {
+					if (curNode == graph.getEdgeFrom(inEdge)) {
 					    newLine = line.extractLine(line.getStartIndex(), length);
-						SimpleFeature newFeature = buildFeatureFromGeometry(((SimpleFeature) inEdge.getObject()).getType(), newLine);
-						newEdge.setObject(newFeature);
-
-					} else if (node.equals(inEdge.getNodeB())) {
-						newLine = line.extractLine(line.getEndIndex(), -length);
-						SimpleFeature newFeature = buildFeatureFromGeometry(((SimpleFeature) inEdge.getObject()).getType(), newLine);
-						newEdge.setObject(newFeature);
-
 					} else {
-						LOGGER.error("Failed To Cut Edge");
-						chopEdgeFlagSuccess = false;
+						newLine = line.extractLine(line.getEndIndex(), line.getEndIndex() - length);
 					}
 					
-					//if edge is chopped successfully, add wrap it as an inEdge of newIsochronesNode, then put the newIsochronesNode into visitedIsochronesNodeMap
-					if(chopEdgeFlagSuccess){
-						boolean ignoreChoppedEdge = false;
-						//check if the newLine (chopped edge) is contained in visitedWholeEdgeBufferMap
-						if(visitedWholeEdgeBufferMap.containsKey(inEdge.getID()))
-						{
-							Geometry buff = (Geometry)(visitedWholeEdgeBufferMap.get(inEdge.getID()));
-							if(buff.contains(newLine)){
-								//if yes, this chopped edge can be ignored
-								//do nothing
-								ignoreChoppedEdge = true;
-							}
+					boolean ignoreChoppedEdge = false;
+					//check if the newLine (chopped edge) is contained in visitedWholeEdgeBufferMap
+					if(visitedWholeEdgeBufferMap.containsKey(inEdge))
+					{
+						Geometry buff = (Geometry)(visitedWholeEdgeBufferMap.get(inEdge));
+						if(buff.contains(newLine)){
+							//if yes, this chopped edge can be ignored
+							//do nothing
+							ignoreChoppedEdge = true;
 						}
+					}
+					
+					//continue check if the chopped edge codestring exists in visitedChoppedEdgeMap
+					//if yes, then check if the existing one is shorter than the current one,
+					//			if yes, replace it with current one, (set ignoreChoppedEdge = false), this is very important, it ensures that only the longest chopped edge is retained
+					//			if no, do nothing (set ignoreChoppedEdge = true)
+					//if no, set ignoreChoppedEdge = false
+					if(visitedChoppedEdgeMap.containsKey(inEdge+"-"+curNode)){
+						double existingChoppedEdgeLength = visitedChoppedEdgeMap.get(inEdge+"-"+curNode).geometry.getLength();
 						
-						//continue check if the chopped edge codestring exists in visitedChoppedEdgeMap
-						//if yes, then check if the existing one is shorter than the current one,
-						//			if yes, replace it with current one, (set ignoreChoppedEdge = false), this is very important, it ensures that only the longest chopped edge is retained
-						//			if no, do nothing (set ignoreChoppedEdge = true)
-						//if no, set ignoreChoppedEdge = false
-						if(visitedChoppedEdgeMap.containsKey(newEdge.getID()+"-"+node.getID())){
-							Edge existingChoppedEdge = visitedChoppedEdgeMap.get(newEdge.getID()+"-"+node.getID()).edge;
-							Geometry existingChoppedEdgeGeom = (Geometry)(((SimpleFeature) existingChoppedEdge.getObject()).getDefaultGeometry());
-							double existingChoppedEdgeLength = existingChoppedEdgeGeom.getLength();
-							
-							double newChoppedEdgeLength = newLine.getLength();
-							
-							if(existingChoppedEdgeLength > newChoppedEdgeLength){
-								ignoreChoppedEdge = true;
-							}
+						double newChoppedEdgeLength = newLine.getLength();
+						
+						if(existingChoppedEdgeLength > newChoppedEdgeLength){
+							ignoreChoppedEdge = true;
 						}
+					}
+					
+					
+					//if cannot ignore the ChoppedEdge, then wrap the chopped edge as an inEdge of newIsochronesNode, 
+					// and put the newIsochronesNode into visitedIsochronesNodeMap (there is no need to add it to isochronesNodeList)
+					if (!ignoreChoppedEdge){
 						
+						IsochronesEdge newIsoEdge = new IsochronesEdge();
+						newIsoEdge.edgeID = inEdge;
+						newIsoEdge.geometry = (LineString)newLine;
+						newIsoEdge.isLeaf = true;
+						newIsoEdge.isChopped = true;
+						newIsoEdge.traverseDistance = distance;
+						newIsoEdge.fromNodeID = curNode;
+						newIsoEdge.toNodeID = choppedNode;
 						
-						//if cannot ignore the ChoppedEdge, then wrap the chopped edge as an inEdge of newIsochronesNode, 
-						// and put the newIsochronesNode into visitedIsochronesNodeMap (there is no need to add it to isochronesNodeList)
-						if (!ignoreChoppedEdge){
-							newIsochronesNode.node = newNode;
-							newIsochronesNode.inEdge = newEdge;
-							newIsochronesNode.traverseDistance = distance;
-							newIsochronesNode.isLeaf = true;
-							newIsochronesNode.fromNodeID = curIsoNode.node.getID();
-							visitedIsochronesNodeMap.put(newNode.getID(), newIsochronesNode);
-							
-							
-							IsochronesEdge newIsoEdge = new IsochronesEdge();
-							newIsoEdge.edge = newEdge;
-							newIsoEdge.isLeaf = true;
-							newIsoEdge.isChopped = true;
-							newIsoEdge.traverseDistance = distance;
-							newIsoEdge.fromNodeID = curIsoNode.node.getID();
-							newIsoEdge.toNodeID = newNode.getID();
-							
-							Coordinate coord = new Coordinate();
-							Coordinate edgeFirstCoord = newLine.getCoordinates()[0];
-							Coordinate edgeLastCoord = newLine.getCoordinates()[newLine.getCoordinates().length -1];
-							Coordinate curIsoNodeCoord = ((Point)curIsoNode.node.getObject()).getCoordinate();
-						    if(curIsoNodeCoord.distance(edgeFirstCoord) < curIsoNodeCoord.distance(edgeLastCoord))
-						    {
-						    	coord = edgeLastCoord;
-						    }
-						    else
-						    {
-						    	coord = edgeFirstCoord;
-						    }
-							newIsoEdge.toNodeCoordinate = coord;
-							
-							visitedChoppedEdgeMap.put(newEdge.getID()+"-"+node.getID(), newIsoEdge);
-						}
+						Coordinate[] newLineCoords = newLine.getCoordinates();
+						newIsoEdge.toNodeCoordinate = newLineCoords[newLineCoords.length -1];
+						
+						newIsochronesNode.nodeID = choppedNode;
+						newIsochronesNode.inEdge = newIsoEdge;
+						newIsochronesNode.traverseDistance = distance;
+						newIsochronesNode.isLeaf = true;
+						newIsochronesNode.fromNodeID = curNode;
+						visitedIsochronesNodeMap.put(choppedNode, newIsochronesNode);
+						
+						visitedChoppedEdgeMap.put(inEdge+"-"+curNode, newIsoEdge);
 					}
 					
 				}
@@ -366,17 +304,16 @@ public class IsochronesFJ extends RecursiveAction {
 		
 		Set<Integer> nodeIDs = visitedIsochronesNodeMap.keySet();
 		for (Integer nodeID : nodeIDs) {
-			if(visitedIsochronesNodeMap.get(nodeID).isLeaf){
-				Integer edgeID = visitedIsochronesNodeMap.get(nodeID).inEdge.getID();
+			IsochronesNode isoNode = visitedIsochronesNodeMap.get(nodeID);
+			if(isoNode.isLeaf && isoNode.inEdge != null && isoNode.inEdge.isChopped){
+				Integer edgeID = isoNode.inEdge.edgeID;
 				if(visitedWholeEdgeBufferMap.containsKey(edgeID))
 				{
-					Geometry choppedEdgeGeom = (Geometry)(((SimpleFeature) visitedIsochronesNodeMap.get(nodeID).inEdge.getObject()).getDefaultGeometry());
-					
 					Geometry buff = (Geometry)(visitedWholeEdgeBufferMap.get(edgeID));
-					if(buff.contains(choppedEdgeGeom)){
+					if(buff.contains(isoNode.inEdge.geometry)){
 
 						//if yes, first remove the chopped edge from visitedChoppedEdgeMap
-						visitedChoppedEdgeMap.remove(visitedIsochronesNodeMap.get(nodeID).inEdge.getID()+"-"+visitedIsochronesNodeMap.get(nodeID).fromNodeID );
+						visitedChoppedEdgeMap.remove(edgeID+"-"+isoNode.fromNodeID);
 						//then this chopped edge can be ignored
 						visitedIsochronesNodeMap.remove(nodeID);
 					}
@@ -387,17 +324,4 @@ public class IsochronesFJ extends RecursiveAction {
 		execT2 = System.currentTimeMillis();
 		LOGGER.info("==== Section5.2 (calculate isochrones part2) Execution time is:{} seconds", df.format((execT2 - execT1) / 1000d));		
 	}
-
-	
-	private static SimpleFeature buildFeatureFromGeometry(SimpleFeatureType featureType, Geometry geom) {
-
-		SimpleFeatureTypeBuilder stb = new SimpleFeatureTypeBuilder();
-		stb.init(featureType);
-		SimpleFeatureBuilder sfb = new SimpleFeatureBuilder(featureType);
-		sfb.add(geom);
-	
-		return sfb.buildFeature(null);
-	}
-
-	
-}
\ No newline at end of file
+}
@@ -0,0 +1,282 @@
+package com.nearbit.common.isochrones;
+
+/*
+ * Copyright (C) 2016 Benny Chen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * An immutable road network graph stored in compressed-sparse-row form.
+ * Node coordinates, adjacency offsets, edge targets and edge lengths are kept
+ * in primitive arrays, so a whole network layer can stay resident and be
+ * traversed directly by node/edge id.
+ *
+ * The graph is undirected: every edge appears once in the adjacency list of
+ * each of its end nodes. Edge geometries are kept as interleaved x,y arrays
+ * and only materialised as JTS geometries when they need to be output.
+ *
+ * The arrays are held as buffers, so a graph can either be built on the heap
+ * or mapped straight from a graph file, see {@link IsochronesGraphFile}.
+ *
+ * @author  Benny Chen
+ */
+public final class IsochronesGraph {
+
+	private final String crsCode;
+	private final int nodeCount;
+	private final int edgeCount;
+
+	//node coordinates in the projected crs
+	private final DoubleBuffer nodeX;
+	private final DoubleBuffer nodeY;
+
+	//adjacency of node n is stored in [firstOut[n], firstOut[n+1]) of adjNode and adjEdge
+	private final IntBuffer firstOut;
+	private final IntBuffer adjNode;
+	private final IntBuffer adjEdge;
+
+	//edge n goes from the node at its first coordinate to the node at its last coordinate
+	private final IntBuffer edgeFrom;
+	private final IntBuffer edgeTo;
+	private final DoubleBuffer edgeLength;
+	private final double meanEdgeLength;
+
+	//coordinates of edge n are stored in [edgeCoordOffset[n], edgeCoordOffset[n+1]) of edgeCoords (x,y interleaved)
+	private final IntBuffer edgeCoordOffset;
+	private final DoubleBuffer edgeCoords;
+
+	//built on first use, so mapping a graph file does not read all of it
+	private volatile IsochronesSnapIndex snapIndex;
+
+	//read from the header of a graph file, computed on first use otherwise
+	private volatile Long fingerprint;
+
+	//only set for resident graphs of the layers listed in isochronesHIERARCHY_TRAVEL_TYPES
+	private volatile IsochronesHierarchy hierarchy;
+
+	IsochronesGraph(String crsCode, int nodeCount, int edgeCount, double[] nodeX, double[] nodeY,
+			int[] firstOut, int[] adjNode, int[] adjEdge, int[] edgeFrom, int[] edgeTo,
+			double[] edgeLength, int[] edgeCoordOffset, double[] edgeCoords) {
+		this(crsCode, nodeCount, edgeCount, DoubleBuffer.wrap(nodeX), DoubleBuffer.wrap(nodeY), IntBuffer.wrap(firstOut),
+				IntBuffer.wrap(adjNode), IntBuffer.wrap(adjEdge), IntBuffer.wrap(edgeFrom), IntBuffer.wrap(edgeTo),
+				DoubleBuffer.wrap(edgeLength), meanLength(edgeLength, edgeCount), IntBuffer.wrap(edgeCoordOffset),
+				DoubleBuffer.wrap(edgeCoords), null);
+	}
+
+	IsochronesGraph(String crsCode, int nodeCount, int edgeCount, DoubleBuffer nodeX, DoubleBuffer nodeY,
+			IntBuffer firstOut, IntBuffer adjNode, IntBuffer adjEdge, IntBuffer edgeFrom, IntBuffer edgeTo,
+			DoubleBuffer edgeLength, double meanEdgeLength, IntBuffer edgeCoordOffset, DoubleBuffer edgeCoords,
+			Long fingerprint) {
+		this.crsCode = crsCode;
+		this.nodeCount = nodeCount;
+		this.edgeCount = edgeCount;
+		this.nodeX = nodeX;
+		this.nodeY = nodeY;
+		this.firstOut = firstOut;
+		this.adjNode = adjNode;
+		this.adjEdge = adjEdge;
+		this.edgeFrom = edgeFrom;
+		this.edgeTo = edgeTo;
+		this.edgeLength = edgeLength;
+		this.meanEdgeLength = meanEdgeLength;
+		this.edgeCoordOffset = edgeCoordOffset;
+		this.edgeCoords = edgeCoords;
+		this.fingerprint = fingerprint;
+	}
+
+	private static double meanLength(double[] edgeLength, int edgeCount) {
+		double totalLength = 0;
+		for (int i = 0; i < edgeCount; i++) {
+			totalLength += edgeLength[i];
+		}
+		return edgeCount > 0 ? totalLength / edgeCount : 0;
+	}
+
+	/**
+	 * @return the code of the crs all coordinates and lengths are expressed in, e.g. EPSG:28355
+	 */
+	public String getCRSCode() {
+		return crsCode;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+
+	public double getNodeX(int node) {
+		return nodeX.get(node);
+	}
+
+	public double getNodeY(int node) {
+		return nodeY.get(node);
+	}
+
+	public Coordinate getNodeCoordinate(int node) {
+		return new Coordinate(nodeX.get(node), nodeY.get(node));
+	}
+
+	/**
+	 * @return the number of edge ends attached to the node, a self loop is counted twice
+	 */
+	public int getDegree(int node) {
+		return firstOut.get(node + 1) - firstOut.get(node);
+	}
+
+	/**
+	 * @return the first adjacency slot of the node, use with {@link #getAdjEnd(int)}
+	 */
+	public int getAdjStart(int node) {
+		return firstOut.get(node);
+	}
+
+	/**
+	 * @return one past the last adjacency slot of the node
+	 */
+	public int getAdjEnd(int node) {
+		return firstOut.get(node + 1);
+	}
+
+	/**
+	 * @return the node reached through the given adjacency slot
+	 */
+	public int getAdjNode(int slot) {
+		return adjNode.get(slot);
+	}
+
+	/**
+	 * @return the edge used by the given adjacency slot
+	 */
+	public int getAdjEdge(int slot) {
+		return adjEdge.get(slot);
+	}
+
+	public int getEdgeFrom(int edge) {
+		return edgeFrom.get(edge);
+	}
+
+	public int getEdgeTo(int edge) {
+		return edgeTo.get(edge);
+	}
+
+	public double getEdgeLength(int edge) {
+		return edgeLength.get(edge);
+	}
+
+	/**
+	 * @return the mean edge length, 0 for a graph without edges
+	 */
+	public double getMeanEdgeLength() {
+		return meanEdgeLength;
+	}
+
+	public int getEdgeCoordCount(int edge) {
+		return edgeCoordOffset.get(edge + 1) - edgeCoordOffset.get(edge);
+	}
+
+	public double getEdgeCoordX(int edge, int i) {
+		return edgeCoords.get((edgeCoordOffset.get(edge) + i) * 2);
+	}
+
+	public double getEdgeCoordY(int edge, int i) {
+		return edgeCoords.get((edgeCoordOffset.get(edge) + i) * 2 + 1);
+	}
+
+	/**
+	 * Materialises the geometry of an edge, from its from-node to its to-node
+	 *
+	 * @param edge
+	 *            the edge id
+	 * @param gf
+	 *            the factory used to create the line
+	 * @return the edge as a LineString
+	 */
+	public LineString getEdgeGeometry(int edge, GeometryFactory gf) {
+		int start = edgeCoordOffset.get(edge);
+		int end = edgeCoordOffset.get(edge + 1);
+		Coordinate[] coords = new Coordinate[end - start];
+		for (int i = start; i < end; i++) {
+			coords[i - start] = new Coordinate(edgeCoords.get(i * 2), edgeCoords.get(i * 2 + 1));
+		}
+		return gf.createLineString(coords);
+	}
+
+	/**
+	 * @return the edge index used to snap locations onto this graph
+	 */
+	public IsochronesSnapIndex getSnapIndex() {
+		IsochronesSnapIndex index = snapIndex;
+		if (index == null) {
+			synchronized (this) {
+				index = snapIndex;
+				if (index == null) {
+					index = new IsochronesSnapIndex(this);
+					snapIndex = index;
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Node ids follow the order the network lines were read in, so the
+	 * fingerprint covers the ids as well as the geometry. Computing it reads
+	 * the whole graph, a graph file keeps it in its header.
+	 *
+	 * @return a hash of the nodes and edges, to tell whether data derived from a graph still fits it
+	 */
+	public long getFingerprint() {
+		Long value = fingerprint;
+		if (value == null) {
+			long h = 1125899906842597L;
+			h = 31 * h + nodeCount;
+			h = 31 * h + edgeCount;
+			for (int i = 0; i < nodeCount; i++) {
+				h = 31 * h + Double.doubleToLongBits(getNodeX(i));
+				h = 31 * h + Double.doubleToLongBits(getNodeY(i));
+			}
+			for (int i = 0; i < edgeCount; i++) {
+				h = 31 * h + getEdgeFrom(i);
+				h = 31 * h + getEdgeTo(i);
+				h = 31 * h + Double.doubleToLongBits(getEdgeLength(i));
+			}
+			//computing it twice from two threads gives the same value
+			value = h;
+			fingerprint = value;
+		}
+		return value;
+	}
+
+	/**
+	 * @return the contraction hierarchy of this graph, or null if it has none
+	 */
+	public IsochronesHierarchy getHierarchy() {
+		return hierarchy;
+	}
+
+	void setHierarchy(IsochronesHierarchy hierarchy) {
+		this.hierarchy = hierarchy;
+	}
+}
@@ -0,0 +1,454 @@
+package com.nearbit.common.isochrones;
+
+/*
+ * Copyright (C) 2016 Benny Chen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * Collects road lines and turns them into an immutable {@link IsochronesGraph}.
+ * Line end points sharing exactly the same coordinate become the same node,
+ * which is the same rule the geotools LineStringGraphGenerator applies.
+ *
+ * @author  Benny Chen
+ */
+public class IsochronesGraphBuilder {
+
+	//cells of the grid the Hilbert curve runs through, per side; curve positions fit in 30 bits
+	private static final int HILBERT_SIZE = 1 << 15;
+
+	private final String crsCode;
+	private final Map<Coordinate, Integer> nodeIds = new HashMap<Coordinate, Integer>();
+
+	private int nodeCount = 0;
+	private double[] nodeX = new double[1024];
+	private double[] nodeY = new double[1024];
+
+	private int edgeCount = 0;
+	private int[] edgeFrom = new int[1024];
+	private int[] edgeTo = new int[1024];
+	private double[] edgeLength = new double[1024];
+	private int[] edgeCoordOffset = new int[1025];
+
+	private int coordCount = 0;
+	private double[] edgeCoords = new double[4096];
+
+	/**
+	 * @param crsCode
+	 *            the crs of the graph, lengths are measured in its units. Lines
+	 *            may be added in another crs if they are transformed into it
+	 *            before the graph is built
+	 */
+	public IsochronesGraphBuilder(String crsCode) {
+		this.crsCode = crsCode;
+	}
+
+	/**
+	 * Adds every line part of a LineString or MultiLineString as an edge
+	 *
+	 * @param geom
+	 *            the road geometry
+	 */
+	public void add(Geometry geom) {
+		if (geom == null) {
+			return;
+		}
+		for (int i = 0; i < geom.getNumGeometries(); i++) {
+			Geometry part = geom.getGeometryN(i);
+			if (part instanceof LineString) {
+				addLine(part.getCoordinates());
+			}
+		}
+	}
+
+	/**
+	 * Adds a single line as an edge between the nodes at its first and last coordinates
+	 *
+	 * @param coords
+	 *            the line coordinates
+	 * @return the new edge id, or -1 if the line has less than two coordinates
+	 */
+	public int addLine(Coordinate[] coords) {
+		if (coords == null || coords.length < 2) {
+			return -1;
+		}
+
+		int from = nodeId(coords[0]);
+		int to = nodeId(coords[coords.length - 1]);
+
+		ensureEdgeCapacity(edgeCount + 1);
+		ensureCoordCapacity(coordCount + coords.length);
+
+		double length = 0.0;
+		for (int i = 0; i < coords.length; i++) {
+			edgeCoords[(coordCount + i) * 2] = coords[i].x;
+			edgeCoords[(coordCount + i) * 2 + 1] = coords[i].y;
+			if (i > 0) {
+				length += coords[i - 1].distance(coords[i]);
+			}
+		}
+
+		edgeFrom[edgeCount] = from;
+		edgeTo[edgeCount] = to;
+		edgeLength[edgeCount] = length;
+		edgeCoordOffset[edgeCount] = coordCount;
+		coordCount += coords.length;
+		edgeCount++;
+		edgeCoordOffset[edgeCount] = coordCount;
+
+		return edgeCount - 1;
+	}
+
+	/**
+	 * Transforms all collected coordinates in bulk, e.g. from geographic into
+	 * the projected crs of the graph, and measures the edge lengths again.
+	 * Nodes have already been merged, so this does not change the topology.
+	 * Call it after the last line has been added.
+	 *
+	 * @param transform
+	 *            from the crs the lines were added in to the crs of the graph
+	 * @throws TransformException
+	 */
+	public void transform(MathTransform transform) throws TransformException {
+
+		transform.transform(edgeCoords, 0, edgeCoords, 0, coordCount);
+
+		double[] nodeCoords = new double[nodeCount * 2];
+		for (int n = 0; n < nodeCount; n++) {
+			nodeCoords[n * 2] = nodeX[n];
+			nodeCoords[n * 2 + 1] = nodeY[n];
+		}
+		transform.transform(nodeCoords, 0, nodeCoords, 0, nodeCount);
+		for (int n = 0; n < nodeCount; n++) {
+			nodeX[n] = nodeCoords[n * 2];
+			nodeY[n] = nodeCoords[n * 2 + 1];
+		}
+
+		for (int e = 0; e < edgeCount; e++) {
+			double length = 0.0;
+			for (int i = edgeCoordOffset[e] + 1; i < edgeCoordOffset[e + 1]; i++) {
+				double dx = edgeCoords[i * 2] - edgeCoords[i * 2 - 2];
+				double dy = edgeCoords[i * 2 + 1] - edgeCoords[i * 2 - 1];
+				length += Math.sqrt(dx * dx + dy * dy);
+			}
+			edgeLength[e] = length;
+		}
+	}
+
+	/**
+	 * Collapses chains of degree-2 nodes into single edges. OSM ways are split
+	 * into many short lines, and a node joining just two of them is no
+	 * junction, a search only passes through it. Each chain becomes one edge
+	 * between the junctions or dead ends at its ends, keeping the whole
+	 * polyline so snapping, chopping and output follow the same geometry, and
+	 * the length of the chain. A closed ring without junctions keeps one node.
+	 * Distances between the remaining nodes do not change. Call it after the
+	 * last line has been added.
+	 *
+	 * @return the number of nodes removed
+	 */
+	public int compressChains() {
+
+		//edge ends of every node, self-loops count twice
+		int[] firstOut = new int[nodeCount + 1];
+		for (int e = 0; e < edgeCount; e++) {
+			firstOut[edgeFrom[e] + 1]++;
+			firstOut[edgeTo[e] + 1]++;
+		}
+		for (int n = 0; n < nodeCount; n++) {
+			firstOut[n + 1] += firstOut[n];
+		}
+		int[] adjEdge = new int[edgeCount * 2];
+		int[] next = Arrays.copyOf(firstOut, nodeCount);
+		for (int e = 0; e < edgeCount; e++) {
+			adjEdge[next[edgeFrom[e]]++] = e;
+			adjEdge[next[edgeTo[e]]++] = e;
+		}
+
+		//a node on a self-loop is kept, the loop would otherwise have no end
+		boolean[] kept = new boolean[nodeCount];
+		for (int n = 0; n < nodeCount; n++) {
+			kept[n] = firstOut[n + 1] - firstOut[n] != 2 || adjEdge[firstOut[n]] == adjEdge[firstOut[n] + 1];
+		}
+
+		int[] newFrom = new int[edgeCount];
+		int[] newTo = new int[edgeCount];
+		double[] newLength = new double[edgeCount];
+		int[] newCoordOffset = new int[edgeCount + 1];
+		double[] newCoords = new double[coordCount * 2];
+		int newEdgeCount = 0;
+		int newCoordCount = 0;
+		boolean[] merged = new boolean[edgeCount];
+
+		//chains run from a kept node, the edges left afterwards form rings of degree-2 nodes
+		for (int pass = 0; pass < 2; pass++) {
+			for (int start = 0; start < (pass == 0 ? nodeCount : edgeCount); start++) {
+				if (pass == 1) {
+					if (merged[start]) {
+						continue;
+					}
+					kept[edgeFrom[start]] = true;
+				}
+				int node = pass == 0 ? start : edgeFrom[start];
+				if (!kept[node]) {
+					continue;
+				}
+				for (int i = firstOut[node]; i < firstOut[node + 1]; i++) {
+					int edge = adjEdge[i];
+					if (merged[edge]) {
+						continue;
+					}
+					newFrom[newEdgeCount] = node;
+					newCoordOffset[newEdgeCount] = newCoordCount;
+					double length = 0;
+					int current = node;
+					while (true) {
+						merged[edge] = true;
+						length += edgeLength[edge];
+						//the first coordinate of an edge is the last one of the edge before it
+						boolean forward = edgeFrom[edge] == current;
+						int first = edgeCoordOffset[edge];
+						int last = edgeCoordOffset[edge + 1] - 1;
+						for (int c = newCoordCount == newCoordOffset[newEdgeCount] ? 0 : 1; c <= last - first; c++) {
+							int src = forward ? first + c : last - c;
+							newCoords[newCoordCount * 2] = edgeCoords[src * 2];
+							newCoords[newCoordCount * 2 + 1] = edgeCoords[src * 2 + 1];
+							newCoordCount++;
+						}
+						current = forward ? edgeTo[edge] : edgeFrom[edge];
+						if (kept[current]) {
+							break;
+						}
+						edge = adjEdge[firstOut[current]] == edge ? adjEdge[firstOut[current] + 1] : adjEdge[firstOut[current]];
+					}
+					newTo[newEdgeCount] = current;
+					newLength[newEdgeCount] = length;
+					newEdgeCount++;
+					newCoordOffset[newEdgeCount] = newCoordCount;
+				}
+			}
+		}
+
+		//number the kept nodes in their old order
+		int[] newId = new int[nodeCount];
+		int newNodeCount = 0;
+		for (int n = 0; n < nodeCount; n++) {
+			if (kept[n]) {
+				nodeX[newNodeCount] = nodeX[n];
+				nodeY[newNodeCount] = nodeY[n];
+				newId[n] = newNodeCount++;
+			}
+		}
+		for (int e = 0; e < newEdgeCount; e++) {
+			newFrom[e] = newId[newFrom[e]];
+			newTo[e] = newId[newTo[e]];
+		}
+
+		int removed = nodeCount - newNodeCount;
+		nodeCount = newNodeCount;
+		edgeCount = newEdgeCount;
+		edgeFrom = newFrom;
+		edgeTo = newTo;
+		edgeLength = newLength;
+		edgeCoordOffset = newCoordOffset;
+		coordCount = newCoordCount;
+		edgeCoords = newCoords;
+		//the ids no longer match, no more lines can be added
+		nodeIds.clear();
+		return removed;
+	}
+
+	/**
+	 * Renumbers the nodes along a Hilbert curve over their bounding box, and
+	 * the edges by their lower end node. The lines come in the order of the
+	 * source, so nodes next to each other on the map end up far apart in the
+	 * arrays, and a search jumps around memory; along the curve the neighbours
+	 * of a node and their edges mostly sit in the same or adjacent cache
+	 * lines. Call it after the last line has been added, the edge ids
+	 * {@link #addLine(Coordinate[])} returned no longer hold afterwards.
+	 */
+	public void sortNodes() {
+
+		double minX = Double.MAX_VALUE;
+		double minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE;
+		double maxY = -Double.MAX_VALUE;
+		for (int n = 0; n < nodeCount; n++) {
+			minX = Math.min(minX, nodeX[n]);
+			minY = Math.min(minY, nodeY[n]);
+			maxX = Math.max(maxX, nodeX[n]);
+			maxY = Math.max(maxY, nodeY[n]);
+		}
+		double scale = (HILBERT_SIZE - 1) / Math.max(Math.max(maxX - minX, maxY - minY), Double.MIN_NORMAL);
+
+		//curve position in the high bits, old id in the low ones
+		long[] keys = new long[nodeCount];
+		for (int n = 0; n < nodeCount; n++) {
+			long d = hilbert((int) ((nodeX[n] - minX) * scale), (int) ((nodeY[n] - minY) * scale));
+			keys[n] = d << 32 | n;
+		}
+		Arrays.sort(keys);
+		int[] newId = new int[nodeCount];
+		double[] newX = new double[nodeCount];
+		double[] newY = new double[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			int n = (int) keys[i];
+			newId[n] = i;
+			newX[i] = nodeX[n];
+			newY[i] = nodeY[n];
+		}
+		nodeX = newX;
+		nodeY = newY;
+
+		keys = new long[edgeCount];
+		for (int e = 0; e < edgeCount; e++) {
+			edgeFrom[e] = newId[edgeFrom[e]];
+			edgeTo[e] = newId[edgeTo[e]];
+			keys[e] = (long) Math.min(edgeFrom[e], edgeTo[e]) << 32 | e;
+		}
+		Arrays.sort(keys);
+		int[] newFrom = new int[edgeCount];
+		int[] newTo = new int[edgeCount];
+		double[] newLength = new double[edgeCount];
+		int[] newCoordOffset = new int[edgeCount + 1];
+		double[] newCoords = new double[coordCount * 2];
+		for (int i = 0; i < edgeCount; i++) {
+			int e = (int) keys[i];
+			newFrom[i] = edgeFrom[e];
+			newTo[i] = edgeTo[e];
+			newLength[i] = edgeLength[e];
+			int count = edgeCoordOffset[e + 1] - edgeCoordOffset[e];
+			System.arraycopy(edgeCoords, edgeCoordOffset[e] * 2, newCoords, newCoordOffset[i] * 2, count * 2);
+			newCoordOffset[i + 1] = newCoordOffset[i] + count;
+		}
+		edgeFrom = newFrom;
+		edgeTo = newTo;
+		edgeLength = newLength;
+		edgeCoordOffset = newCoordOffset;
+		edgeCoords = newCoords;
+		//the ids no longer match, no more lines can be added
+		nodeIds.clear();
+	}
+
+	//distance along the curve of a cell of a HILBERT_SIZE x HILBERT_SIZE grid
+	private static long hilbert(int x, int y) {
+		long d = 0;
+		for (int s = HILBERT_SIZE / 2; s > 0; s /= 2) {
+			int rx = (x & s) > 0 ? 1 : 0;
+			int ry = (y & s) > 0 ? 1 : 0;
+			d += (long) s * s * ((3 * rx) ^ ry);
+			//rotate the quadrant so the curve continues where the last one ended
+			if (ry == 0) {
+				if (rx == 1) {
+					x = HILBERT_SIZE - 1 - x;
+					y = HILBERT_SIZE - 1 - y;
+				}
+				int swap = x;
+				x = y;
+				y = swap;
+			}
+		}
+		return d;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+
+	/**
+	 * Lays the collected edges out as adjacency arrays
+	 *
+	 * @return the graph
+	 */
+	public IsochronesGraph build() {
+
+		//count the edge ends of each node, then turn the counts into offsets
+		int[] firstOut = new int[nodeCount + 1];
+		for (int e = 0; e < edgeCount; e++) {
+			firstOut[edgeFrom[e] + 1]++;
+			firstOut[edgeTo[e] + 1]++;
+		}
+		for (int n = 0; n < nodeCount; n++) {
+			firstOut[n + 1] += firstOut[n];
+		}
+
+		int[] adjNode = new int[edgeCount * 2];
+		int[] adjEdge = new int[edgeCount * 2];
+		int[] next = Arrays.copyOf(firstOut, nodeCount);
+		for (int e = 0; e < edgeCount; e++) {
+			int from = edgeFrom[e];
+			int to = edgeTo[e];
+			adjNode[next[from]] = to;
+			adjEdge[next[from]++] = e;
+			adjNode[next[to]] = from;
+			adjEdge[next[to]++] = e;
+		}
+
+		return new IsochronesGraph(crsCode, nodeCount, edgeCount,
+				Arrays.copyOf(nodeX, nodeCount), Arrays.copyOf(nodeY, nodeCount),
+				firstOut, adjNode, adjEdge,
+				Arrays.copyOf(edgeFrom, edgeCount), Arrays.copyOf(edgeTo, edgeCount),
+				Arrays.copyOf(edgeLength, edgeCount), Arrays.copyOf(edgeCoordOffset, edgeCount + 1),
+				Arrays.copyOf(edgeCoords, coordCount * 2));
+	}
+
+	private int nodeId(Coordinate coord) {
+		Integer id = nodeIds.get(coord);
+		if (id != null) {
+			return id;
+		}
+		if (nodeCount == nodeX.length) {
+			nodeX = Arrays.copyOf(nodeX, nodeCount * 2);
+			nodeY = Arrays.copyOf(nodeY, nodeCount * 2);
+		}
+		nodeX[nodeCount] = coord.x;
+		nodeY[nodeCount] = coord.y;
+		nodeIds.put(new Coordinate(coord.x, coord.y), nodeCount);
+		return nodeCount++;
+	}
+
+	private void ensureEdgeCapacity(int size) {
+		if (size <= edgeFrom.length) {
+			return;
+		}
+		int capacity = Math.max(size, edgeFrom.length * 2);
+		edgeFrom = Arrays.copyOf(edgeFrom, capacity);
+		edgeTo = Arrays.copyOf(edgeTo, capacity);
+		edgeLength = Arrays.copyOf(edgeLength, capacity);
+		edgeCoordOffset = Arrays.copyOf(edgeCoordOffset, capacity + 1);
+	}
+
+	private void ensureCoordCapacity(int size) {
+		if (size * 2 <= edgeCoords.length) {
+			return;
+		}
+		edgeCoords = Arrays.copyOf(edgeCoords, Math.max(size * 2, edgeCoords.length * 2));
+	}
+}
@@ -0,0 +1,324 @@
+package com.nearbit.common.isochrones;
+
+/*
+ * Copyright (C) 2016 Benny Chen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import com.nearbit.common.AppConfig;
+import com.nearbit.common.CRSRegistry;
+import com.nearbit.dev.api.isochrones.PositionChecker;
+
+/**
+ * The binary file format of an {@link IsochronesGraph}. A graph file holds
+ * the arrays of the graph as they are laid out in memory, so it is mapped
+ * read-only instead of being read: opening even a national network takes no
+ * time and no heap, pages are only loaded as searches touch them, and several
+ * JVMs on one host share them through the page cache.
+ *
+ * The file is a header followed by one section per array, little-endian and
+ * each starting on an 8 byte boundary:
+ *
+ * <pre>
+ * int magic, int version, int crs code length, crs code (UTF-8),
+ * int nodeCount, int edgeCount, int adjCount, int edgeCoordCount, double meanEdgeLength, long fingerprint
+ * double nodeX[nodeCount], double nodeY[nodeCount],
+ * int firstOut[nodeCount + 1], int adjNode[adjCount], int adjEdge[adjCount],
+ * int edgeFrom[edgeCount], int edgeTo[edgeCount], double edgeLength[edgeCount],
+ * int edgeCoordOffset[edgeCount + 1], double edgeCoords[edgeCoordCount * 2]
+ * </pre>
+ *
+ * Graph files are produced offline with {@link #main(String[])}, from the
+ * same network layers and zones the service would otherwise preload. They
+ * hold the graph as isochronesCOMPRESS_CHAINS built it, so they have to be
+ * produced again after it is changed.
+ *
+ * @author  Benny Chen
+ */
+public class IsochronesGraphFile {
+
+	private static final int FILE_MAGIC = 0x49534752; //ISGR
+	private static final int FILE_VERSION = 2;
+
+	private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private IsochronesGraphFile() {
+	}
+
+	/**
+	 * Writes the graph files of the network layers of every projection zone
+	 * into isochronesGRAPH_DIR, replacing the existing ones.
+	 *
+	 * Usage: IsochronesGraphFile
+	 */
+	public static void main(String[] args) throws Exception {
+		System.setProperty("org.geotools.referencing.forceXY", "true");
+		AppConfig.loadConfig();
+		PositionChecker.init();
+		CRSRegistry.init();
+		IsochronesGraphStore.export();
+	}
+
+	/**
+	 * Saves a graph, the file replaces an existing one only once it is complete
+	 *
+	 * @param graph
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(IsochronesGraph graph, File file) throws IOException {
+
+		int nodeCount = graph.getNodeCount();
+		int edgeCount = graph.getEdgeCount();
+		int adjCount = nodeCount > 0 ? graph.getAdjEnd(nodeCount - 1) : 0;
+		int edgeCoordCount = 0;
+		for (int i = 0; i < edgeCount; i++) {
+			edgeCoordCount += graph.getEdgeCoordCount(i);
+		}
+		byte[] crsCode = graph.getCRSCode().getBytes(UTF8);
+
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream stream = new FileOutputStream(tmp);
+		SectionWriter out = new SectionWriter(stream.getChannel());
+		try {
+			out.putInt(FILE_MAGIC);
+			out.putInt(FILE_VERSION);
+			out.putInt(crsCode.length);
+			for (byte b : crsCode) {
+				out.putByte(b);
+			}
+			out.align();
+			out.putInt(nodeCount);
+			out.putInt(edgeCount);
+			out.putInt(adjCount);
+			out.putInt(edgeCoordCount);
+			out.putDouble(graph.getMeanEdgeLength());
+			out.putLong(graph.getFingerprint());
+
+			for (int i = 0; i < nodeCount; i++) {
+				out.putDouble(graph.getNodeX(i));
+			}
+			for (int i = 0; i < nodeCount; i++) {
+				out.putDouble(graph.getNodeY(i));
+			}
+			for (int i = 0; i < nodeCount; i++) {
+				out.putInt(graph.getAdjStart(i));
+			}
+			out.putInt(adjCount);
+			out.align();
+			for (int i = 0; i < adjCount; i++) {
+				out.putInt(graph.getAdjNode(i));
+			}
+			out.align();
+			for (int i = 0; i < adjCount; i++) {
+				out.putInt(graph.getAdjEdge(i));
+			}
+			out.align();
+			for (int i = 0; i < edgeCount; i++) {
+				out.putInt(graph.getEdgeFrom(i));
+			}
+			out.align();
+			for (int i = 0; i < edgeCount; i++) {
+				out.putInt(graph.getEdgeTo(i));
+			}
+			out.align();
+			for (int i = 0; i < edgeCount; i++) {
+				out.putDouble(graph.getEdgeLength(i));
+			}
+			int offset = 0;
+			for (int i = 0; i < edgeCount; i++) {
+				out.putInt(offset);
+				offset += graph.getEdgeCoordCount(i);
+			}
+			out.putInt(offset);
+			out.align();
+			for (int i = 0; i < edgeCount; i++) {
+				for (int j = 0; j < graph.getEdgeCoordCount(i); j++) {
+					out.putDouble(graph.getEdgeCoordX(i, j));
+					out.putDouble(graph.getEdgeCoordY(i, j));
+				}
+			}
+			out.flush();
+		} finally {
+			stream.close();
+		}
+		//a JVM that has the old file mapped keeps reading it, the new one is only picked up on its next start
+		if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+			throw new IOException("cannot replace " + file.getPath());
+		}
+	}
+
+	/**
+	 * Maps a saved graph read-only. The mappings stay valid after the file is
+	 * closed and are released once the graph is no longer referenced.
+	 *
+	 * @param file
+	 * @return the graph, or null if the file does not exist
+	 * @throws IOException
+	 *             if the file is not a graph file of this version or is truncated
+	 */
+	public static IsochronesGraph map(File file) throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+
+			ByteBuffer head = ByteBuffer.allocate(12).order(ORDER);
+			read(channel, head, 0);
+			if (head.getInt(0) != FILE_MAGIC || head.getInt(4) != FILE_VERSION) {
+				throw new IOException(file.getPath() + " is not a version " + FILE_VERSION + " graph file");
+			}
+			int crsLength = head.getInt(8);
+			long position = align(12 + crsLength);
+			ByteBuffer header = ByteBuffer.allocate((int) (position - 12) + 32).order(ORDER);
+			read(channel, header, 12);
+			String crsCode = new String(header.array(), 0, crsLength, UTF8);
+			header.position((int) (position - 12));
+			int nodeCount = header.getInt();
+			int edgeCount = header.getInt();
+			int adjCount = header.getInt();
+			int edgeCoordCount = header.getInt();
+			double meanEdgeLength = header.getDouble();
+			long fingerprint = header.getLong();
+			position += 32;
+
+			long[] cursor = new long[] { position };
+			DoubleBuffer nodeX = mapDoubles(channel, cursor, nodeCount, size);
+			DoubleBuffer nodeY = mapDoubles(channel, cursor, nodeCount, size);
+			IntBuffer firstOut = mapInts(channel, cursor, nodeCount + 1, size);
+			IntBuffer adjNode = mapInts(channel, cursor, adjCount, size);
+			IntBuffer adjEdge = mapInts(channel, cursor, adjCount, size);
+			IntBuffer edgeFrom = mapInts(channel, cursor, edgeCount, size);
+			IntBuffer edgeTo = mapInts(channel, cursor, edgeCount, size);
+			DoubleBuffer edgeLength = mapDoubles(channel, cursor, edgeCount, size);
+			IntBuffer edgeCoordOffset = mapInts(channel, cursor, edgeCount + 1, size);
+			DoubleBuffer edgeCoords = mapDoubles(channel, cursor, edgeCoordCount * 2, size);
+
+			return new IsochronesGraph(crsCode, nodeCount, edgeCount, nodeX, nodeY, firstOut, adjNode, adjEdge,
+					edgeFrom, edgeTo, edgeLength, meanEdgeLength, edgeCoordOffset, edgeCoords, fingerprint);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("truncated graph file");
+			}
+		}
+		buffer.flip();
+	}
+
+	//cursor holds the position of the next section, it is moved past the mapped one
+	private static IntBuffer mapInts(FileChannel channel, long[] cursor, int count, long size) throws IOException {
+		return map(channel, cursor, count * 4L, size).asIntBuffer();
+	}
+
+	private static DoubleBuffer mapDoubles(FileChannel channel, long[] cursor, int count, long size) throws IOException {
+		return map(channel, cursor, count * 8L, size).asDoubleBuffer();
+	}
+
+	private static ByteBuffer map(FileChannel channel, long[] cursor, long length, long size) throws IOException {
+		if (cursor[0] + length > size) {
+			throw new IOException("truncated graph file");
+		}
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("graph file section of " + length + " bytes cannot be mapped");
+		}
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, cursor[0], length);
+		cursor[0] = align(cursor[0] + length);
+		return buffer.order(ORDER);
+	}
+
+	private static long align(long position) {
+		return (position + 7) & ~7L;
+	}
+
+	/**
+	 * Writes the sections through one reused buffer, keeping track of the
+	 * position so every section can start on an 8 byte boundary
+	 */
+	private static final class SectionWriter {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ORDER);
+		private long position;
+
+		SectionWriter(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		void putByte(byte value) throws IOException {
+			ensure(1);
+			buffer.put(value);
+			position++;
+		}
+
+		void putInt(int value) throws IOException {
+			ensure(4);
+			buffer.putInt(value);
+			position += 4;
+		}
+
+		void putDouble(double value) throws IOException {
+			ensure(8);
+			buffer.putDouble(value);
+			position += 8;
+		}
+
+		void putLong(long value) throws IOException {
+			ensure(8);
+			buffer.putLong(value);
+			position += 8;
+		}
+
+		void align() throws IOException {
+			while (position % 8 != 0) {
+				putByte((byte) 0);
+			}
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (buffer.remaining() < bytes) {
+				flush();
+			}
+		}
+	}
+}
@@ -0,0 +1,273 @@
+package com.nearbit.common.isochrones;
+
+/*
+ * Copyright (C) 2016 Benny Chen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.geotools.geometry.jts.JTS;
+import org.opengis.feature.simple.SimpleFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nearbit.common.AppConfig;
+import com.nearbit.common.CRSRegistry;
+import com.nearbit.dev.api.isochrones.PositionChecker;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Keeps one {@link IsochronesGraph} per network layer and projection zone in
+ * memory, together with its snapping index, so requests traverse a long-lived
+ * graph instead of building one from the database every time. A graph is
+ * mapped from its file in isochronesGRAPH_DIR if one has been produced with
+ * {@link IsochronesGraphFile}, and only built from the database otherwise.
+ * Graphs of the travel types in isochronesHIERARCHY_TRAVEL_TYPES also get a
+ * contraction hierarchy for {@link IsochronesPHAST}, saved so it is only
+ * built once.
+ *
+ * @author  Benny Chen
+ */
+public class IsochronesGraphStore {
+
+	static final Logger LOGGER = LoggerFactory.getLogger(IsochronesGraphStore.class);
+
+	//travel types of the constantLAYERNAME_OSM_NETWORK_* layers
+	static final String[] TRAVEL_TYPES = new String[] { "walk", "drive", "simple" };
+
+	//the network layers of australia carry no country prefix, others are like nz_ cn_, see Controller
+	static final String UNPREFIXED_COUNTRY_CODE = "au";
+
+	private static final Map<String, IsochronesGraph> graphs = new ConcurrentHashMap<String, IsochronesGraph>();
+
+	/**
+	 * Loads the network layers for every projection zone listed in the
+	 * projection_epsg_code table, projected into the crs of the zone. Only the
+	 * countries in isochronesGRAPH_COUNTRIES are loaded, "*" loads all of them.
+	 * Layers are clipped by the zone bbox expanded with
+	 * isochronesGRAPH_ZONE_MARGIN (degrees), so searches starting near a zone
+	 * border still find the network on the other side.
+	 */
+	public static void init() {
+
+		if (!AppConfig.getString("isochronesGRAPH_PRELOAD").equalsIgnoreCase("true")) {
+			LOGGER.info("==== network graph preloading is disabled");
+			return;
+		}
+		loadAll(false);
+	}
+
+	/**
+	 * Builds the graphs init would load from the database and saves them as
+	 * graph files in isochronesGRAPH_DIR, one zone at a time without keeping
+	 * them resident, so the service can map them on its next start.
+	 */
+	public static void export() {
+		loadAll(true);
+	}
+
+	private static void loadAll(boolean export) {
+
+		DecimalFormat df = new DecimalFormat("#.00");
+		double margin = Double.parseDouble(AppConfig.getString("isochronesGRAPH_ZONE_MARGIN"));
+		List<String> countries = Arrays.asList(AppConfig.getString("isochronesGRAPH_COUNTRIES").toLowerCase().split("\\s*,\\s*"));
+		List<String> hierarchyTypes = Arrays.asList(AppConfig.getString("isochronesHIERARCHY_TRAVEL_TYPES").toLowerCase().split("\\s*,\\s*"));
+		String graphDir = AppConfig.getString("isochronesGRAPH_DIR");
+
+		IsochronesNetworkSource networkSource = IsochronesNetworkSources.open();
+		try {
+			for (SimpleFeature zone : PositionChecker.getZones(null)) {
+				String countryCode = String.valueOf(zone.getAttribute("country_code")).toLowerCase();
+				if (!countries.contains("*") && !countries.contains(countryCode)) {
+					continue;
+				}
+				String epsgCode = zone.getAttribute("epsg_code").toString();
+				Envelope zoneEnv = new Envelope(((Geometry) zone.getDefaultGeometry()).getEnvelopeInternal());
+				zoneEnv.expandBy(margin);
+
+				for (String traveltype : TRAVEL_TYPES) {
+					String layerName = layerName(countryCode, traveltype);
+					//a missing layer or zone must not keep the others from loading
+					try {
+						long execT1 = System.currentTimeMillis();
+
+						File file = graphDir.isEmpty() ? null : new File(graphDir, fileName(layerName, epsgCode) + ".graph");
+						IsochronesGraph graph = export || file == null ? null : IsochronesGraphFile.map(file);
+						boolean mapped = graph != null;
+						if (!mapped) {
+							graph = loadGraph(networkSource, layerName, JTS.toGeometry(zoneEnv), epsgCode);
+						}
+						if (export) {
+							if (file == null) {
+								throw new IOException("isochronesGRAPH_DIR is not set");
+							}
+							file.getParentFile().mkdirs();
+							IsochronesGraphFile.write(graph, file);
+							LOGGER.info("==== saved {} for {}: {} nodes, {} edges in {} seconds", new Object[] { file.getPath(),
+									epsgCode, graph.getNodeCount(), graph.getEdgeCount(),
+									df.format((System.currentTimeMillis() - execT1) / 1000d) });
+							continue;
+						}
+						long execT2 = System.currentTimeMillis();
+						LOGGER.info("==== {} {} for {}: {} nodes, {} edges in {} seconds", new Object[] { mapped ? "mapped" : "loaded",
+								layerName, epsgCode, graph.getNodeCount(), graph.getEdgeCount(), df.format((execT2 - execT1) / 1000d) });
+
+						if (hierarchyTypes.contains(traveltype)) {
+							graph.setHierarchy(loadHierarchy(graph, layerName, epsgCode));
+						}
+						graphs.put(key(layerName, epsgCode), graph);
+					} catch (Exception e) {
+						LOGGER.error("=== failed to preload {} for {}: {}", new Object[] { layerName, epsgCode, e.getMessage() });
+					}
+				}
+			}
+		} catch (Exception e) {
+			LOGGER.error("=== failed to preload network graphs: {}", e.getMessage());
+		} finally {
+			networkSource.dispose();
+		}
+	}
+
+	/**
+	 * @param layerName
+	 *            the network layer name
+	 * @param epsgCode
+	 *            the projection zone, e.g. EPSG:28355
+	 * @return the resident graph, or null if the layer is not kept in memory for this zone
+	 */
+	public static IsochronesGraph getGraph(String layerName, String epsgCode) {
+		return graphs.get(key(layerName, epsgCode));
+	}
+
+	/**
+	 * @param layerName
+	 *            the network layer name
+	 * @param epsgCode
+	 *            the projection zone, e.g. EPSG:28355
+	 * @return true if the resident graph of the layer in this projection zone has a contraction hierarchy
+	 */
+	public static boolean hasHierarchy(String layerName, String epsgCode) {
+		IsochronesGraph graph = getGraph(layerName, epsgCode);
+		return graph != null && graph.getHierarchy() != null;
+	}
+
+	/**
+	 * Reads the contraction hierarchy of a graph from isochronesHIERARCHY_DIR,
+	 * or builds it and saves it there if there is none for this graph yet. An
+	 * empty isochronesHIERARCHY_DIR builds it on every start.
+	 */
+	private static IsochronesHierarchy loadHierarchy(IsochronesGraph graph, String layerName, String epsgCode) {
+
+		long execT1 = System.currentTimeMillis();
+		String dir = AppConfig.getString("isochronesHIERARCHY_DIR");
+		File file = new File(dir, fileName(layerName, epsgCode) + ".ch");
+		IsochronesHierarchy hierarchy = null;
+		if (!dir.isEmpty()) {
+			try {
+				hierarchy = IsochronesHierarchy.read(file, graph);
+			} catch (IOException e) {
+				LOGGER.error("=== failed to read {}: {}", file.getPath(), e.getMessage());
+			}
+		}
+
+		boolean built = hierarchy == null;
+		if (built) {
+			hierarchy = IsochronesHierarchy.build(graph);
+			if (!dir.isEmpty()) {
+				//the hierarchy is still used if it cannot be saved, it is only built again on the next start
+				try {
+					file.getParentFile().mkdirs();
+					hierarchy.write(file);
+				} catch (IOException e) {
+					LOGGER.error("=== failed to save {}: {}", file.getPath(), e.getMessage());
+				}
+			}
+		}
+
+		long execT2 = System.currentTimeMillis();
+		LOGGER.info("==== {} hierarchy of {} for {}: {} upward edges in {} seconds", new Object[] { built ? "built" : "read",
+				layerName, epsgCode, hierarchy.getUpEdgeCount(), (execT2 - execT1) / 1000d });
+		return hierarchy;
+	}
+
+	/**
+	 * Loads the network lines intersecting a region into a graph. The lines
+	 * are streamed from the source once, and their coordinates are projected in
+	 * one bulk transform afterwards. Chains of degree-2 nodes are collapsed if
+	 * isochronesCOMPRESS_CHAINS is true, and the nodes are laid out along a
+	 * Hilbert curve.
+	 *
+	 * @param source
+	 *            where the network is read from
+	 * @param layerName
+	 *            the network layer
+	 * @param regionGeo
+	 *            the region, in EPSG:4326 like the network lines
+	 * @param epsgCode
+	 *            the projected crs of the graph
+	 * @return the graph
+	 * @throws Exception
+	 */
+	public static IsochronesGraph loadGraph(IsochronesNetworkSource source, String layerName, Geometry regionGeo,
+			String epsgCode) throws Exception {
+
+		final IsochronesGraphBuilder builder = new IsochronesGraphBuilder(epsgCode);
+		source.readLines(layerName, regionGeo, new IsochronesNetworkSource.LineHandler() {
+			public void line(String id, Coordinate[] coords) {
+				builder.addLine(coords);
+			}
+		});
+
+		builder.transform(CRSRegistry.getTransform(CRSRegistry.GEO_CODE, epsgCode));
+		if (isChainCompression()) {
+			builder.compressChains();
+		}
+		builder.sortNodes();
+		return builder.build();
+	}
+
+	/**
+	 * The reached nodes and the mid, low and coarse polygons are built from the
+	 * ends of whole edges, so the interior vertices of a collapsed chain drop
+	 * out of them. The edges and the high polygon are unchanged.
+	 *
+	 * @return true if isochronesCOMPRESS_CHAINS collapses degree-2 chains of the graphs that are built
+	 */
+	static boolean isChainCompression() {
+		return AppConfig.getString("isochronesCOMPRESS_CHAINS").equalsIgnoreCase("true");
+	}
+
+	private static String layerName(String countryCode, String traveltype) {
+		String prefix = countryCode.equalsIgnoreCase(UNPREFIXED_COUNTRY_CODE) ? "" : countryCode + "_";
+		return prefix + AppConfig.getString("constantLAYERNAME_OSM_NETWORK_" + traveltype);
+	}
+
+	//e.g. route_ways_drive_EPSG_28355
+	private static String fileName(String layerName, String epsgCode) {
+		return layerName + "_" + epsgCode.replace(':', '_');
+	}
+
+	private static String key(String layerName, String epsgCode) {
+		return layerName + "|" + epsgCode;
+	}
+}
@@ -0,0 +1,171 @@
+package com.nearbit.common.isochrones;
+
+/*
+ * Copyright (C) 2016 Benny Chen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * An indexed binary min-heap of int ids keyed by double values. Each id can be
+ * in the heap at most once, and its key can be lowered in place, so a
+ * Dijkstra search never queues the same node twice.
+ *
+ * @author  Benny Chen
+ */
+public class IsochronesHeap {
+
+	//heap slot -> id and key
+	private int[] ids;
+	private double[] keys;
+	//id -> heap slot, -1 if the id is not in the heap
+	private final int[] position;
+	private int size = 0;
+
+	/**
+	 * @param capacity
+	 *            ids must be in [0, capacity)
+	 */
+	public IsochronesHeap(int capacity) {
+		this.position = new int[capacity];
+		Arrays.fill(position, -1);
+		int initial = Math.max(16, Math.min(capacity, 1024));
+		this.ids = new int[initial];
+		this.keys = new double[initial];
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean contains(int id) {
+		return position[id] >= 0;
+	}
+
+	/**
+	 * @return the key of an id in the heap
+	 */
+	public double getKey(int id) {
+		return keys[position[id]];
+	}
+
+	/**
+	 * @return the smallest key in the heap
+	 */
+	public double peekKey() {
+		return keys[0];
+	}
+
+	/**
+	 * Inserts an id, or lowers its key if it is already in the heap with a larger key
+	 *
+	 * @param id
+	 * @param key
+	 * @return true if the id was inserted or its key lowered
+	 */
+	public boolean update(int id, double key) {
+		int slot = position[id];
+		if (slot < 0) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+				keys = Arrays.copyOf(keys, size * 2);
+			}
+			slot = size++;
+			ids[slot] = id;
+			keys[slot] = key;
+			position[id] = slot;
+		} else if (key < keys[slot]) {
+			keys[slot] = key;
+		} else {
+			return false;
+		}
+		siftUp(slot);
+		return true;
+	}
+
+	/**
+	 * Removes the id with the smallest key
+	 *
+	 * @return the id
+	 */
+	public int poll() {
+		int top = ids[0];
+		position[top] = -1;
+		size--;
+		if (size > 0) {
+			ids[0] = ids[size];
+			keys[0] = keys[size];
+			position[ids[0]] = 0;
+			siftDown(0);
+		}
+		return top;
+	}
+
+	/**
+	 * Empties the heap, only touching the ids still in it
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			position[ids[i]] = -1;
+		}
+		size = 0;
+	}
+
+	private void siftUp(int slot) {
+		int id = ids[slot];
+		double key = keys[slot];
+		while (slot > 0) {
+			int parent = (slot - 1) >>> 1;
+			if (keys[parent] <= key) {
+				break;
+			}
+			ids[slot] = ids[parent];
+			keys[slot] = keys[parent];
+			position[ids[slot]] = slot;
+			slot = parent;
+		}
+		ids[slot] = id;
+		keys[slot] = key;
+		position[id] = slot;
+	}
+
+	private void siftDown(int slot) {
+		int id = ids[slot];
+		double key = keys[slot];
+		int half = size >>> 1;
+		while (slot < half) {
+			int child = 2 * slot + 1;
+			int right = child + 1;
+			if (right < size && keys[right] < keys[child]) {
+				child = right;
+			}
+			if (key <= keys[child]) {
+				break;
+			}
+			ids[slot] = ids[child];
+			keys[slot] = keys[child];
+			position[ids[slot]] = slot;
+			slot = child;
+		}
+		ids[slot] = id;
+		keys[slot] = key;
+		position[id] = slot;
+	}
+}
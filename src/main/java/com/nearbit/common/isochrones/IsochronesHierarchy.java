@@ -0,0 +1,468 @@
+package com.nearbit.common.isochrones;
+
+/*
+ * Copyright (C) 2016 Benny Chen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A contraction hierarchy over an {@link IsochronesGraph}. Nodes are
+ * contracted one by one, least important first, and every shortest path
+ * through a contracted node is kept as a shortcut between its remaining
+ * neighbours. What is left is, for every node, the edges and shortcuts to
+ * the nodes contracted after it: its upward edges.
+ *
+ * Nodes are renumbered by rank, contraction order, and the upward edges are
+ * stored in compressed-sparse-row form by rank, so a sweep over the ranks in
+ * descending order reads them sequentially, see {@link IsochronesPHAST}.
+ *
+ * A hierarchy only fits the graph it was built from, it keeps a fingerprint
+ * of it so a saved hierarchy is not loaded for a graph that has changed.
+ *
+ * @author  Benny Chen
+ */
+public final class IsochronesHierarchy {
+
+	private static final int FILE_MAGIC = 0x49534348; //ISCH
+	private static final int FILE_VERSION = 1;
+
+	//a witness search stops after settling this many nodes and then assumes there is no witness,
+	//estimating a priority only needs a rough count of the shortcuts
+	private static final int WITNESS_SETTLE_LIMIT = 100;
+	private static final int PRIORITY_SETTLE_LIMIT = 20;
+
+	private final int nodeCount;
+	private final long fingerprint;
+
+	//node id -> rank, and rank -> node id
+	private final int[] rank;
+	private final int[] order;
+
+	//upward edges of rank r are stored in [upFirst[r], upFirst[r+1]) of upRank and upWeight
+	private final int[] upFirst;
+	private final int[] upRank;
+	private final double[] upWeight;
+
+	//node coordinates by rank, so the sweep can test them without jumping around the graph
+	private final double[] rankX;
+	private final double[] rankY;
+
+	private IsochronesHierarchy(IsochronesGraph graph, long fingerprint, int[] rank, int[] order, int[] upFirst,
+			int[] upRank, double[] upWeight) {
+		this.nodeCount = graph.getNodeCount();
+		this.fingerprint = fingerprint;
+		this.rank = rank;
+		this.order = order;
+		this.upFirst = upFirst;
+		this.upRank = upRank;
+		this.upWeight = upWeight;
+		this.rankX = new double[nodeCount];
+		this.rankY = new double[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			rankX[i] = graph.getNodeX(order[i]);
+			rankY[i] = graph.getNodeY(order[i]);
+		}
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * @return the number of upward edges, original edges and shortcuts
+	 */
+	public int getUpEdgeCount() {
+		return upFirst[nodeCount];
+	}
+
+	public int getRank(int node) {
+		return rank[node];
+	}
+
+	public int getNode(int rank) {
+		return order[rank];
+	}
+
+	/**
+	 * @return the x coordinate of the node of a rank
+	 */
+	public double getX(int rank) {
+		return rankX[rank];
+	}
+
+	/**
+	 * @return the y coordinate of the node of a rank
+	 */
+	public double getY(int rank) {
+		return rankY[rank];
+	}
+
+	/**
+	 * @return the first upward slot of a rank, use with {@link #getUpEnd(int)}
+	 */
+	public int getUpStart(int rank) {
+		return upFirst[rank];
+	}
+
+	/**
+	 * @return one past the last upward slot of a rank
+	 */
+	public int getUpEnd(int rank) {
+		return upFirst[rank + 1];
+	}
+
+	/**
+	 * @return the higher rank reached through an upward slot
+	 */
+	public int getUpRank(int slot) {
+		return upRank[slot];
+	}
+
+	public double getUpWeight(int slot) {
+		return upWeight[slot];
+	}
+
+	/**
+	 * Contracts all nodes of a graph. Nodes are picked by edge difference,
+	 * the shortcuts a contraction adds minus the edges it removes, plus the
+	 * number of their neighbours already contracted, which spreads the
+	 * contractions evenly over the network. Priorities are updated lazily.
+	 *
+	 * @param graph
+	 * @return the hierarchy
+	 */
+	public static IsochronesHierarchy build(IsochronesGraph graph) {
+
+		int n = graph.getNodeCount();
+		Contraction c = new Contraction(graph);
+
+		IsochronesHeap queue = new IsochronesHeap(n);
+		for (int node = 0; node < n; node++) {
+			queue.update(node, c.priority(node));
+		}
+
+		int[] rank = new int[n];
+		int[] order = new int[n];
+		int[] upFirst = new int[n + 1];
+		IntDoubleList up = new IntDoubleList();
+
+		int next = 0;
+		while (!queue.isEmpty()) {
+			int node = queue.poll();
+			//the priority may have risen since the node was queued, contract it only if it is still the least important
+			double priority = c.priority(node);
+			if (!queue.isEmpty() && priority > queue.peekKey()) {
+				queue.update(node, priority);
+				continue;
+			}
+
+			rank[node] = next;
+			order[next] = node;
+			upFirst[next] = up.size;
+			//the remaining neighbours are all contracted later, store them by node id and renumber below
+			for (int i = 0; i < c.degree[node]; i++) {
+				up.add(c.neighbours[node][i], c.weights[node][i]);
+			}
+			next++;
+
+			c.contract(node);
+			for (int i = 0; i < c.degree[node]; i++) {
+				int neighbour = c.neighbours[node][i];
+				queue.update(neighbour, c.priority(neighbour));
+			}
+			c.release(node);
+		}
+		upFirst[n] = up.size;
+
+		int[] upRank = new int[up.size];
+		for (int i = 0; i < up.size; i++) {
+			upRank[i] = rank[up.ints[i]];
+		}
+		return new IsochronesHierarchy(graph, graph.getFingerprint(), rank, order, upFirst, upRank,
+				Arrays.copyOf(up.doubles, up.size));
+	}
+
+	/**
+	 * Saves the hierarchy, so it does not have to be built again on the next start
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+		try {
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.writeInt(nodeCount);
+			out.writeLong(fingerprint);
+			out.writeInt(getUpEdgeCount());
+			for (int i = 0; i < nodeCount; i++) {
+				out.writeInt(order[i]);
+			}
+			for (int i = 0; i <= nodeCount; i++) {
+				out.writeInt(upFirst[i]);
+			}
+			for (int i = 0; i < getUpEdgeCount(); i++) {
+				out.writeInt(upRank[i]);
+				out.writeDouble(upWeight[i]);
+			}
+		} finally {
+			out.close();
+		}
+		//a half written file must never be picked up, replace the old one only once the new one is complete
+		if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+			throw new IOException("cannot replace " + file.getPath());
+		}
+	}
+
+	/**
+	 * Loads a saved hierarchy
+	 *
+	 * @param file
+	 * @param graph
+	 *            the graph the hierarchy is for
+	 * @return the hierarchy, or null if the file does not exist or was built for another graph
+	 * @throws IOException
+	 */
+	public static IsochronesHierarchy read(File file, IsochronesGraph graph) throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+				return null;
+			}
+			int n = in.readInt();
+			long fingerprint = in.readLong();
+			if (n != graph.getNodeCount() || fingerprint != graph.getFingerprint()) {
+				return null;
+			}
+			int upCount = in.readInt();
+			int[] order = new int[n];
+			int[] rank = new int[n];
+			for (int i = 0; i < n; i++) {
+				order[i] = in.readInt();
+				rank[order[i]] = i;
+			}
+			int[] upFirst = new int[n + 1];
+			for (int i = 0; i <= n; i++) {
+				upFirst[i] = in.readInt();
+			}
+			int[] upRank = new int[upCount];
+			double[] upWeight = new double[upCount];
+			for (int i = 0; i < upCount; i++) {
+				upRank[i] = in.readInt();
+				upWeight[i] = in.readDouble();
+			}
+			return new IsochronesHierarchy(graph, fingerprint, rank, order, upFirst, upRank, upWeight);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * The graph being contracted, as mutable adjacency lists of the nodes not
+	 * contracted yet, with at most one edge, the shortest, between two nodes
+	 */
+	private static final class Contraction {
+
+		final int[][] neighbours;
+		final double[][] weights;
+		final int[] degree;
+		final int[] contractedNeighbours;
+		final boolean[] contracted;
+
+		//witness search state, stamped so nothing is cleared per search
+		final IsochronesHeap heap;
+		final double[] distance;
+		final int[] stamp;
+		int currentStamp = 0;
+
+		Contraction(IsochronesGraph graph) {
+			int n = graph.getNodeCount();
+			neighbours = new int[n][];
+			weights = new double[n][];
+			degree = new int[n];
+			contractedNeighbours = new int[n];
+			contracted = new boolean[n];
+			heap = new IsochronesHeap(n);
+			distance = new double[n];
+			stamp = new int[n];
+			for (int node = 0; node < n; node++) {
+				neighbours[node] = new int[graph.getDegree(node)];
+				weights[node] = new double[graph.getDegree(node)];
+			}
+			for (int edge = 0; edge < graph.getEdgeCount(); edge++) {
+				int from = graph.getEdgeFrom(edge);
+				int to = graph.getEdgeTo(edge);
+				//a self loop is never part of a shortest path
+				if (from != to) {
+					link(from, to, graph.getEdgeLength(edge));
+					link(to, from, graph.getEdgeLength(edge));
+				}
+			}
+		}
+
+		//adds or shortens the edge from a to b
+		void link(int a, int b, double weight) {
+			for (int i = 0; i < degree[a]; i++) {
+				if (neighbours[a][i] == b) {
+					if (weight < weights[a][i]) {
+						weights[a][i] = weight;
+					}
+					return;
+				}
+			}
+			if (degree[a] == neighbours[a].length) {
+				int capacity = Math.max(4, degree[a] * 2);
+				neighbours[a] = Arrays.copyOf(neighbours[a], capacity);
+				weights[a] = Arrays.copyOf(weights[a], capacity);
+			}
+			neighbours[a][degree[a]] = b;
+			weights[a][degree[a]] = weight;
+			degree[a]++;
+		}
+
+		void unlink(int a, int b) {
+			for (int i = 0; i < degree[a]; i++) {
+				if (neighbours[a][i] == b) {
+					degree[a]--;
+					neighbours[a][i] = neighbours[a][degree[a]];
+					weights[a][i] = weights[a][degree[a]];
+					return;
+				}
+			}
+		}
+
+		double priority(int node) {
+			int shortcuts = shortcuts(node, false);
+			return shortcuts - degree[node] + contractedNeighbours[node];
+		}
+
+		void contract(int node) {
+			shortcuts(node, true);
+			contracted[node] = true;
+			for (int i = 0; i < degree[node]; i++) {
+				int neighbour = neighbours[node][i];
+				unlink(neighbour, node);
+				contractedNeighbours[neighbour]++;
+			}
+		}
+
+		//the adjacency of a contracted node is only read once more, when its neighbours are requeued
+		void release(int node) {
+			neighbours[node] = null;
+			weights[node] = null;
+			degree[node] = 0;
+		}
+
+		/**
+		 * Counts, or adds, the shortcuts needed to contract a node: one for every
+		 * pair of its neighbours whose shortest path runs through it
+		 */
+		int shortcuts(int node, boolean add) {
+			int count = 0;
+			int d = degree[node];
+			int[] around = neighbours[node];
+			double[] aroundWeights = weights[node];
+			for (int i = 0; i < d - 1; i++) {
+				int u = around[i];
+				double maxVia = 0;
+				for (int j = i + 1; j < d; j++) {
+					maxVia = Math.max(maxVia, aroundWeights[i] + aroundWeights[j]);
+				}
+				witnessSearch(u, node, maxVia, add ? WITNESS_SETTLE_LIMIT : PRIORITY_SETTLE_LIMIT);
+				for (int j = i + 1; j < d; j++) {
+					int w = around[j];
+					double via = aroundWeights[i] + aroundWeights[j];
+					if (witnessDistance(w) <= via) {
+						continue;
+					}
+					count++;
+					if (add) {
+						link(u, w, via);
+						link(w, u, via);
+					}
+				}
+			}
+			return count;
+		}
+
+		//a bounded Dijkstra from source that avoids the node about to be contracted
+		void witnessSearch(int source, int avoid, double maxDistance, int settleLimit) {
+			if (currentStamp == Integer.MAX_VALUE) {
+				Arrays.fill(stamp, 0);
+				currentStamp = 0;
+			}
+			currentStamp++;
+			heap.clear();
+			heap.update(source, 0);
+			int settled = 0;
+			while (!heap.isEmpty() && settled < settleLimit) {
+				double nodeDistance = heap.peekKey();
+				if (nodeDistance > maxDistance) {
+					break;
+				}
+				int node = heap.poll();
+				distance[node] = nodeDistance;
+				stamp[node] = currentStamp;
+				settled++;
+				for (int i = 0; i < degree[node]; i++) {
+					int next = neighbours[node][i];
+					if (next == avoid || stamp[next] == currentStamp) {
+						continue;
+					}
+					heap.update(next, nodeDistance + weights[node][i]);
+				}
+			}
+		}
+
+		//a node queued but not settled yet has a valid upper bound too
+		double witnessDistance(int node) {
+			if (stamp[node] == currentStamp) {
+				return distance[node];
+			}
+			return heap.contains(node) ? heap.getKey(node) : Double.POSITIVE_INFINITY;
+		}
+	}
+
+	private static final class IntDoubleList {
+		int[] ints = new int[1024];
+		double[] doubles = new double[1024];
+		int size = 0;
+
+		void add(int i, double d) {
+			if (size == ints.length) {
+				ints = Arrays.copyOf(ints, size * 2);
+				doubles = Arrays.copyOf(doubles, size * 2);
+			}
+			ints[size] = i;
+			doubles[size] = d;
+			size++;
+		}
+	}
+}
@@ -0,0 +1,590 @@
+package com.nearbit.common.isochrones;
+
+/*
+ * Copyright (C) 2016 Benny Chen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.linearref.LengthIndexedLine;
+
+/**
+ * The distance labels of one search over an {@link IsochronesGraph}. Labels
+ * are reused between searches: a node only counts as settled if it was
+ * stamped by the current search, so nothing of size N is cleared per request.
+ * Labels belong to the thread that ran the search until {@link #release()}.
+ *
+ * @author  Benny Chen
+ */
+public class IsochronesLabels {
+
+	//if a new leaf node is create, give it a proper node id by subtract leafNodeId value
+	private static final int FIRST_LEAF_NODE_ID = 999999999;
+
+	//only set while the labels are in use, pooled labels must not keep their graph reachable
+	private IsochronesGraph graph;
+	final IsochronesHeap heap;
+
+	private final double[] distance;
+	private final int[] settledStamp;
+	private final int[] sourceStamp;
+	private int stamp = 0;
+
+	//settled nodes in settling order, by increasing distance for the sequential search
+	private int[] settledNodes = new int[1024];
+	private int settledCount = 0;
+
+	private long relaxCount = 0;
+	private double maxDistance = 0;
+
+	//the edges the seeds were snapped onto, strictly inside them, and the sorted edge ids for lookups
+	private int snapCount = 0;
+	private int[] snapEdges = new int[0];
+	private double[] snapOffsets = new double[0];
+	private int[] sortedSnapEdges = new int[0];
+	//the index of each of these seeds in the snaps of the search
+	private int[] snapOwners = new int[0];
+
+	//the owner of the source each node was reached from, only recorded by a partition search
+	private int[] owner;
+	private boolean ownersRecorded = false;
+
+	//working state of the parallel search, only allocated for graphs it runs on
+	private AtomicLongArray tentative;
+	private double[] expanded;
+
+	//distances by hierarchy rank of the PHAST search, only allocated for graphs with a hierarchy
+	private double[] rankDistance;
+
+	IsochronesLabels(IsochronesGraph graph) {
+		this.graph = graph;
+		this.heap = new IsochronesHeap(graph.getNodeCount());
+		this.distance = new double[graph.getNodeCount()];
+		this.settledStamp = new int[graph.getNodeCount()];
+		this.sourceStamp = new int[graph.getNodeCount()];
+	}
+
+	void attach(IsochronesGraph graph) {
+		this.graph = graph;
+	}
+
+	void reset(double maxDistance) {
+		if (stamp == Integer.MAX_VALUE) {
+			Arrays.fill(settledStamp, 0);
+			Arrays.fill(sourceStamp, 0);
+			stamp = 0;
+		}
+		stamp++;
+		heap.clear();
+		settledCount = 0;
+		relaxCount = 0;
+		snapCount = 0;
+		ownersRecorded = false;
+		this.maxDistance = maxDistance;
+	}
+
+	//seeds snapped onto an end of their edge are graph nodes and need no special handling
+	void setSnaps(IsochronesSnap[] snaps) {
+		snapEdges = new int[snaps.length];
+		snapOffsets = new double[snaps.length];
+		snapOwners = new int[snaps.length];
+		snapCount = 0;
+		for (int i = 0; i < snaps.length; i++) {
+			IsochronesSnap snap = snaps[i];
+			if (snap.offset > 0 && snap.offset < graph.getEdgeLength(snap.edgeID)) {
+				snapEdges[snapCount] = snap.edgeID;
+				snapOffsets[snapCount] = snap.offset;
+				snapOwners[snapCount] = i;
+				snapCount++;
+			}
+		}
+		sortedSnapEdges = Arrays.copyOf(snapEdges, snapCount);
+		Arrays.sort(sortedSnapEdges);
+	}
+
+	void markSource(int node) {
+		sourceStamp[node] = stamp;
+	}
+
+	void settle(int node, double dist) {
+		distance[node] = dist;
+		settledStamp[node] = stamp;
+		if (settledCount == settledNodes.length) {
+			settledNodes = Arrays.copyOf(settledNodes, settledCount * 2);
+		}
+		settledNodes[settledCount++] = node;
+	}
+
+	/**
+	 * @return the owner of each node, recorded by the current search
+	 */
+	int[] owners() {
+		if (owner == null) {
+			owner = new int[distance.length];
+		}
+		ownersRecorded = true;
+		return owner;
+	}
+
+	void countRelax() {
+		relaxCount++;
+	}
+
+	void addRelaxCount(long count) {
+		relaxCount += count;
+	}
+
+	/**
+	 * @return the tentative distances of the parallel search as double bits,
+	 *         positive infinity for every node it has not touched
+	 */
+	AtomicLongArray tentative() {
+		if (tentative == null) {
+			tentative = new AtomicLongArray(distance.length);
+			long infinity = Double.doubleToLongBits(Double.POSITIVE_INFINITY);
+			for (int i = 0; i < distance.length; i++) {
+				tentative.set(i, infinity);
+			}
+		}
+		return tentative;
+	}
+
+	/**
+	 * @return the distance each node was last expanded at by the parallel
+	 *         search, positive infinity for every node it has not expanded
+	 */
+	double[] expanded() {
+		if (expanded == null) {
+			expanded = new double[distance.length];
+			Arrays.fill(expanded, Double.POSITIVE_INFINITY);
+		}
+		return expanded;
+	}
+
+	/**
+	 * @return the distances of the PHAST search by rank, positive infinity
+	 *         for every rank it has not touched, the search must restore that
+	 */
+	double[] rankDistance() {
+		if (rankDistance == null) {
+			rankDistance = new double[distance.length];
+			Arrays.fill(rankDistance, Double.POSITIVE_INFINITY);
+		}
+		return rankDistance;
+	}
+
+	public IsochronesGraph getGraph() {
+		return graph;
+	}
+
+	public boolean isSource(int node) {
+		return sourceStamp[node] == stamp;
+	}
+
+	/**
+	 * @return the number of seeds snapped inside an edge, 0 if the search started from graph nodes only
+	 */
+	public int getSnapCount() {
+		return snapCount;
+	}
+
+	private boolean isSnapEdge(int edge) {
+		return snapCount > 0 && Arrays.binarySearch(sortedSnapEdges, edge) >= 0;
+	}
+
+	//a start node is a seed in the graph, the ends of an edge a seed was snapped inside are reached at a distance
+	private boolean isStartNode(int node) {
+		return isSource(node) && distance[node] == 0;
+	}
+
+	public boolean isSettled(int node) {
+		return settledStamp[node] == stamp;
+	}
+
+	/**
+	 * @return the network distance of a node, or positive infinity if it was not reached
+	 */
+	public double getDistance(int node) {
+		return settledStamp[node] == stamp ? distance[node] : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return the owner of the source a node was reached from, or -1 if it
+	 *         was not reached or the search did not record owners
+	 */
+	public int getOwner(int node) {
+		return ownersRecorded && isSettled(node) ? owner[node] : -1;
+	}
+
+	public int getSettledCount() {
+		return settledCount;
+	}
+
+	public int getSettledNode(int i) {
+		return settledNodes[i];
+	}
+
+	public long getRelaxCount() {
+		return relaxCount;
+	}
+
+	/**
+	 * @return the distance the search was bounded by
+	 */
+	public double getMaxDistance() {
+		return maxDistance;
+	}
+
+	/**
+	 * Derives the reached edges from the labels. An edge whose far end can be
+	 * reached within reachDistance is a whole edge, keyed by edge id and kept
+	 * with its smallest traverse distance. Otherwise the reachable part of the
+	 * edge is chopped from each settled end, keyed by "edgeId-fromNodeId", and
+	 * dropped when the whole edge is reached anyway.
+	 *
+	 * If seeds were snapped inside edges, each such edge is replaced by its two
+	 * halves from the seed, which acts as a start node. The k-th of these seeds
+	 * gets the node id {@link IsochronesGraph#getNodeCount()} + k, its half
+	 * towards the from node the edge id {@link IsochronesGraph#getEdgeCount()}
+	 * + 2k and its half towards the to node the next id. Halves of seeds on
+	 * the same edge may overlap.
+	 *
+	 * @param reachDistance
+	 *            the isochrone distance, not larger than the distance the search was bounded by
+	 * @param gf
+	 *            the factory used to materialise edge geometries
+	 * @param visitedWholeEdgeMap
+	 *            receives the whole edges
+	 * @param visitedChoppedEdgeMap
+	 *            receives the chopped edges
+	 */
+	public void collectEdges(double reachDistance, GeometryFactory gf, Map<Integer, IsochronesEdge> visitedWholeEdgeMap,
+			Map<String, IsochronesEdge> visitedChoppedEdgeMap) {
+
+		//whole edges first, so that chopped edges covered by a whole edge can be skipped
+		for (int i = 0; i < settledCount; i++) {
+			int node = settledNodes[i];
+			double nodeDistance = distance[node];
+			if (nodeDistance > reachDistance) {
+				continue;
+			}
+			for (int slot = graph.getAdjStart(node); slot < graph.getAdjEnd(node); slot++) {
+				int edge = graph.getAdjEdge(slot);
+				double traverseDistance = nodeDistance + graph.getEdgeLength(edge);
+				if (traverseDistance > reachDistance || isSnapEdge(edge)) {
+					continue;
+				}
+
+				IsochronesEdge existingIsoEdge = visitedWholeEdgeMap.get(edge);
+				if (existingIsoEdge != null && existingIsoEdge.traverseDistance <= traverseDistance) {
+					continue;
+				}
+
+				int toNode = graph.getAdjNode(slot);
+				IsochronesEdge isoEdge = new IsochronesEdge();
+				isoEdge.edgeID = edge;
+				isoEdge.geometry = existingIsoEdge != null ? existingIsoEdge.geometry : graph.getEdgeGeometry(edge, gf);
+				//the edges of a start node are never leaves, otherwise the search would be terminated incorrectly
+				isoEdge.isLeaf = !isStartNode(node)
+						&& (graph.getDegree(graph.getEdgeFrom(edge)) == 1 || graph.getDegree(graph.getEdgeTo(edge)) == 1);
+				isoEdge.traverseDistance = traverseDistance;
+				isoEdge.fromNodeID = node;
+				isoEdge.toNodeID = toNode;
+				isoEdge.toNodeCoordinate = graph.getNodeCoordinate(toNode);
+				visitedWholeEdgeMap.put(edge, isoEdge);
+			}
+		}
+
+		int leafNodeId = FIRST_LEAF_NODE_ID;
+		for (int k = 0; k < snapCount; k++) {
+			int snapEdge = snapEdges[k];
+			int halfEdgeId = graph.getEdgeCount() + 2 * k;
+			LengthIndexedLine snapLine = new LengthIndexedLine(graph.getEdgeGeometry(snapEdge, gf));
+			leafNodeId = collectSnapHalf(halfEdgeId, graph.getNodeCount() + k, graph.getEdgeFrom(snapEdge), true, snapLine,
+					snapOffsets[k], reachDistance, leafNodeId, visitedWholeEdgeMap, visitedChoppedEdgeMap);
+			leafNodeId = collectSnapHalf(halfEdgeId + 1, graph.getNodeCount() + k, graph.getEdgeTo(snapEdge), false,
+					snapLine, snapOffsets[k], reachDistance, leafNodeId, visitedWholeEdgeMap, visitedChoppedEdgeMap);
+		}
+		for (int i = 0; i < settledCount; i++) {
+			int node = settledNodes[i];
+			double nodeDistance = distance[node];
+			if (nodeDistance > reachDistance) {
+				continue;
+			}
+			for (int slot = graph.getAdjStart(node); slot < graph.getAdjEnd(node); slot++) {
+				int edge = graph.getAdjEdge(slot);
+				if (nodeDistance + graph.getEdgeLength(edge) <= reachDistance || visitedWholeEdgeMap.containsKey(edge)
+						|| isSnapEdge(edge)) {
+					continue;
+				}
+				String edgeCode = edge + "-" + node;
+				if (visitedChoppedEdgeMap.containsKey(edgeCode)) {
+					continue;
+				}
+
+				//keep the part of the edge that can still be reached from this node
+				double length = reachDistance - nodeDistance;
+				LengthIndexedLine line = new LengthIndexedLine(graph.getEdgeGeometry(edge, gf));
+				LineString choppedLine;
+				if (node == graph.getEdgeFrom(edge)) {
+					choppedLine = (LineString) line.extractLine(line.getStartIndex(), length);
+				} else {
+					choppedLine = (LineString) line.extractLine(line.getEndIndex(), line.getEndIndex() - length);
+				}
+				leafNodeId = putChopped(edge, node, choppedLine, reachDistance, leafNodeId, visitedChoppedEdgeMap);
+			}
+		}
+	}
+
+	/**
+	 * Collects one half of a snapped edge, running from the seed to one of its end nodes
+	 *
+	 * @return the next free leaf node id
+	 */
+	private int collectSnapHalf(int halfEdgeId, int seedNodeId, int node, boolean towardsFrom, LengthIndexedLine snapLine,
+			double snapOffset, double reachDistance, int leafNodeId, Map<Integer, IsochronesEdge> visitedWholeEdgeMap,
+			Map<String, IsochronesEdge> visitedChoppedEdgeMap) {
+
+		double nodeIndex = towardsFrom ? snapLine.getStartIndex() : snapLine.getEndIndex();
+		double direction = towardsFrom ? -1 : 1;
+		double length = Math.abs(nodeIndex - snapOffset);
+
+		if (length <= reachDistance) {
+			IsochronesEdge isoEdge = new IsochronesEdge();
+			isoEdge.edgeID = halfEdgeId;
+			isoEdge.geometry = (LineString) snapLine.extractLine(snapOffset, nodeIndex);
+			//edges of the start node are never leaves
+			isoEdge.isLeaf = false;
+			isoEdge.traverseDistance = length;
+			isoEdge.fromNodeID = seedNodeId;
+			isoEdge.toNodeID = node;
+			isoEdge.toNodeCoordinate = graph.getNodeCoordinate(node);
+			visitedWholeEdgeMap.put(halfEdgeId, isoEdge);
+			return leafNodeId;
+		}
+
+		//the half cannot be passed, chop it from the seed and, if the node is reached another way, from the node
+		LineString fromSeed = (LineString) snapLine.extractLine(snapOffset, snapOffset + direction * reachDistance);
+		leafNodeId = putChopped(halfEdgeId, seedNodeId, fromSeed, reachDistance, leafNodeId, visitedChoppedEdgeMap);
+
+		double nodeDistance = getDistance(node);
+		if (nodeDistance <= reachDistance) {
+			LineString fromNode = (LineString) snapLine.extractLine(nodeIndex,
+					nodeIndex - direction * (reachDistance - nodeDistance));
+			leafNodeId = putChopped(halfEdgeId, node, fromNode, reachDistance, leafNodeId, visitedChoppedEdgeMap);
+		}
+		return leafNodeId;
+	}
+
+	private int putChopped(int edgeId, int fromNode, LineString choppedLine, double reachDistance, int leafNodeId,
+			Map<String, IsochronesEdge> visitedChoppedEdgeMap) {
+		Coordinate[] coords = choppedLine.getCoordinates();
+		IsochronesEdge isoEdge = new IsochronesEdge();
+		isoEdge.edgeID = edgeId;
+		isoEdge.geometry = choppedLine;
+		isoEdge.isLeaf = true;
+		isoEdge.isChopped = true;
+		isoEdge.traverseDistance = reachDistance;
+		isoEdge.fromNodeID = fromNode;
+		isoEdge.toNodeID = leafNodeId;
+		isoEdge.toNodeCoordinate = coords[coords.length - 1];
+		visitedChoppedEdgeMap.put(edgeId + "-" + fromNode, isoEdge);
+		return leafNodeId - 1;
+	}
+
+	/**
+	 * Derives the partition of a search that recorded owners, see
+	 * {@link IsochronesDijkstra#searchPartition(IsochronesGraph, IsochronesSnap[], double)}.
+	 * Every part of an edge within reachDistance goes to the owner nearest to
+	 * it: an edge is split where the network distances from its two ends
+	 * meet, and each side is chopped to reachDistance. Edges with seeds
+	 * snapped inside are split at the seeds first. An edge or edge part kept
+	 * whole by one owner goes to the whole edges of that owner, keyed by edge
+	 * id or, for the parts of snapped edges, by ids from
+	 * {@link IsochronesGraph#getEdgeCount()} on. The other parts go to the
+	 * chopped edges, keyed by "edgeId-fromNodeId-toNodeId".
+	 *
+	 * @param reachDistance
+	 *            the distance to partition up to, not larger than the distance the search was bounded by
+	 * @param ownerCount
+	 *            the number of owners
+	 * @param gf
+	 *            the factory used to materialise edge geometries
+	 * @param visitedWholeEdgeMaps
+	 *            receives the whole edges of each owner
+	 * @param visitedChoppedEdgeMaps
+	 *            receives the chopped edges of each owner
+	 */
+	public void collectPartition(double reachDistance, int ownerCount, GeometryFactory gf,
+			List<Map<Integer, IsochronesEdge>> visitedWholeEdgeMaps, List<Map<String, IsochronesEdge>> visitedChoppedEdgeMaps) {
+
+		for (int i = 0; i < ownerCount; i++) {
+			visitedWholeEdgeMaps.add(new HashMap<Integer, IsochronesEdge>());
+			visitedChoppedEdgeMaps.add(new HashMap<String, IsochronesEdge>());
+		}
+
+		//the seeds inside each snapped edge, ordered along it
+		Map<Integer, List<Integer>> seedsByEdge = new HashMap<Integer, List<Integer>>();
+		for (int k = 0; k < snapCount; k++) {
+			List<Integer> seeds = seedsByEdge.get(snapEdges[k]);
+			if (seeds == null) {
+				seeds = new ArrayList<Integer>();
+				seedsByEdge.put(snapEdges[k], seeds);
+			}
+			seeds.add(k);
+		}
+		Comparator<Integer> byOffset = new Comparator<Integer>() {
+			@Override
+			public int compare(Integer k1, Integer k2) {
+				return Double.compare(snapOffsets[k1], snapOffsets[k2]);
+			}
+		};
+
+		int[] ids = new int[] { FIRST_LEAF_NODE_ID, graph.getEdgeCount() };
+		//an edge without seeds is reached if one of its ends is, so only the edges of the reached nodes are looked at
+		Set<Integer> collected = new HashSet<Integer>();
+		for (int i = 0; i < settledCount; i++) {
+			int node = settledNodes[i];
+			if (distance[node] > reachDistance) {
+				continue;
+			}
+			for (int slot = graph.getAdjStart(node); slot < graph.getAdjEnd(node); slot++) {
+				int edge = graph.getAdjEdge(slot);
+				if (seedsByEdge.containsKey(edge) || !collected.add(edge)) {
+					continue;
+				}
+				int from = graph.getEdgeFrom(edge);
+				int to = graph.getEdgeTo(edge);
+				LengthIndexedLine line = new LengthIndexedLine(graph.getEdgeGeometry(edge, gf));
+				collectSegment(edge, true, line, line.getStartIndex(), from, getDistance(from), getOwner(from),
+						line.getEndIndex(), to, getDistance(to), getOwner(to), reachDistance, ids, visitedWholeEdgeMaps,
+						visitedChoppedEdgeMaps);
+			}
+		}
+
+		for (Map.Entry<Integer, List<Integer>> entry : seedsByEdge.entrySet()) {
+			int edge = entry.getKey();
+			int from = graph.getEdgeFrom(edge);
+			int to = graph.getEdgeTo(edge);
+			List<Integer> seeds = entry.getValue();
+
+			//walk the edge from seed to seed, each seed is a node at distance zero owned by itself
+			Collections.sort(seeds, byOffset);
+			LengthIndexedLine line = new LengthIndexedLine(graph.getEdgeGeometry(edge, gf));
+			double startIndex = line.getStartIndex();
+			int startNode = from;
+			double startDistance = getDistance(from);
+			int startOwner = getOwner(from);
+			for (int k : seeds) {
+				collectSegment(edge, false, line, startIndex, startNode, startDistance, startOwner, snapOffsets[k],
+						graph.getNodeCount() + k, 0, snapOwners[k], reachDistance, ids, visitedWholeEdgeMaps,
+						visitedChoppedEdgeMaps);
+				startIndex = snapOffsets[k];
+				startNode = graph.getNodeCount() + k;
+				startDistance = 0;
+				startOwner = snapOwners[k];
+			}
+			collectSegment(edge, false, line, startIndex, startNode, startDistance, startOwner, line.getEndIndex(), to,
+					getDistance(to), getOwner(to), reachDistance, ids, visitedWholeEdgeMaps, visitedChoppedEdgeMaps);
+		}
+	}
+
+	/**
+	 * Splits the part of an edge between two nodes, or seeds, between their owners
+	 *
+	 * @param ids
+	 *            the next free leaf node id and the next free id of a whole edge part, updated
+	 */
+	private void collectSegment(int edge, boolean wholeEdge, LengthIndexedLine line, double startIndex, int startNode,
+			double startDistance, int startOwner, double endIndex, int endNode, double endDistance, int endOwner,
+			double reachDistance, int[] ids, List<Map<Integer, IsochronesEdge>> visitedWholeEdgeMaps,
+			List<Map<String, IsochronesEdge>> visitedChoppedEdgeMaps) {
+
+		if (startDistance > reachDistance && endDistance > reachDistance) {
+			return;
+		}
+		double length = endIndex - startIndex;
+		//where the distances from both sides meet, an unreached side never gets there
+		double meet = (length + endDistance - startDistance) / 2;
+		meet = meet < 0 ? 0 : (meet > length ? length : meet);
+
+		if (startOwner == endOwner && startDistance + meet <= reachDistance) {
+			boolean startNearer = startDistance <= endDistance;
+			IsochronesEdge isoEdge = new IsochronesEdge();
+			isoEdge.edgeID = wholeEdge ? edge : ids[1]++;
+			isoEdge.geometry = (LineString) line.extractLine(startIndex, endIndex);
+			isoEdge.isLeaf = wholeEdge && !isStartNode(startNearer ? startNode : endNode)
+					&& (graph.getDegree(graph.getEdgeFrom(edge)) == 1 || graph.getDegree(graph.getEdgeTo(edge)) == 1);
+			isoEdge.traverseDistance = Math.min(startDistance, endDistance) + length;
+			isoEdge.fromNodeID = startNearer ? startNode : endNode;
+			isoEdge.toNodeID = startNearer ? endNode : startNode;
+			isoEdge.toNodeCoordinate = line.extractPoint(startNearer ? endIndex : startIndex);
+			visitedWholeEdgeMaps.get(startOwner).put(isoEdge.edgeID, isoEdge);
+			return;
+		}
+
+		if (startDistance <= reachDistance) {
+			double reach = Math.min(meet, reachDistance - startDistance);
+			if (reach > 0) {
+				putPart(edge, startNode, (LineString) line.extractLine(startIndex, startIndex + reach), startDistance + reach,
+						ids, visitedChoppedEdgeMaps.get(startOwner));
+			}
+		}
+		if (endDistance <= reachDistance) {
+			double reach = Math.min(length - meet, reachDistance - endDistance);
+			if (reach > 0) {
+				putPart(edge, endNode, (LineString) line.extractLine(endIndex, endIndex - reach), endDistance + reach, ids,
+						visitedChoppedEdgeMaps.get(endOwner));
+			}
+		}
+	}
+
+	private void putPart(int edgeId, int fromNode, LineString partLine, double traverseDistance, int[] ids,
+			Map<String, IsochronesEdge> visitedChoppedEdgeMap) {
+		Coordinate[] coords = partLine.getCoordinates();
+		IsochronesEdge isoEdge = new IsochronesEdge();
+		isoEdge.edgeID = edgeId;
+		isoEdge.geometry = partLine;
+		isoEdge.isLeaf = true;
+		isoEdge.isChopped = true;
+		isoEdge.traverseDistance = traverseDistance;
+		isoEdge.fromNodeID = fromNode;
+		isoEdge.toNodeID = ids[0]--;
+		isoEdge.toNodeCoordinate = coords[coords.length - 1];
+		visitedChoppedEdgeMap.put(edgeId + "-" + fromNode + "-" + isoEdge.toNodeID, isoEdge);
+	}
+
+	/**
+	 * Hands the labels back for reuse by a later search over the same graph
+	 */
+	public void release() {
+		IsochronesGraph owner = graph;
+		graph = null;
+		IsochronesDijkstra.release(owner, this);
+	}
+}
@@ -0,0 +1,249 @@
+package com.nearbit.common.isochrones;
+
+/*
+ * Copyright (C) 2016 Benny Chen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.geotools.geometry.jts.JTS;
+import org.json.JSONObject;
+import org.opengis.referencing.operation.MathTransform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nearbit.common.CRSRegistry;
+import com.nearbit.common.GeometryUtils;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * Computes network distances between many origins and many destinations.
+ * Every location is snapped onto an edge the same way an isochrone seed is,
+ * and one bounded search runs per origin, or per destination if there are
+ * fewer of those since the network is undirected. The distance to a
+ * location inside an edge is read off the labels of the two ends of the edge.
+ *
+ * @author  Benny Chen
+ */
+public class IsochronesMatrix {
+
+	static final Logger LOGGER = LoggerFactory.getLogger(IsochronesMatrix.class);
+
+	private IsochronesMatrix() {
+	}
+
+	/**
+	 * Computes the distance matrix of locations in one projection zone
+	 *
+	 * @param network
+	 *            where the network is read from if it is not resident for the zone
+	 * @param networkLayerName
+	 * @param origins
+	 *            the origins in EPSG:4326
+	 * @param destinations
+	 *            the destinations in EPSG:4326
+	 * @param maxDistance
+	 *            distances beyond this are not searched for, it also limits
+	 *            how far a location may be from the network
+	 * @param prjCode
+	 *            the projection zone of all locations, e.g. EPSG:28355
+	 * @param performanceStats
+	 *            receives the timings and counts of the run
+	 * @return the distance in metres from each origin to each destination,
+	 *         positive infinity if it is beyond maxDistance or a location could
+	 *         not be snapped onto the network
+	 * @throws Exception
+	 */
+	public static double[][] run(IsochronesNetworkSource network, String networkLayerName, List<Point> origins,
+			List<Point> destinations, double maxDistance, String prjCode, JSONObject performanceStats) throws Exception {
+
+		DecimalFormat df = new DecimalFormat("#.00");
+		long execT1 = System.currentTimeMillis();
+
+		MathTransform transformToPrjCRS = CRSRegistry.getTransform(CRSRegistry.GEO_CODE, prjCode);
+		MathTransform transformToGeoCRS = CRSRegistry.getTransform(prjCode, CRSRegistry.GEO_CODE);
+
+		//project all locations in one bulk transform
+		List<Geometry> locations = new ArrayList<Geometry>();
+		for (Point origin : origins) {
+			locations.add((Geometry) origin.clone());
+		}
+		for (Point destination : destinations) {
+			locations.add((Geometry) destination.clone());
+		}
+		GeometryUtils.transform(locations, transformToPrjCRS);
+
+		IsochronesGraph networkGraph = IsochronesGraphStore.getGraph(networkLayerName, prjCode);
+		double loadTime = 0;
+		if (networkGraph == null) {
+			long loadStart = System.currentTimeMillis();
+			Envelope envPrj = new Envelope();
+			for (Geometry location : locations) {
+				envPrj.expandToInclude(location.getEnvelopeInternal());
+			}
+			envPrj.expandBy(maxDistance);
+			Geometry regionGeo = JTS.transform(JTS.toGeometry(envPrj), transformToGeoCRS);
+
+			networkGraph = IsochronesTileCache.loadGraph(network, networkLayerName, regionGeo.getEnvelope(), prjCode,
+					performanceStats);
+			loadTime = (System.currentTimeMillis() - loadStart) / 1000d;
+		}
+		performanceStats.put("t_load", loadTime);
+		performanceStats.put("num_rawlink", networkGraph.getEdgeCount());
+
+		//a location too far from the network gets no distances, like a seed that fails to snap
+		IsochronesSnap[] originSnaps = new IsochronesSnap[origins.size()];
+		IsochronesSnap[] destinationSnaps = new IsochronesSnap[destinations.size()];
+		int snapped = 0;
+		for (int i = 0; i < locations.size(); i++) {
+			Point location = (Point) locations.get(i);
+			IsochronesSnap snap = networkGraph.getEdgeCount() == 0 ? null
+					: networkGraph.getSnapIndex().snap(location.getX(), location.getY(), maxDistance);
+			if (i < originSnaps.length) {
+				originSnaps[i] = snap;
+			} else {
+				destinationSnaps[i - originSnaps.length] = snap;
+			}
+			snapped += snap != null ? 1 : 0;
+		}
+		performanceStats.put("num_origins", origins.size());
+		performanceStats.put("num_destinations", destinations.size());
+		performanceStats.put("num_snapped", snapped);
+
+		long execT2 = System.currentTimeMillis();
+		performanceStats.put("t_prepare", (execT2 - execT1) / 1000d);
+		LOGGER.info("==== Section1 (load network and snap {} locations) Execution time is:{} seconds", locations.size(),
+				df.format((execT2 - execT1) / 1000d));
+		execT1 = execT2;
+
+		double[][] matrix = compute(networkGraph, originSnaps, destinationSnaps, maxDistance);
+
+		execT2 = System.currentTimeMillis();
+		performanceStats.put("num_searches", Math.min(origins.size(), destinations.size()));
+		performanceStats.put("t_search", (execT2 - execT1) / 1000d);
+		LOGGER.info("==== Section2 (search {} x {} matrix) Execution time is:{} seconds", new Object[] { origins.size(),
+				destinations.size(), df.format((execT2 - execT1) / 1000d) });
+
+		return matrix;
+	}
+
+	/**
+	 * Computes the distance matrix of snapped locations, searching from the
+	 * smaller of the two sets, one search per location in parallel
+	 *
+	 * @param graph
+	 * @param origins
+	 *            the snapped origins, null for an origin that could not be snapped
+	 * @param destinations
+	 *            the snapped destinations, null for a destination that could not be snapped
+	 * @param maxDistance
+	 * @return the distance from each origin to each destination, positive infinity if it is beyond maxDistance
+	 * @throws Exception
+	 */
+	public static double[][] compute(final IsochronesGraph graph, IsochronesSnap[] origins,
+			IsochronesSnap[] destinations, final double maxDistance) throws Exception {
+
+		boolean fromDestinations = destinations.length < origins.length;
+		IsochronesSnap[] sources = fromDestinations ? destinations : origins;
+		final IsochronesSnap[] targets = fromDestinations ? origins : destinations;
+
+		double[][] rows = new double[sources.length][];
+		ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1,
+				Math.min(Runtime.getRuntime().availableProcessors(), sources.length)));
+		try {
+			List<Future<double[]>> futures = new ArrayList<Future<double[]>>();
+			for (final IsochronesSnap source : sources) {
+				futures.add(executorService.submit(new Callable<double[]>() {
+					public double[] call() {
+						return distances(graph, source, targets, maxDistance);
+					}
+				}));
+			}
+			for (int i = 0; i < rows.length; i++) {
+				rows[i] = futures.get(i).get();
+			}
+		} finally {
+			executorService.shutdownNow();
+		}
+
+		if (!fromDestinations) {
+			return rows;
+		}
+		double[][] matrix = new double[origins.length][destinations.length];
+		for (int i = 0; i < origins.length; i++) {
+			for (int j = 0; j < destinations.length; j++) {
+				matrix[i][j] = rows[j][i];
+			}
+		}
+		return matrix;
+	}
+
+	/**
+	 * @return the distance from a snapped source to each snapped target
+	 */
+	static double[] distances(IsochronesGraph graph, IsochronesSnap source, IsochronesSnap[] targets, double maxDistance) {
+
+		double[] row = new double[targets.length];
+		Arrays.fill(row, Double.POSITIVE_INFINITY);
+		if (source == null) {
+			return row;
+		}
+
+		IsochronesLabels labels = search(graph, source, maxDistance);
+		try {
+			for (int i = 0; i < targets.length; i++) {
+				IsochronesSnap target = targets[i];
+				if (target == null) {
+					continue;
+				}
+				//through either end of the target edge, or straight along it if the source is on the same edge
+				double distance = Math.min(labels.getDistance(graph.getEdgeFrom(target.edgeID)) + target.offset,
+						labels.getDistance(graph.getEdgeTo(target.edgeID)) + graph.getEdgeLength(target.edgeID)
+								- target.offset);
+				if (target.edgeID == source.edgeID) {
+					distance = Math.min(distance, Math.abs(target.offset - source.offset));
+				}
+				if (distance <= maxDistance) {
+					row[i] = distance;
+				}
+			}
+		} finally {
+			labels.release();
+		}
+		return row;
+	}
+
+	//the same choice of search as for an isochrone of the same radius
+	private static IsochronesLabels search(IsochronesGraph graph, IsochronesSnap source, double maxDistance) {
+		IsochronesSnap[] snaps = new IsochronesSnap[] { source };
+		if (IsochronesPHAST.isEnabled(graph, maxDistance)) {
+			return IsochronesPHAST.search(graph, snaps, maxDistance);
+		}
+		if (IsochronesDeltaStepping.isEnabled(graph)) {
+			return IsochronesDeltaStepping.search(graph, snaps, maxDistance);
+		}
+		return IsochronesDijkstra.search(graph, snaps, maxDistance);
+	}
+}
@@ -0,0 +1,493 @@
+package com.nearbit.common.isochrones;
+
+/*
+ * Copyright (C) 2016 Benny Chen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.geotools.data.DataStore;
+import org.geotools.data.DataStoreFinder;
+import org.geotools.data.DefaultTransaction;
+import org.geotools.data.FeatureWriter;
+import org.geotools.data.Transaction;
+import org.geotools.data.shapefile.ShapefileDataStoreFactory;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nearbit.common.AppConfig;
+import com.nearbit.common.CRSRegistry;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * Removes the parts of a network layer that are not connected to the rest,
+ * e.g. isolated links left over from clipping OSM data, so searches do not
+ * start on an island. Lines connect where they share an end coordinate, like
+ * in {@link IsochronesGraphBuilder}.
+ *
+ * The lines of a layer are read from the {@link IsochronesNetworkSource} into
+ * primitive arrays. Their end coordinates are numbered as nodes in parallel,
+ * one hash shard per thread, and the connected components are found with a
+ * lock-free union-find over the lines, split between the threads. The largest
+ * component is kept, as well as every component with at least minEdges lines,
+ * and the kept lines are written to a GeoPackage or shapefile that
+ * isochronesNETWORK_SOURCE geopackage or shapefile reads.
+ *
+ * A layer covers a whole country, so the default keeps island networks such
+ * as Tasmania and only drops small fragments. minEdges=0 keeps the largest
+ * component only.
+ *
+ * Usage: IsochronesNetworkCleaner outputDir [format=gpkg|shp] [minEdges=100] [layer ...]
+ *
+ * @author  Benny Chen
+ */
+public class IsochronesNetworkCleaner {
+
+	static final Logger LOGGER = LoggerFactory.getLogger(IsochronesNetworkCleaner.class);
+
+	private static final int DEFAULT_MIN_EDGES = 100;
+
+	private IsochronesNetworkCleaner() {
+	}
+
+	/**
+	 * Cleans the given layers, by default the unprefixed network layer of every travel type
+	 */
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 1) {
+			System.err.println("Usage: IsochronesNetworkCleaner outputDir [format=gpkg|shp] [minEdges=" + DEFAULT_MIN_EDGES + "] [layer ...]");
+			return;
+		}
+		File outputDir = new File(args[0]);
+		String format = args.length > 1 ? args[1] : "gpkg";
+		int minEdges = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MIN_EDGES;
+		List<String> layers = new ArrayList<String>();
+		for (int i = 3; i < args.length; i++) {
+			layers.add(args[i]);
+		}
+
+		System.setProperty("org.geotools.referencing.forceXY", "true");
+		AppConfig.loadConfig();
+		if (layers.isEmpty()) {
+			for (String traveltype : IsochronesGraphStore.TRAVEL_TYPES) {
+				layers.add(AppConfig.getString("constantLAYERNAME_OSM_NETWORK_" + traveltype));
+			}
+		}
+
+		outputDir.mkdirs();
+		for (String layerName : layers) {
+			IsochronesNetworkSource source = IsochronesNetworkSources.open();
+			try {
+				clean(source, layerName, minEdges, new File(outputDir, layerName + "." + format));
+			} finally {
+				source.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Writes the connected lines of a layer
+	 *
+	 * @param source
+	 *            where the layer is read from
+	 * @param layerName
+	 * @param minEdges
+	 *            components with fewer lines are removed, unless they are the largest one, 0 keeps the largest one only
+	 * @param output
+	 *            a .gpkg or .shp file, replaced if it exists
+	 * @return the number of lines kept
+	 * @throws Exception
+	 */
+	public static int clean(IsochronesNetworkSource source, String layerName, int minEdges, File output)
+			throws Exception {
+
+		DecimalFormat df = new DecimalFormat("#.00");
+		long execT1 = System.currentTimeMillis();
+
+		final Lines lines = new Lines();
+		source.readLines(layerName, new GeometryFactory().toGeometry(new Envelope(-180, 180, -90, 90)),
+				new IsochronesNetworkSource.LineHandler() {
+					public void line(String id, Coordinate[] coords) {
+						lines.add(coords);
+					}
+				});
+
+		long execT2 = System.currentTimeMillis();
+		LOGGER.info("==== read {} lines of {} in {} seconds", new Object[] { lines.count, layerName,
+				df.format((execT2 - execT1) / 1000d) });
+		execT1 = execT2;
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executorService = Executors.newFixedThreadPool(threads);
+		boolean[] keep;
+		int componentCount = 0;
+		try {
+			//end coordinates of line n are endpoints 2n and 2n+1
+			double[] endX = new double[lines.count * 2];
+			double[] endY = new double[lines.count * 2];
+			for (int i = 0; i < lines.count; i++) {
+				int first = lines.offset[i];
+				int last = lines.offset[i + 1] - 1;
+				endX[i * 2] = lines.coords[first * 2];
+				endY[i * 2] = lines.coords[first * 2 + 1];
+				endX[i * 2 + 1] = lines.coords[last * 2];
+				endY[i * 2 + 1] = lines.coords[last * 2 + 1];
+			}
+			int[] nodes = nodes(executorService, threads, endX, endY);
+			int nodeCount = 0;
+			for (int node : nodes) {
+				nodeCount = Math.max(nodeCount, node + 1);
+			}
+			int[] root = components(executorService, threads, nodeCount, nodes);
+
+			//lines per component, by its root node
+			int[] size = new int[nodeCount];
+			int largest = -1;
+			for (int i = 0; i < lines.count; i++) {
+				int r = root[nodes[i * 2]];
+				if (size[r]++ == 0) {
+					componentCount++;
+				}
+				if (largest < 0 || size[r] > size[largest]) {
+					largest = r;
+				}
+			}
+			keep = new boolean[lines.count];
+			for (int i = 0; i < lines.count; i++) {
+				int r = root[nodes[i * 2]];
+				keep[i] = r == largest || size[r] >= minEdges && minEdges > 0;
+			}
+		} finally {
+			executorService.shutdownNow();
+		}
+
+		execT2 = System.currentTimeMillis();
+		LOGGER.info("==== found {} components in {} seconds", componentCount, df.format((execT2 - execT1) / 1000d));
+		execT1 = execT2;
+
+		int kept = write(output, layerName, lines, keep);
+
+		execT2 = System.currentTimeMillis();
+		LOGGER.info("==== wrote {} of {} lines to {} in {} seconds", new Object[] { kept, lines.count,
+				output.getPath(), df.format((execT2 - execT1) / 1000d) });
+		return kept;
+	}
+
+	/**
+	 * Numbers the distinct coordinates. Every thread numbers the endpoints
+	 * whose coordinate hashes to its shard, so no table is shared.
+	 *
+	 * @return the node id of each endpoint, from 0 to the number of distinct coordinates less one
+	 */
+	static int[] nodes(ExecutorService executorService, final int threads, final double[] endX, final double[] endY)
+			throws Exception {
+
+		final int[] nodes = new int[endX.length];
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		for (int t = 0; t < threads; t++) {
+			final int shard = t;
+			futures.add(executorService.submit(new Callable<Integer>() {
+				public Integer call() {
+					CoordinateTable table = new CoordinateTable();
+					for (int i = 0; i < endX.length; i++) {
+						int hash = hash(endX[i], endY[i]);
+						if (shard(hash, threads) == shard) {
+							nodes[i] = table.id(endX[i], endY[i], hash);
+						}
+					}
+					return table.size;
+				}
+			}));
+		}
+		//shard ids are local, shift them by the sizes of the shards before
+		int[] base = new int[threads];
+		for (int t = 1; t < threads; t++) {
+			base[t] = base[t - 1] + futures.get(t - 1).get();
+		}
+		futures.get(threads - 1).get();
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] += base[shard(hash(endX[i], endY[i]), threads)];
+		}
+		return nodes;
+	}
+
+	/**
+	 * Finds the connected components with a lock-free union-find, a root is
+	 * only ever linked below a smaller root so the threads cannot build a cycle
+	 *
+	 * @param nodes
+	 *            the node ids of the endpoints, line n joins nodes[2n] and nodes[2n+1]
+	 * @return the root node of the component of each node
+	 */
+	static int[] components(ExecutorService executorService, int threads, int nodeCount, final int[] nodes)
+			throws Exception {
+
+		final AtomicIntegerArray parent = new AtomicIntegerArray(nodeCount);
+		for (int i = 0; i < nodeCount; i++) {
+			parent.set(i, i);
+		}
+		int lineCount = nodes.length / 2;
+		List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		for (int t = 0; t < threads; t++) {
+			final int from = (int) ((long) lineCount * t / threads);
+			final int to = (int) ((long) lineCount * (t + 1) / threads);
+			futures.add(executorService.submit(new Callable<Object>() {
+				public Object call() {
+					for (int i = from; i < to; i++) {
+						union(parent, nodes[i * 2], nodes[i * 2 + 1]);
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<Object> future : futures) {
+			future.get();
+		}
+
+		int[] root = new int[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			root[i] = find(parent, i);
+		}
+		return root;
+	}
+
+	private static void union(AtomicIntegerArray parent, int a, int b) {
+		while (true) {
+			a = find(parent, a);
+			b = find(parent, b);
+			if (a == b) {
+				return;
+			}
+			if (a < b) {
+				int swap = a;
+				a = b;
+				b = swap;
+			}
+			//fails if another thread linked a meanwhile, then retry from the new roots
+			if (parent.compareAndSet(a, a, b)) {
+				return;
+			}
+		}
+	}
+
+	//with path halving, a lost race only leaves a longer path behind
+	private static int find(AtomicIntegerArray parent, int node) {
+		while (true) {
+			int p = parent.get(node);
+			if (p == node) {
+				return node;
+			}
+			int grandparent = parent.get(p);
+			if (p != grandparent) {
+				parent.compareAndSet(node, p, grandparent);
+			}
+			node = p;
+		}
+	}
+
+	//from the high bits of the hash, the tables probe from the low ones
+	private static int shard(int hash, int threads) {
+		return (int) (((hash & 0xFFFFFFFFL) * threads) >>> 32);
+	}
+
+	private static int hash(double x, double y) {
+		long h = Double.doubleToLongBits(x) * 31 + Double.doubleToLongBits(y);
+		h ^= h >>> 32;
+		h *= 0x9E3779B97F4A7C15L;
+		return (int) (h ^ h >>> 29);
+	}
+
+	/**
+	 * Writes the kept lines, a .gpkg file gets a table named after the layer
+	 */
+	private static int write(File output, String layerName, Lines lines, boolean[] keep) throws Exception {
+
+		String name = output.getName();
+		boolean geoPackage = name.toLowerCase().endsWith(".gpkg");
+		String base = name.substring(0, name.lastIndexOf('.'));
+		for (String extension : geoPackage ? new String[] { ".gpkg" } : new String[] { ".shp", ".shx", ".dbf", ".prj",
+				".qix", ".fix", ".cpg" }) {
+			File old = new File(output.getParentFile(), base + extension);
+			if (old.exists() && !old.delete()) {
+				throw new IOException("cannot replace " + old.getPath());
+			}
+		}
+
+		SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+		typeBuilder.setName(geoPackage ? layerName : base);
+		typeBuilder.setCRS(CRSRegistry.getCRS(CRSRegistry.GEO_CODE));
+		typeBuilder.add("the_geom", LineString.class);
+		SimpleFeatureType type = typeBuilder.buildFeatureType();
+
+		DataStore store;
+		if (geoPackage) {
+			Map<String, Serializable> params = new HashMap<String, Serializable>();
+			params.put("dbtype", "geopkg");
+			params.put("database", output.getPath());
+			store = DataStoreFinder.getDataStore(params);
+		} else {
+			Map<String, Serializable> params = new HashMap<String, Serializable>();
+			params.put("url", output.toURI().toURL());
+			params.put("create spatial index", Boolean.TRUE);
+			store = new ShapefileDataStoreFactory().createNewDataStore(params);
+		}
+		if (store == null) {
+			throw new IOException("cannot create " + output.getPath());
+		}
+
+		int kept = 0;
+		Transaction transaction = new DefaultTransaction("clean");
+		try {
+			store.createSchema(type);
+			GeometryFactory gf = new GeometryFactory();
+			FeatureWriter<SimpleFeatureType, SimpleFeature> writer = store.getFeatureWriterAppend(type.getTypeName(),
+					transaction);
+			try {
+				for (int i = 0; i < lines.count; i++) {
+					if (!keep[i]) {
+						continue;
+					}
+					SimpleFeature feature = writer.next();
+					feature.setDefaultGeometry(gf.createLineString(lines.getLine(i)));
+					writer.write();
+					kept++;
+				}
+			} finally {
+				writer.close();
+			}
+			transaction.commit();
+		} catch (Exception e) {
+			transaction.rollback();
+			throw e;
+		} finally {
+			transaction.close();
+			store.dispose();
+		}
+		return kept;
+	}
+
+	/**
+	 * The lines of a layer, coordinates of line n are stored in
+	 * [offset[n], offset[n+1]) of coords (x,y interleaved)
+	 */
+	private static final class Lines {
+
+		int count = 0;
+		int[] offset = new int[1025];
+		int coordCount = 0;
+		double[] coords = new double[4096];
+
+		void add(Coordinate[] line) {
+			if (coords.length < (coordCount + line.length) * 2) {
+				coords = Arrays.copyOf(coords, Math.max(coords.length * 2, (coordCount + line.length) * 2));
+			}
+			for (int i = 0; i < line.length; i++) {
+				coords[(coordCount + i) * 2] = line[i].x;
+				coords[(coordCount + i) * 2 + 1] = line[i].y;
+			}
+			coordCount += line.length;
+			if (count + 1 == offset.length) {
+				offset = Arrays.copyOf(offset, offset.length * 2);
+			}
+			offset[++count] = coordCount;
+		}
+
+		Coordinate[] getLine(int line) {
+			Coordinate[] points = new Coordinate[offset[line + 1] - offset[line]];
+			for (int i = 0; i < points.length; i++) {
+				points[i] = new Coordinate(coords[(offset[line] + i) * 2], coords[(offset[line] + i) * 2 + 1]);
+			}
+			return points;
+		}
+	}
+
+	/**
+	 * Numbers coordinates in an open addressing table of primitives
+	 */
+	private static final class CoordinateTable {
+
+		long[] keyX = new long[1 << 12];
+		long[] keyY = new long[1 << 12];
+		int[] ids = new int[1 << 12];
+		int size = 0;
+
+		CoordinateTable() {
+			Arrays.fill(ids, -1);
+		}
+
+		int id(double x, double y, int hash) {
+			if (size * 2 >= ids.length) {
+				grow();
+			}
+			long bx = Double.doubleToLongBits(x);
+			long by = Double.doubleToLongBits(y);
+			int mask = ids.length - 1;
+			int slot = hash & mask;
+			while (ids[slot] >= 0) {
+				if (keyX[slot] == bx && keyY[slot] == by) {
+					return ids[slot];
+				}
+				slot = (slot + 1) & mask;
+			}
+			keyX[slot] = bx;
+			keyY[slot] = by;
+			ids[slot] = size;
+			return size++;
+		}
+
+		private void grow() {
+			long[] oldX = keyX;
+			long[] oldY = keyY;
+			int[] oldIds = ids;
+			keyX = new long[oldIds.length * 2];
+			keyY = new long[oldIds.length * 2];
+			ids = new int[oldIds.length * 2];
+			Arrays.fill(ids, -1);
+			int mask = ids.length - 1;
+			for (int i = 0; i < oldIds.length; i++) {
+				if (oldIds[i] >= 0) {
+					int slot = hash(Double.longBitsToDouble(oldX[i]), Double.longBitsToDouble(oldY[i])) & mask;
+					while (ids[slot] >= 0) {
+						slot = (slot + 1) & mask;
+					}
+					keyX[slot] = oldX[i];
+					keyY[slot] = oldY[i];
+					ids[slot] = oldIds[i];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package com.nearbit.common.isochrones;
+
+/*
+ * Copyright (C) 2016 Benny Chen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Where the road network is read from. A source streams the lines of a
+ * network layer in a region straight to a handler, e.g. the
+ * {@link IsochronesGraphBuilder} of the graph being loaded, so no features are
+ * kept in between. Lines are in EPSG:4326 and a line connects to another where
+ * they share an end coordinate. Sources are opened with
+ * {@link IsochronesNetworkSources#open()}.
+ *
+ * @author  Benny Chen
+ */
+public interface IsochronesNetworkSource {
+
+	/**
+	 * Receives the lines as they are read
+	 */
+	interface LineHandler {
+
+		/**
+		 * @param id
+		 *            identifies the line within the layer, the same line read
+		 *            twice has the same id
+		 * @param coords
+		 *            the line coordinates, x is the longitude
+		 * @throws Exception
+		 */
+		void line(String id, Coordinate[] coords) throws Exception;
+	}
+
+	/**
+	 * Reads every line of a network layer intersecting a region
+	 *
+	 * @param layerName
+	 *            the network layer, e.g. route_ways_walk or nz_route_ways_walk
+	 * @param regionGeo
+	 *            the region, in EPSG:4326
+	 * @param handler
+	 *            receives the lines, a source may also pass some lines just outside the region
+	 * @throws Exception
+	 */
+	void readLines(String layerName, Geometry regionGeo, LineHandler handler) throws Exception;
+
+	/**
+	 * Releases the connections or files held by the source
+	 */
+	void dispose();
+}
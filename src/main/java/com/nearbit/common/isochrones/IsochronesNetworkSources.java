@@ -0,0 +1,63 @@
+package com.nearbit.common.isochrones;
+
+/*
+ * Copyright (C) 2016 Benny Chen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+
+import com.nearbit.common.AppConfig;
+
+/**
+ * Opens the {@link IsochronesNetworkSource} selected by
+ * isochronesNETWORK_SOURCE:
+ * <ul>
+ * <li>postgis: the network layers in the database, the default</li>
+ * <li>geopackage: isochronesNETWORK_DIR/&lt;layer&gt;.gpkg</li>
+ * <li>shapefile: isochronesNETWORK_DIR/&lt;layer&gt;.shp</li>
+ * <li>pbf: isochronesNETWORK_DIR/&lt;country code&gt;.osm.pbf, e.g. au.osm.pbf</li>
+ * </ul>
+ * The files are used as they are, so an engine can run from local files with
+ * no database on the path of a request.
+ *
+ * @author  Benny Chen
+ */
+public final class IsochronesNetworkSources {
+
+	private IsochronesNetworkSources() {
+	}
+
+	/**
+	 * @return a new source, call {@link IsochronesNetworkSource#dispose()} once it is no longer used
+	 */
+	public static IsochronesNetworkSource open() {
+		String type = AppConfig.getString("isochronesNETWORK_SOURCE").toLowerCase();
+		File dir = new File(AppConfig.getString("isochronesNETWORK_DIR"));
+		if (type.equals("geopackage")) {
+			return IsochronesDataStoreSource.geoPackage(dir);
+		}
+		if (type.equals("shapefile")) {
+			return IsochronesDataStoreSource.shapefile(dir);
+		}
+		if (type.equals("pbf")) {
+			return new IsochronesPBFSource(dir);
+		}
+		if (!type.equals("postgis")) {
+			throw new IllegalArgumentException("unknown isochronesNETWORK_SOURCE " + type);
+		}
+		return IsochronesDataStoreSource.postgis();
+	}
+}
@@ -0,0 +1,651 @@
+package com.nearbit.common.isochrones;
+
+/*
+ * Copyright (C) 2016 Benny Chen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nearbit.common.AppConfig;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Reads the network straight from an OpenStreetMap PBF extract, one file per
+ * country: isochronesNETWORK_DIR/&lt;country code&gt;.osm.pbf. The ways of a
+ * layer are those whose highway tag is listed in isochronesPBF_HIGHWAYS_&lt;travel
+ * type&gt;, and they are split at every node they share with another way, so
+ * lines connect at their end coordinates like the route_ways_* tables.
+ *
+ * A file is parsed once per travel type, in two passes: the matching ways
+ * first, then the coordinates of the nodes they use, kept as 1e-7 degree
+ * integers like the file stores them. The parsed network is shared between
+ * sources and may be dropped by the GC once graphs have been loaded from it.
+ *
+ * @author  Benny Chen
+ */
+public class IsochronesPBFSource implements IsochronesNetworkSource {
+
+	static final Logger LOGGER = LoggerFactory.getLogger(IsochronesPBFSource.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int MISSING = Integer.MIN_VALUE;
+
+	//parsed networks by file and travel type
+	private static final Map<String, SoftReference<Network>> networks = new HashMap<String, SoftReference<Network>>();
+
+	private final File dir;
+
+	IsochronesPBFSource(File dir) {
+		this.dir = dir;
+	}
+
+	public void readLines(String layerName, Geometry regionGeo, LineHandler handler) throws Exception {
+		String countryCode = null;
+		String traveltype = null;
+		for (String type : IsochronesGraphStore.TRAVEL_TYPES) {
+			String base = AppConfig.getString("constantLAYERNAME_OSM_NETWORK_" + type);
+			if (layerName.equalsIgnoreCase(base)) {
+				countryCode = IsochronesGraphStore.UNPREFIXED_COUNTRY_CODE;
+				traveltype = type;
+			} else if (layerName.toLowerCase().endsWith("_" + base.toLowerCase())) {
+				countryCode = layerName.substring(0, layerName.length() - base.length() - 1).toLowerCase();
+				traveltype = type;
+			}
+		}
+		if (traveltype == null) {
+			throw new IOException("unknown network layer " + layerName);
+		}
+		getNetwork(new File(dir, countryCode + ".osm.pbf"), traveltype).readLines(regionGeo.getEnvelopeInternal(), handler);
+	}
+
+	/**
+	 * The parsed networks are shared, they are not released with the source
+	 */
+	public void dispose() {
+	}
+
+	private static Network getNetwork(File file, String traveltype) throws IOException {
+		if (!file.isFile()) {
+			throw new IOException("no network file " + file.getPath());
+		}
+		String key = file.getAbsolutePath() + "|" + file.lastModified() + "|" + traveltype;
+		//parse a file only once, requests for other files wait as well but are rare since graphs are kept
+		synchronized (networks) {
+			SoftReference<Network> ref = networks.get(key);
+			Network network = ref != null ? ref.get() : null;
+			if (network == null) {
+				long execT1 = System.currentTimeMillis();
+				Set<String> highways = new HashSet<String>(Arrays.asList(AppConfig.getString(
+						"isochronesPBF_HIGHWAYS_" + traveltype).toLowerCase().split("\\s*,\\s*")));
+				network = Network.parse(file, highways);
+				networks.put(key, new SoftReference<Network>(network));
+				LOGGER.info("==== parsed {} for {}: {} ways, {} nodes in {} seconds", new Object[] { file.getPath(),
+						traveltype, network.wayIds.length, network.nodeIds.length,
+						(System.currentTimeMillis() - execT1) / 1000d });
+			}
+			return network;
+		}
+	}
+
+	/**
+	 * The ways of one travel type, with the nodes they use
+	 */
+	private static final class Network {
+
+		final long[] wayIds;
+		//nodes of way n are stored in [wayOffset[n], wayOffset[n+1]) of wayNodes, as indexes into nodeIds
+		final int[] wayOffset;
+		final int[] wayNodes;
+		//bounding box of each way as minX, minY, maxX, maxY in 1e-7 degrees
+		final int[] wayBox;
+
+		//sorted, a way is split at the nodes flagged in split
+		final long[] nodeIds;
+		final boolean[] split;
+		//1e-7 degrees, MISSING for a node the extract does not contain
+		final int[] nodeX;
+		final int[] nodeY;
+
+		private Network(long[] wayIds, int[] wayOffset, int[] wayNodes, long[] nodeIds, boolean[] split, int[] nodeX,
+				int[] nodeY) {
+			this.wayIds = wayIds;
+			this.wayOffset = wayOffset;
+			this.wayNodes = wayNodes;
+			this.nodeIds = nodeIds;
+			this.split = split;
+			this.nodeX = nodeX;
+			this.nodeY = nodeY;
+			this.wayBox = new int[wayIds.length * 4];
+			for (int w = 0; w < wayIds.length; w++) {
+				int[] box = new int[] { Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE };
+				for (int i = wayOffset[w]; i < wayOffset[w + 1]; i++) {
+					int node = wayNodes[i];
+					if (nodeY[node] != MISSING) {
+						box[0] = Math.min(box[0], nodeX[node]);
+						box[1] = Math.min(box[1], nodeY[node]);
+						box[2] = Math.max(box[2], nodeX[node]);
+						box[3] = Math.max(box[3], nodeY[node]);
+					}
+				}
+				System.arraycopy(box, 0, wayBox, w * 4, 4);
+			}
+		}
+
+		static Network parse(File file, final Set<String> highways) throws IOException {
+
+			//pass 1, the matching ways and the nodes they use
+			final LongList wayIds = new LongList();
+			final LongList refs = new LongList();
+			final LongList offsets = new LongList();
+			offsets.add(0);
+			scan(file, new Visitor(false, true) {
+				void way(long id, int[] keys, int[] vals, long[] wayRefs, String[] strings) {
+					boolean match = false;
+					for (int i = 0; i < keys.length; i++) {
+						if (strings[keys[i]].equals("highway")) {
+							match = highways.contains(strings[vals[i]]);
+						} else if (strings[keys[i]].equals("area") && strings[vals[i]].equals("yes")) {
+							return;
+						}
+					}
+					if (match && wayRefs.length >= 2) {
+						wayIds.add(id);
+						for (long ref : wayRefs) {
+							refs.add(ref);
+						}
+						offsets.add(refs.size);
+					}
+				}
+			});
+
+			//a node used twice, by two ways or twice by one, is a junction
+			long[] sorted = Arrays.copyOf(refs.values, refs.size);
+			Arrays.sort(sorted);
+			int unique = 0;
+			boolean[] shared = new boolean[sorted.length];
+			for (int i = 0; i < sorted.length; i++) {
+				if (unique > 0 && sorted[unique - 1] == sorted[i]) {
+					shared[unique - 1] = true;
+				} else {
+					sorted[unique++] = sorted[i];
+				}
+			}
+			final long[] nodeIds = Arrays.copyOf(sorted, unique);
+			boolean[] split = Arrays.copyOf(shared, unique);
+			int[] wayOffset = new int[offsets.size];
+			for (int w = 0; w < wayOffset.length; w++) {
+				wayOffset[w] = (int) offsets.values[w];
+			}
+			int[] wayNodes = new int[refs.size];
+			for (int i = 0; i < refs.size; i++) {
+				wayNodes[i] = Arrays.binarySearch(nodeIds, refs.values[i]);
+			}
+			for (int w = 0; w + 1 < wayOffset.length; w++) {
+				split[wayNodes[wayOffset[w]]] = true;
+				split[wayNodes[wayOffset[w + 1] - 1]] = true;
+			}
+
+			//pass 2, the coordinates of those nodes
+			final int[] nodeX = new int[unique];
+			final int[] nodeY = new int[unique];
+			Arrays.fill(nodeY, MISSING);
+			scan(file, new Visitor(true, false) {
+				void node(long id, int x, int y) {
+					int node = Arrays.binarySearch(nodeIds, id);
+					if (node >= 0) {
+						nodeX[node] = x;
+						nodeY[node] = y;
+					}
+				}
+			});
+
+			return new Network(Arrays.copyOf(wayIds.values, wayIds.size), wayOffset, wayNodes, nodeIds, split, nodeX,
+					nodeY);
+		}
+
+		/**
+		 * Passes the parts of the ways between junctions whose envelope
+		 * intersects the region, a way is also cut where the extract lacks a
+		 * node
+		 */
+		void readLines(Envelope region, LineHandler handler) throws Exception {
+			double minX = region.getMinX() * 1e7;
+			double minY = region.getMinY() * 1e7;
+			double maxX = region.getMaxX() * 1e7;
+			double maxY = region.getMaxY() * 1e7;
+			List<Coordinate> coords = new ArrayList<Coordinate>();
+			for (int w = 0; w < wayIds.length; w++) {
+				if (wayBox[w * 4] > maxX || wayBox[w * 4 + 1] > maxY || wayBox[w * 4 + 2] < minX
+						|| wayBox[w * 4 + 3] < minY) {
+					continue;
+				}
+				//parts are numbered whether they are passed or not, so a part has the same id in every region
+				int part = 0;
+				coords.clear();
+				for (int i = wayOffset[w]; i < wayOffset[w + 1]; i++) {
+					int node = wayNodes[i];
+					if (nodeY[node] == MISSING) {
+						part = emit(w, part, coords, region, handler);
+						continue;
+					}
+					Coordinate coord = new Coordinate(nodeX[node] / 1e7, nodeY[node] / 1e7);
+					coords.add(coord);
+					if (split[node] && coords.size() >= 2) {
+						part = emit(w, part, coords, region, handler);
+						coords.add(coord);
+					}
+				}
+				emit(w, part, coords, region, handler);
+			}
+		}
+
+		//passes the line in coords if it has two coordinates or more, and clears it
+		private int emit(int way, int part, List<Coordinate> coords, Envelope region, LineHandler handler)
+				throws Exception {
+			if (coords.size() < 2) {
+				coords.clear();
+				return part;
+			}
+			Envelope env = new Envelope();
+			for (Coordinate coord : coords) {
+				env.expandToInclude(coord);
+			}
+			if (env.intersects(region)) {
+				handler.line(wayIds[way] + "#" + part, coords.toArray(new Coordinate[coords.size()]));
+			}
+			coords.clear();
+			return part + 1;
+		}
+	}
+
+	/**
+	 * Receives the nodes or ways of the data blocks of a file, the others are
+	 * not decoded
+	 */
+	private abstract static class Visitor {
+
+		final boolean nodes;
+		final boolean ways;
+
+		Visitor(boolean nodes, boolean ways) {
+			this.nodes = nodes;
+			this.ways = ways;
+		}
+
+		//x and y in 1e-7 degrees
+		void node(long id, int x, int y) {
+		}
+
+		//keys and vals index into strings
+		void way(long id, int[] keys, int[] vals, long[] refs, String[] strings) {
+		}
+	}
+
+	/**
+	 * Reads the file block by block: a 4 byte header length, a BlobHeader and
+	 * a Blob holding a PrimitiveBlock, see the OSM PBF format
+	 */
+	private static void scan(File file, Visitor visitor) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			while (true) {
+				int headerLength;
+				try {
+					headerLength = in.readInt();
+				} catch (EOFException e) {
+					return;
+				}
+				byte[] header = new byte[headerLength];
+				in.readFully(header);
+				String type = null;
+				int dataSize = 0;
+				Proto p = new Proto(header, 0, header.length);
+				while (p.hasNext()) {
+					int tag = p.tag();
+					if (tag == (1 << 3 | 2)) {
+						type = p.string();
+					} else if (tag == (3 << 3)) {
+						dataSize = (int) p.varint();
+					} else {
+						p.skip(tag);
+					}
+				}
+				byte[] blob = new byte[dataSize];
+				in.readFully(blob);
+				if ("OSMData".equals(type)) {
+					readBlock(blob(blob), visitor);
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] blob(byte[] blob) throws IOException {
+		Proto p = new Proto(blob, 0, blob.length);
+		int rawSize = 0;
+		byte[] raw = null;
+		int zlibStart = -1;
+		int zlibLength = 0;
+		while (p.hasNext()) {
+			int tag = p.tag();
+			if (tag == (1 << 3 | 2)) {
+				int length = p.length();
+				raw = Arrays.copyOfRange(blob, p.pos, p.pos + length);
+				p.pos += length;
+			} else if (tag == (2 << 3)) {
+				rawSize = (int) p.varint();
+			} else if (tag == (3 << 3 | 2)) {
+				zlibLength = p.length();
+				zlibStart = p.pos;
+				p.pos += zlibLength;
+			} else {
+				p.skip(tag);
+			}
+		}
+		if (raw != null) {
+			return raw;
+		}
+		if (zlibStart < 0) {
+			throw new IOException("unsupported blob compression");
+		}
+		byte[] data = new byte[rawSize];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(blob, zlibStart, zlibLength);
+			int n = 0;
+			while (n < rawSize && !inflater.finished()) {
+				int inflated = inflater.inflate(data, n, rawSize - n);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				n += inflated;
+			}
+			if (n != rawSize) {
+				throw new IOException("corrupt blob");
+			}
+		} catch (DataFormatException e) {
+			throw new IOException(e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		return data;
+	}
+
+	private static void readBlock(byte[] block, Visitor visitor) throws IOException {
+		Proto p = new Proto(block, 0, block.length);
+		String[] strings = new String[0];
+		List<Proto> groups = new ArrayList<Proto>();
+		long granularity = 100;
+		long latOffset = 0;
+		long lonOffset = 0;
+		//the groups come before the granularity and offsets, decode them last
+		while (p.hasNext()) {
+			int tag = p.tag();
+			if (tag == (1 << 3 | 2)) {
+				Proto table = p.sub();
+				if (visitor.ways) {
+					List<String> list = new ArrayList<String>();
+					while (table.hasNext()) {
+						int t = table.tag();
+						if (t == (1 << 3 | 2)) {
+							list.add(table.string());
+						} else {
+							table.skip(t);
+						}
+					}
+					strings = list.toArray(new String[list.size()]);
+				}
+			} else if (tag == (2 << 3 | 2)) {
+				groups.add(p.sub());
+			} else if (tag == (17 << 3)) {
+				granularity = p.varint();
+			} else if (tag == (19 << 3)) {
+				latOffset = p.varint();
+			} else if (tag == (20 << 3)) {
+				lonOffset = p.varint();
+			} else {
+				p.skip(tag);
+			}
+		}
+
+		for (Proto group : groups) {
+			while (group.hasNext()) {
+				int tag = group.tag();
+				if (visitor.nodes && tag == (1 << 3 | 2)) {
+					readNode(group.sub(), visitor, granularity, latOffset, lonOffset);
+				} else if (visitor.nodes && tag == (2 << 3 | 2)) {
+					readDenseNodes(group.sub(), visitor, granularity, latOffset, lonOffset);
+				} else if (visitor.ways && tag == (3 << 3 | 2)) {
+					readWay(group.sub(), visitor, strings);
+				} else {
+					group.skip(tag);
+				}
+			}
+		}
+	}
+
+	private static void readNode(Proto p, Visitor visitor, long granularity, long latOffset, long lonOffset)
+			throws IOException {
+		long id = 0;
+		long lat = 0;
+		long lon = 0;
+		while (p.hasNext()) {
+			int tag = p.tag();
+			if (tag == (1 << 3)) {
+				id = p.sint();
+			} else if (tag == (8 << 3)) {
+				lat = p.sint();
+			} else if (tag == (9 << 3)) {
+				lon = p.sint();
+			} else {
+				p.skip(tag);
+			}
+		}
+		visitor.node(id, degrees(lonOffset, granularity, lon), degrees(latOffset, granularity, lat));
+	}
+
+	private static void readDenseNodes(Proto p, Visitor visitor, long granularity, long latOffset, long lonOffset)
+			throws IOException {
+		Proto ids = null;
+		Proto lats = null;
+		Proto lons = null;
+		while (p.hasNext()) {
+			int tag = p.tag();
+			if (tag == (1 << 3 | 2)) {
+				ids = p.sub();
+			} else if (tag == (8 << 3 | 2)) {
+				lats = p.sub();
+			} else if (tag == (9 << 3 | 2)) {
+				lons = p.sub();
+			} else {
+				p.skip(tag);
+			}
+		}
+		if (ids == null || lats == null || lons == null) {
+			return;
+		}
+		//all three are delta coded
+		long id = 0;
+		long lat = 0;
+		long lon = 0;
+		while (ids.hasNext()) {
+			id += ids.sint();
+			lat += lats.sint();
+			lon += lons.sint();
+			visitor.node(id, degrees(lonOffset, granularity, lon), degrees(latOffset, granularity, lat));
+		}
+	}
+
+	private static void readWay(Proto p, Visitor visitor, String[] strings) throws IOException {
+		long id = 0;
+		int[] keys = new int[0];
+		int[] vals = new int[0];
+		long[] refs = new long[0];
+		while (p.hasNext()) {
+			int tag = p.tag();
+			if (tag == (1 << 3)) {
+				id = p.varint();
+			} else if (tag == (2 << 3 | 2)) {
+				keys = p.sub().uints();
+			} else if (tag == (3 << 3 | 2)) {
+				vals = p.sub().uints();
+			} else if (tag == (8 << 3 | 2)) {
+				Proto packed = p.sub();
+				LongList list = new LongList();
+				long ref = 0;
+				while (packed.hasNext()) {
+					ref += packed.sint();
+					list.add(ref);
+				}
+				refs = Arrays.copyOf(list.values, list.size);
+			} else {
+				p.skip(tag);
+			}
+		}
+		visitor.way(id, keys, vals, refs, strings);
+	}
+
+	//a coordinate in 1e-7 degrees, exact for the default granularity of 100 nanodegrees
+	private static int degrees(long offset, long granularity, long value) {
+		return (int) Math.round((offset + granularity * value) / 100d);
+	}
+
+	/**
+	 * Decodes protocol buffer fields from a slice of a byte array
+	 */
+	private static final class Proto {
+
+		final byte[] buf;
+		int pos;
+		final int limit;
+
+		Proto(byte[] buf, int offset, int length) {
+			this.buf = buf;
+			this.pos = offset;
+			this.limit = offset + length;
+		}
+
+		boolean hasNext() {
+			return pos < limit;
+		}
+
+		//the field number shifted left by 3, or'ed with the wire type
+		int tag() {
+			return (int) varint();
+		}
+
+		long varint() {
+			long value = 0;
+			for (int shift = 0;; shift += 7) {
+				byte b = buf[pos++];
+				value |= (long) (b & 0x7F) << shift;
+				if (b >= 0) {
+					return value;
+				}
+			}
+		}
+
+		long sint() {
+			long value = varint();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		int length() {
+			return (int) varint();
+		}
+
+		Proto sub() {
+			int length = length();
+			Proto sub = new Proto(buf, pos, length);
+			pos += length;
+			return sub;
+		}
+
+		String string() {
+			int length = length();
+			String s = new String(buf, pos, length, UTF8);
+			pos += length;
+			return s;
+		}
+
+		int[] uints() {
+			int[] values = new int[16];
+			int n = 0;
+			while (hasNext()) {
+				if (n == values.length) {
+					values = Arrays.copyOf(values, n * 2);
+				}
+				values[n++] = (int) varint();
+			}
+			return Arrays.copyOf(values, n);
+		}
+
+		void skip(int tag) throws IOException {
+			switch (tag & 7) {
+			case 0:
+				varint();
+				break;
+			case 1:
+				pos += 8;
+				break;
+			case 2:
+				int length = length();
+				pos += length;
+				break;
+			case 5:
+				pos += 4;
+				break;
+			default:
+				throw new IOException("unsupported wire type " + (tag & 7));
+			}
+		}
+	}
+
+	private static final class LongList {
+
+		long[] values = new long[1024];
+		int size = 0;
+
+		void add(long value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+	}
+}
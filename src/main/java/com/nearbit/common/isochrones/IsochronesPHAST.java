@@ -0,0 +1,208 @@
+package com.nearbit.common.isochrones;
+
+/*
+ * Copyright (C) 2016 Benny Chen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+import com.nearbit.common.AppConfig;
+
+/**
+ * A bounded one-to-all search over the {@link IsochronesHierarchy} of a
+ * graph (PHAST). A Dijkstra search from the sources over the upward edges
+ * only settles a few nodes; a sweep over the ranks in descending order then
+ * pulls every distance down from the higher ranked nodes, which needs no
+ * queue at all.
+ *
+ * The sweep is restricted to the target area: a node further than
+ * maxDistance in a straight line from every source cannot be within
+ * maxDistance by road, and neither can the nodes on the way to it, so only
+ * the nodes within those circles are swept. The result is the same as that
+ * of {@link IsochronesDijkstra}.
+ *
+ * @author  Benny Chen
+ */
+public class IsochronesPHAST {
+
+	//beyond this many sources the target area is only tested by its bounding box
+	private static final int MAX_CIRCLES = 8;
+
+	private IsochronesPHAST() {
+	}
+
+	/**
+	 * @param graph
+	 * @param maxDistance
+	 * @return true if the graph has a hierarchy and maxDistance is at least
+	 *         isochronesHIERARCHY_MIN_RADIUS, below that a plain search settles
+	 *         fewer nodes than the sweep visits
+	 */
+	public static boolean isEnabled(IsochronesGraph graph, double maxDistance) {
+		return graph.getHierarchy() != null
+				&& maxDistance >= Double.parseDouble(AppConfig.getString("isochronesHIERARCHY_MIN_RADIUS"));
+	}
+
+	/**
+	 * Settles every node within maxDistance of any of several snapped seeds
+	 *
+	 * @see IsochronesDijkstra#search(IsochronesGraph, IsochronesSnap[], double)
+	 */
+	public static IsochronesLabels search(IsochronesGraph graph, IsochronesSnap[] snaps, double maxDistance) {
+		IsochronesLabels labels = search(graph, IsochronesDijkstra.snapSources(graph, snaps),
+				IsochronesDijkstra.snapSourceDistances(graph, snaps), maxDistance);
+		labels.setSnaps(snaps);
+		return labels;
+	}
+
+	/**
+	 * Settles every node within maxDistance of the sources
+	 *
+	 * @param graph
+	 *            the graph to search, it must have a hierarchy
+	 * @param sourceNodes
+	 *            the start nodes
+	 * @param sourceDistances
+	 *            the distance each start node is already away from the seed
+	 * @param maxDistance
+	 *            nodes further than this are not settled
+	 * @return the labels of the search, call {@link IsochronesLabels#release()} once they are consumed
+	 */
+	public static IsochronesLabels search(IsochronesGraph graph, int[] sourceNodes, double[] sourceDistances,
+			double maxDistance) {
+
+		IsochronesHierarchy hierarchy = graph.getHierarchy();
+		IsochronesLabels labels = IsochronesDijkstra.acquire(graph);
+		labels.reset(maxDistance);
+		//the heap and the distances are indexed by rank during the search
+		IsochronesHeap heap = labels.heap;
+		double[] distance = labels.rankDistance();
+		long relaxCount = 0;
+
+		for (int i = 0; i < sourceNodes.length; i++) {
+			labels.markSource(sourceNodes[i]);
+			if (sourceDistances[i] <= maxDistance) {
+				heap.update(hierarchy.getRank(sourceNodes[i]), sourceDistances[i]);
+			}
+		}
+
+		//upward search, a rank is reached once its distance is finite
+		int[] upward = new int[64];
+		int upwardCount = 0;
+		while (!heap.isEmpty()) {
+			double rankDistance = heap.peekKey();
+			int rank = heap.poll();
+			distance[rank] = rankDistance;
+			if (upwardCount == upward.length) {
+				upward = Arrays.copyOf(upward, upwardCount * 2);
+			}
+			upward[upwardCount++] = rank;
+
+			for (int slot = hierarchy.getUpStart(rank); slot < hierarchy.getUpEnd(rank); slot++) {
+				relaxCount++;
+				int toRank = hierarchy.getUpRank(slot);
+				double toDistance = rankDistance + hierarchy.getUpWeight(slot);
+				if (toDistance <= maxDistance && toDistance < distance[toRank]) {
+					heap.update(toRank, toDistance);
+				}
+			}
+		}
+
+		//downward sweep over the target area, every upward edge of a rank leads to a higher rank which is final already
+		double[] area = targetArea(graph, sourceNodes, sourceDistances, maxDistance);
+		int circles = (area.length - 6) / 3;
+		for (int rank = hierarchy.getNodeCount() - 1; rank >= 0; rank--) {
+			double x = hierarchy.getX(rank);
+			double y = hierarchy.getY(rank);
+			if (x < area[0] || y < area[1] || x > area[2] || y > area[3] || !inCircles(area, circles, x, y)) {
+				continue;
+			}
+			double best = distance[rank];
+			for (int slot = hierarchy.getUpStart(rank); slot < hierarchy.getUpEnd(rank); slot++) {
+				double viaDistance = distance[hierarchy.getUpRank(slot)] + hierarchy.getUpWeight(slot);
+				if (viaDistance < best) {
+					best = viaDistance;
+				}
+			}
+			relaxCount += hierarchy.getUpEnd(rank) - hierarchy.getUpStart(rank);
+			//a distance beyond maxDistance cannot lead to a node within it, leave it out so only settled ranks are set
+			if (best <= maxDistance) {
+				distance[rank] = best;
+				labels.settle(hierarchy.getNode(rank), best);
+			}
+		}
+
+		for (int i = 0; i < labels.getSettledCount(); i++) {
+			distance[hierarchy.getRank(labels.getSettledNode(i))] = Double.POSITIVE_INFINITY;
+		}
+		for (int i = 0; i < upwardCount; i++) {
+			distance[upward[i]] = Double.POSITIVE_INFINITY;
+		}
+		labels.addRelaxCount(relaxCount);
+		return labels;
+	}
+
+	/**
+	 * The target area is the union of a circle around every source, with a
+	 * radius of maxDistance less the distance the source starts at. Any area
+	 * containing it gives the same result, so with many sources only their
+	 * bounding box is tested.
+	 *
+	 * @return the bounding box of the circles as minX, minY, maxX, maxY, 0, 0,
+	 *         followed by x, y and the squared radius of each circle to test
+	 */
+	private static double[] targetArea(IsochronesGraph graph, int[] sourceNodes, double[] sourceDistances,
+			double maxDistance) {
+
+		double[] area = new double[] { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+				Double.NEGATIVE_INFINITY, 0, 0 };
+		int circles = 0;
+		for (int i = 0; i < sourceNodes.length; i++) {
+			double radius = maxDistance - sourceDistances[i];
+			if (radius < 0) {
+				continue;
+			}
+			//edge lengths are summed in floating point, leave room for their rounding
+			radius = radius * (1 + 1e-9) + 1e-6;
+			double x = graph.getNodeX(sourceNodes[i]);
+			double y = graph.getNodeY(sourceNodes[i]);
+			area[0] = Math.min(area[0], x - radius);
+			area[1] = Math.min(area[1], y - radius);
+			area[2] = Math.max(area[2], x + radius);
+			area[3] = Math.max(area[3], y + radius);
+			area = Arrays.copyOf(area, area.length + 3);
+			area[area.length - 3] = x;
+			area[area.length - 2] = y;
+			area[area.length - 1] = radius * radius;
+			circles++;
+		}
+		return circles > MAX_CIRCLES ? Arrays.copyOf(area, 6) : area;
+	}
+
+	private static boolean inCircles(double[] area, int circles, double x, double y) {
+		if (circles == 0) {
+			return true;
+		}
+		for (int i = 6; i < area.length; i += 3) {
+			double dx = x - area[i];
+			double dy = y - area[i + 1];
+			if (dx * dx + dy * dy <= area[i + 2]) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
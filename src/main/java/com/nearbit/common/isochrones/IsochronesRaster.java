@@ -0,0 +1,308 @@
+package com.nearbit.common.isochrones;
+
+/*
+ * Copyright (C) 2016 Benny Chen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vividsolutions.jts.algorithm.CGAlgorithms;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Approximates the union of the edge buffers of an isochrone on a grid, for
+ * the "raster" detail level. The edges are drawn into a bit grid of cells
+ * half the buffer size wide, dilated by the buffer size as they are drawn,
+ * and the outline of the set cells is traced with marching squares into
+ * polygons with holes. The cost grows with the number of cells the buffers
+ * cover rather than with the number of buffer vertices. The outline is
+ * within half a cell of the exact union, but gaps between buffers narrower
+ * than a cell may be closed.
+ *
+ * @author  Benny Chen
+ */
+public class IsochronesRaster {
+
+	//cells per buffer size, the grid is coarsened if it would have more than MAX_CELLS
+	private static final int CELLS_PER_BUFFER = 2;
+	private static final long MAX_CELLS = 1L << 24;
+
+	//sides of a square between four cell centres, the outline crosses them at their midpoints
+	private static final int BOTTOM = 0;
+	private static final int RIGHT = 1;
+	private static final int TOP = 2;
+	private static final int LEFT = 3;
+
+	//the side the outline leaves a square through, by the set corners of the square
+	//(bottom left 1, bottom right 2, top right 4, top left 8) and the side it entered through,
+	//so the set cells are always on its left; saddles are joined across the centre
+	private static final int[][] EXIT = new int[16][];
+
+	static {
+		int n = -1;
+		EXIT[0] = new int[] { n, n, n, n };
+		EXIT[1] = new int[] { LEFT, n, n, n };
+		EXIT[2] = new int[] { n, BOTTOM, n, n };
+		EXIT[3] = new int[] { n, LEFT, n, n };
+		EXIT[4] = new int[] { n, n, RIGHT, n };
+		EXIT[5] = new int[] { RIGHT, n, LEFT, n };
+		EXIT[6] = new int[] { n, n, BOTTOM, n };
+		EXIT[7] = new int[] { n, n, LEFT, n };
+		EXIT[8] = new int[] { n, n, n, TOP };
+		EXIT[9] = new int[] { TOP, n, n, n };
+		EXIT[10] = new int[] { n, TOP, n, BOTTOM };
+		EXIT[11] = new int[] { n, TOP, n, n };
+		EXIT[12] = new int[] { n, n, n, RIGHT };
+		EXIT[13] = new int[] { RIGHT, n, n, n };
+		EXIT[14] = new int[] { n, n, n, BOTTOM };
+		EXIT[15] = new int[] { n, n, n, n };
+	}
+
+	private IsochronesRaster() {
+	}
+
+	/**
+	 * Approximates the union of the buffers of the edges
+	 *
+	 * @param edges
+	 *            the edge geometries, at least one
+	 * @param bufSize
+	 *            the buffer distance
+	 * @param gf
+	 *            the factory of the result
+	 * @return a Polygon, or a MultiPolygon if the buffers fall apart, which happens readily once the grid
+	 *         is coarsened past MAX_CELLS
+	 */
+	public static Geometry bufferUnion(Geometry[] edges, double bufSize, GeometryFactory gf) {
+
+		Envelope env = new Envelope();
+		for (Geometry edge : edges) {
+			env.expandToInclude(edge.getEnvelopeInternal());
+		}
+		double cell = bufSize / CELLS_PER_BUFFER;
+		//a ring of empty cells around the buffers closes every outline
+		double margin = bufSize + 2 * cell;
+		double cells = (env.getWidth() + 2 * margin) * (env.getHeight() + 2 * margin) / (cell * cell);
+		if (cells > MAX_CELLS) {
+			cell *= Math.sqrt(cells / MAX_CELLS);
+			margin = bufSize + 2 * cell;
+		}
+		Grid grid = new Grid(env.getMinX() - margin, env.getMinY() - margin,
+				(int) Math.ceil((env.getWidth() + 2 * margin) / cell) + 1,
+				(int) Math.ceil((env.getHeight() + 2 * margin) / cell) + 1, cell);
+
+		//a coarsened cell can be wider than the buffer, so lines are drawn at least half a cell diagonal wide
+		//to always hit the centres of the cells they cross
+		double distance = Math.max(bufSize, cell * Math.sqrt(2) / 2);
+		for (Geometry edge : edges) {
+			grid.draw(edge.getCoordinates(), distance);
+		}
+		return grid.trace(gf);
+	}
+
+	/**
+	 * A bit per cell, cell (i, j) has its centre at (minX + (i + 0.5) * cell, minY + (j + 0.5) * cell)
+	 */
+	private static final class Grid {
+
+		final double minX;
+		final double minY;
+		final int width;
+		final int height;
+		final double cell;
+		final long[] bits;
+
+		Grid(double minX, double minY, int width, int height, double cell) {
+			this.minX = minX;
+			this.minY = minY;
+			this.width = width;
+			this.height = height;
+			this.cell = cell;
+			this.bits = new long[(int) (((long) width * height + 63) >>> 6)];
+		}
+
+		boolean get(int i, int j) {
+			int index = j * width + i;
+			return (bits[index >>> 6] & 1L << index) != 0;
+		}
+
+		void set(int i, int j) {
+			int index = j * width + i;
+			bits[index >>> 6] |= 1L << index;
+		}
+
+		/**
+		 * Sets every cell whose centre is within distance of a line, this
+		 * draws the line and dilates it in one pass over the cells around
+		 * each segment
+		 */
+		void draw(Coordinate[] coords, double distance) {
+			double distanceSq = distance * distance;
+			for (int k = 0; k + 1 < coords.length || k == 0; k++) {
+				Coordinate p0 = coords[k];
+				Coordinate p1 = k + 1 < coords.length ? coords[k + 1] : coords[k];
+				double dx = p1.x - p0.x;
+				double dy = p1.y - p0.y;
+				double lengthSq = dx * dx + dy * dy;
+				int i0 = (int) ((Math.min(p0.x, p1.x) - distance - minX) / cell);
+				int i1 = (int) ((Math.max(p0.x, p1.x) + distance - minX) / cell);
+				int j0 = (int) ((Math.min(p0.y, p1.y) - distance - minY) / cell);
+				int j1 = (int) ((Math.max(p0.y, p1.y) + distance - minY) / cell);
+				for (int j = j0; j <= j1; j++) {
+					double y = minY + (j + 0.5) * cell;
+					for (int i = i0; i <= i1; i++) {
+						double x = minX + (i + 0.5) * cell;
+						//distance from the centre to the closest point of the segment
+						double t = lengthSq > 0 ? Math.max(0, Math.min(1, ((x - p0.x) * dx + (y - p0.y) * dy) / lengthSq)) : 0;
+						double ex = p0.x + t * dx - x;
+						double ey = p0.y + t * dy - y;
+						if (ex * ex + ey * ey <= distanceSq) {
+							set(i, j);
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Traces the outlines through the squares between the cell centres.
+		 * Outer rings run counter-clockwise and holes clockwise, each hole
+		 * goes into the smallest outer ring around it.
+		 */
+		Geometry trace(GeometryFactory gf) {
+
+			//the sides each square has been traced through already, 4 bits per square
+			long[] visited = new long[(int) (((long) width * height * 4 + 63) >>> 6)];
+			List<LinearRing> shells = new ArrayList<LinearRing>();
+			List<LinearRing> holes = new ArrayList<LinearRing>();
+
+			for (int j = 0; j + 1 < height; j++) {
+				for (int i = 0; i + 1 < width; i++) {
+					int[] exits = EXIT[corners(i, j)];
+					for (int entry = 0; entry < 4; entry++) {
+						if (exits[entry] < 0 || isVisited(visited, i, j, entry)) {
+							continue;
+						}
+						LinearRing ring = gf.createLinearRing(ring(visited, i, j, entry));
+						if (CGAlgorithms.isCCW(ring.getCoordinates())) {
+							shells.add(ring);
+						} else {
+							holes.add(ring);
+						}
+					}
+				}
+			}
+
+			List<List<LinearRing>> shellHoles = new ArrayList<List<LinearRing>>();
+			double[] shellAreas = new double[shells.size()];
+			for (int s = 0; s < shells.size(); s++) {
+				shellHoles.add(new ArrayList<LinearRing>());
+				shellAreas[s] = Math.abs(CGAlgorithms.signedArea(shells.get(s).getCoordinates()));
+			}
+			for (LinearRing hole : holes) {
+				Coordinate pt = hole.getCoordinateN(0);
+				int owner = -1;
+				for (int s = 0; s < shells.size(); s++) {
+					if ((owner < 0 || shellAreas[s] < shellAreas[owner])
+							&& shells.get(s).getEnvelopeInternal().contains(pt)
+							&& CGAlgorithms.isPointInRing(pt, shells.get(s).getCoordinates())) {
+						owner = s;
+					}
+				}
+				if (owner >= 0) {
+					shellHoles.get(owner).add(hole);
+				}
+			}
+
+			Polygon[] polygons = new Polygon[shells.size()];
+			for (int s = 0; s < shells.size(); s++) {
+				List<LinearRing> h = shellHoles.get(s);
+				polygons[s] = gf.createPolygon(shells.get(s), h.toArray(new LinearRing[h.size()]));
+			}
+			return polygons.length == 1 ? polygons[0] : gf.createMultiPolygon(polygons);
+		}
+
+		//the set corners of the square with its bottom left corner at the centre of cell (i, j)
+		private int corners(int i, int j) {
+			return (get(i, j) ? 1 : 0) | (get(i + 1, j) ? 2 : 0) | (get(i + 1, j + 1) ? 4 : 0) | (get(i, j + 1) ? 8 : 0);
+		}
+
+		private boolean isVisited(long[] visited, int i, int j, int side) {
+			long index = ((long) j * width + i) * 4 + side;
+			return (visited[(int) (index >>> 6)] & 1L << index) != 0;
+		}
+
+		private void setVisited(long[] visited, int i, int j, int side) {
+			long index = ((long) j * width + i) * 4 + side;
+			visited[(int) (index >>> 6)] |= 1L << index;
+		}
+
+		/**
+		 * Follows an outline from square to square until it is back where it
+		 * started. Points are kept in half cell units while tracing, so
+		 * points along a straight run can be dropped exactly.
+		 */
+		private Coordinate[] ring(long[] visited, int startI, int startJ, int startEntry) {
+			List<Coordinate> points = new ArrayList<Coordinate>();
+			int i = startI;
+			int j = startJ;
+			int entry = startEntry;
+			int lastX = 0;
+			int lastY = 0;
+			int lastDX = 0;
+			int lastDY = 0;
+			do {
+				setVisited(visited, i, j, entry);
+				//the midpoint of the entry side, in half cells from the centre of cell (0, 0)
+				int x = 2 * i + (entry == BOTTOM || entry == TOP ? 1 : entry == RIGHT ? 2 : 0);
+				int y = 2 * j + (entry == LEFT || entry == RIGHT ? 1 : entry == TOP ? 2 : 0);
+				int dx = Integer.signum(x - lastX);
+				int dy = Integer.signum(y - lastY);
+				if (!points.isEmpty() && dx == lastDX && dy == lastDY) {
+					points.remove(points.size() - 1);
+				}
+				points.add(new Coordinate(minX + (x / 2.0 + 0.5) * cell, minY + (y / 2.0 + 0.5) * cell));
+				lastX = x;
+				lastY = y;
+				lastDX = dx;
+				lastDY = dy;
+
+				int exit = EXIT[corners(i, j)][entry];
+				if (exit == BOTTOM) {
+					j--;
+					entry = TOP;
+				} else if (exit == RIGHT) {
+					i++;
+					entry = LEFT;
+				} else if (exit == TOP) {
+					j++;
+					entry = BOTTOM;
+				} else {
+					i--;
+					entry = RIGHT;
+				}
+			} while (i != startI || j != startJ || entry != startEntry);
+			points.add(new Coordinate(points.get(0)));
+			return points.toArray(new Coordinate[points.size()]);
+		}
+	}
+}
@@ -0,0 +1,10 @@
+package com.nearbit.common.isochrones;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class IsochronesSnap {
+	public int edgeID = -1; //the id of the nearest edge in IsochronesGraph
+	public double distance = 0.0; //from the query location to the snapped location
+	public double offset = 0.0; //along the edge, from its from node to the snapped location
+	public Coordinate coordinate = new Coordinate(); //the snapped location on the edge
+}
@@ -0,0 +1,154 @@
+package com.nearbit.common.isochrones;
+
+/*
+ * Copyright (C) 2016 Benny Chen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.strtree.ItemBoundable;
+import com.vividsolutions.jts.index.strtree.ItemDistance;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * A spatial index over the edges of an {@link IsochronesGraph}, used to snap
+ * a location to its nearest edge. The index only holds edge ids and
+ * envelopes; distances are measured against the edge coordinate arrays of the
+ * graph, and the tree is searched nearest first (branch and bound) instead of
+ * scanning every edge in a search envelope.
+ *
+ * @author  Benny Chen
+ */
+public class IsochronesSnapIndex {
+
+	private final IsochronesGraph graph;
+	private final STRtree index;
+
+	private final ItemDistance edgeDistance = new ItemDistance() {
+		@Override
+		public double distance(ItemBoundable item1, ItemBoundable item2) {
+			//one side is the query location, the other an edge id
+			if (item1.getItem() instanceof Coordinate) {
+				return distanceToEdge((Coordinate) item1.getItem(), (Integer) item2.getItem());
+			}
+			return distanceToEdge((Coordinate) item2.getItem(), (Integer) item1.getItem());
+		}
+	};
+
+	/**
+	 * Builds the index over all edges of a graph
+	 *
+	 * @param graph
+	 */
+	public IsochronesSnapIndex(IsochronesGraph graph) {
+		this.graph = graph;
+		this.index = new STRtree();
+		for (int edge = 0; edge < graph.getEdgeCount(); edge++) {
+			Envelope env = new Envelope();
+			for (int i = 0; i < graph.getEdgeCoordCount(edge); i++) {
+				env.expandToInclude(graph.getEdgeCoordX(edge, i), graph.getEdgeCoordY(edge, i));
+			}
+			index.insert(env, Integer.valueOf(edge));
+		}
+		//build now, the tree is read-only afterwards and can be queried by several requests at once
+		index.build();
+	}
+
+	/**
+	 * Snaps a location to the nearest edge
+	 *
+	 * @param x
+	 * @param y
+	 * @param maxDistance
+	 *            edges further away than this are ignored
+	 * @return the snap, or null if no edge is within maxDistance
+	 */
+	public IsochronesSnap snap(double x, double y, double maxDistance) {
+
+		if (graph.getEdgeCount() == 0) {
+			return null;
+		}
+
+		Coordinate pt = new Coordinate(x, y);
+		Integer edge = (Integer) index.nearestNeighbour(new Envelope(pt), pt, edgeDistance);
+		if (edge == null) {
+			return null;
+		}
+
+		//project the location onto the segments of the edge, keeping the closest one
+		double minDistSq = Double.MAX_VALUE;
+		double offset = 0;
+		double snapX = 0;
+		double snapY = 0;
+		double segmentStart = 0;
+		for (int i = 0; i + 1 < graph.getEdgeCoordCount(edge); i++) {
+			double x0 = graph.getEdgeCoordX(edge, i);
+			double y0 = graph.getEdgeCoordY(edge, i);
+			double dx = graph.getEdgeCoordX(edge, i + 1) - x0;
+			double dy = graph.getEdgeCoordY(edge, i + 1) - y0;
+			double segmentLength = Math.sqrt(dx * dx + dy * dy);
+			double t = projectionFactor(x, y, x0, y0, dx, dy);
+			double px = x0 + t * dx;
+			double py = y0 + t * dy;
+			double distSq = (px - x) * (px - x) + (py - y) * (py - y);
+			if (distSq < minDistSq) {
+				minDistSq = distSq;
+				offset = segmentStart + t * segmentLength;
+				snapX = px;
+				snapY = py;
+			}
+			segmentStart += segmentLength;
+		}
+
+		double distance = Math.sqrt(minDistSq);
+		if (distance > maxDistance) {
+			return null;
+		}
+
+		IsochronesSnap snap = new IsochronesSnap();
+		snap.edgeID = edge;
+		snap.distance = distance;
+		//segment lengths and the stored edge length may differ by rounding
+		snap.offset = Math.min(offset, graph.getEdgeLength(edge));
+		snap.coordinate = new Coordinate(snapX, snapY);
+		return snap;
+	}
+
+	private double distanceToEdge(Coordinate pt, int edge) {
+		double minDistSq = Double.MAX_VALUE;
+		for (int i = 0; i + 1 < graph.getEdgeCoordCount(edge); i++) {
+			double x0 = graph.getEdgeCoordX(edge, i);
+			double y0 = graph.getEdgeCoordY(edge, i);
+			double dx = graph.getEdgeCoordX(edge, i + 1) - x0;
+			double dy = graph.getEdgeCoordY(edge, i + 1) - y0;
+			double t = projectionFactor(pt.x, pt.y, x0, y0, dx, dy);
+			double px = x0 + t * dx - pt.x;
+			double py = y0 + t * dy - pt.y;
+			minDistSq = Math.min(minDistSq, px * px + py * py);
+		}
+		return Math.sqrt(minDistSq);
+	}
+
+	//the position of the projection of (x,y) on a segment, clamped to [0,1]
+	private static double projectionFactor(double x, double y, double x0, double y0, double dx, double dy) {
+		double lenSq = dx * dx + dy * dy;
+		if (lenSq == 0) {
+			return 0;
+		}
+		double t = ((x - x0) * dx + (y - y0) * dy) / lenSq;
+		return t < 0 ? 0 : (t > 1 ? 1 : t);
+	}
+}
@@ -0,0 +1,301 @@
+package com.nearbit.common.isochrones;
+
+/*
+ * Copyright (C) 2016 Benny Chen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.geotools.geometry.jts.JTS;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.opengis.referencing.operation.MathTransform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nearbit.common.AppConfig;
+import com.nearbit.common.CRSRegistry;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Caches the network of layers that are not resident in fixed-size tiles, so
+ * requests in the same area do not read the network source again. The layer
+ * is cut into isochronesTILE_SIZE degree tiles, each holding the projected
+ * lines intersecting it; a request loads the tiles covering its region, the
+ * missing ones with a single read, and stitches them into one
+ * graph. Tiles are evicted least recently used first once they take more than
+ * isochronesTILE_CACHE_MB, 0 disables the cache.
+ *
+ * @author  Benny Chen
+ */
+public class IsochronesTileCache {
+
+	static final Logger LOGGER = LoggerFactory.getLogger(IsochronesTileCache.class);
+
+	//in access order, so the first entry is the least recently used tile
+	private static final Map<String, Tile> tiles = new LinkedHashMap<String, Tile>(256, 0.75f, true);
+
+	//guarded by tiles
+	private static long cachedBytes = 0;
+	private static long hitCount = 0;
+	private static long missCount = 0;
+	private static long evictionCount = 0;
+
+	private IsochronesTileCache() {
+	}
+
+	/**
+	 * @return true unless isochronesTILE_CACHE_MB is 0
+	 */
+	public static boolean isEnabled() {
+		return budget() > 0;
+	}
+
+	/**
+	 * Builds the graph of the network in a region from cached tiles, loading
+	 * the tiles that are not cached yet. The graph covers every tile the region
+	 * touches, so it is a superset of what
+	 * {@link IsochronesGraphStore#loadGraph(IsochronesNetworkSource, String, Geometry, String)}
+	 * would load, which is used instead if the cache is disabled.
+	 *
+	 * @param source
+	 *            where the network is read from
+	 * @param layerName
+	 *            the name of the network layer, tiles are cached per layer and projection zone
+	 * @param regionGeo
+	 *            the region, in EPSG:4326 like the network lines
+	 * @param epsgCode
+	 *            the projected crs of the graph
+	 * @param performanceStats
+	 *            receives the tile hits and misses of the request, may be null
+	 * @return the graph
+	 * @throws Exception
+	 */
+	public static IsochronesGraph loadGraph(IsochronesNetworkSource source, String layerName, Geometry regionGeo,
+			String epsgCode, JSONObject performanceStats) throws Exception {
+
+		if (!isEnabled()) {
+			return IsochronesGraphStore.loadGraph(source, layerName, regionGeo, epsgCode);
+		}
+
+		double tileSize = Double.parseDouble(AppConfig.getString("isochronesTILE_SIZE"));
+		Envelope region = regionGeo.getEnvelopeInternal();
+		int minX = (int) Math.floor(region.getMinX() / tileSize);
+		int minY = (int) Math.floor(region.getMinY() / tileSize);
+		int maxX = (int) Math.floor(region.getMaxX() / tileSize);
+		int maxY = (int) Math.floor(region.getMaxY() / tileSize);
+
+		List<Tile> found = new ArrayList<Tile>();
+		List<int[]> missing = new ArrayList<int[]>();
+		synchronized (tiles) {
+			for (int tx = minX; tx <= maxX; tx++) {
+				for (int ty = minY; ty <= maxY; ty++) {
+					Tile tile = tiles.get(key(layerName, epsgCode, tx, ty));
+					if (tile != null) {
+						found.add(tile);
+					} else {
+						missing.add(new int[] { tx, ty });
+					}
+				}
+			}
+			hitCount += found.size();
+			missCount += missing.size();
+		}
+		if (performanceStats != null) {
+			performanceStats.put("num_tile_hit", found.size());
+			performanceStats.put("num_tile_miss", missing.size());
+		}
+		if (!missing.isEmpty()) {
+			found.addAll(loadTiles(source, layerName, epsgCode, tileSize, missing));
+		}
+
+		//a line crossing a tile border is held by every tile it touches, add it once
+		IsochronesGraphBuilder builder = new IsochronesGraphBuilder(epsgCode);
+		Set<String> added = new HashSet<String>();
+		for (Tile tile : found) {
+			for (int i = 0; i < tile.ids.length; i++) {
+				if (added.add(tile.ids[i])) {
+					builder.addLine(tile.getLine(i));
+				}
+			}
+		}
+		if (IsochronesGraphStore.isChainCompression()) {
+			builder.compressChains();
+		}
+		builder.sortNodes();
+		return builder.build();
+	}
+
+	/**
+	 * @return the size of the cache and its hits, misses and evictions since the start
+	 * @throws JSONException
+	 */
+	public static JSONObject getStats() throws JSONException {
+		JSONObject stats = new JSONObject();
+		synchronized (tiles) {
+			long requested = hitCount + missCount;
+			stats.put("tiles", tiles.size());
+			stats.put("bytes", cachedBytes);
+			stats.put("budgetbytes", budget());
+			stats.put("hits", hitCount);
+			stats.put("misses", missCount);
+			stats.put("evictions", evictionCount);
+			stats.put("hitrate", requested > 0 ? (double) hitCount / requested : 0);
+		}
+		return stats;
+	}
+
+	/**
+	 * Reads the lines of the missing tiles at once, cuts them into tiles,
+	 * and caches those
+	 */
+	private static List<Tile> loadTiles(IsochronesNetworkSource source, String layerName, String epsgCode,
+			double tileSize, List<int[]> missing) throws Exception {
+
+		Envelope missingEnv = new Envelope();
+		final Map<String, TileBuilder> builders = new HashMap<String, TileBuilder>();
+		for (int[] t : missing) {
+			missingEnv.expandToInclude(new Envelope(t[0] * tileSize, (t[0] + 1) * tileSize, t[1] * tileSize,
+					(t[1] + 1) * tileSize));
+			builders.put(t[0] + "," + t[1], new TileBuilder());
+		}
+
+		final double size = tileSize;
+		source.readLines(layerName, JTS.toGeometry(missingEnv), new IsochronesNetworkSource.LineHandler() {
+			public void line(String id, Coordinate[] coords) {
+				//a line is kept by every missing tile its envelope touches
+				Envelope env = new Envelope();
+				for (Coordinate coord : coords) {
+					env.expandToInclude(coord);
+				}
+				for (int tx = (int) Math.floor(env.getMinX() / size); tx <= (int) Math.floor(env.getMaxX() / size); tx++) {
+					for (int ty = (int) Math.floor(env.getMinY() / size); ty <= (int) Math.floor(env.getMaxY() / size); ty++) {
+						TileBuilder builder = builders.get(tx + "," + ty);
+						if (builder != null) {
+							builder.add(id, coords);
+						}
+					}
+				}
+			}
+		});
+
+		MathTransform transform = CRSRegistry.getTransform(CRSRegistry.GEO_CODE, epsgCode);
+		List<Tile> loaded = new ArrayList<Tile>();
+		for (int[] t : missing) {
+			loaded.add(builders.get(t[0] + "," + t[1]).build(transform));
+		}
+
+		LOGGER.info("==== loaded {} tiles of {} for {}", new Object[] { missing.size(), layerName, epsgCode });
+
+		synchronized (tiles) {
+			for (int i = 0; i < missing.size(); i++) {
+				Tile old = tiles.put(key(layerName, epsgCode, missing.get(i)[0], missing.get(i)[1]), loaded.get(i));
+				//another request may have loaded the same tile meanwhile
+				cachedBytes += loaded.get(i).bytes - (old != null ? old.bytes : 0);
+			}
+			//tiles of this request may be evicted too if it needs more than the budget, the graph is built from the references held here
+			long budget = budget();
+			Iterator<Tile> lru = tiles.values().iterator();
+			while (cachedBytes > budget && lru.hasNext()) {
+				cachedBytes -= lru.next().bytes;
+				lru.remove();
+				evictionCount++;
+			}
+		}
+		return loaded;
+	}
+
+	private static long budget() {
+		return (long) (Double.parseDouble(AppConfig.getString("isochronesTILE_CACHE_MB")) * 1024 * 1024);
+	}
+
+	private static String key(String layerName, String epsgCode, int tx, int ty) {
+		return layerName + "|" + epsgCode + "|" + tx + "|" + ty;
+	}
+
+	/**
+	 * The projected lines intersecting a tile
+	 */
+	private static final class Tile {
+
+		//the id the source gave each line
+		final String[] ids;
+		//coordinates of line n are stored in [offset[n], offset[n+1]) of coords (x,y interleaved)
+		final int[] offset;
+		final double[] coords;
+		final long bytes;
+
+		Tile(String[] ids, int[] offset, double[] coords) {
+			this.ids = ids;
+			this.offset = offset;
+			this.coords = coords;
+			long size = 64 + offset.length * 4L + coords.length * 8L;
+			for (String id : ids) {
+				size += 48 + id.length() * 2L;
+			}
+			this.bytes = size;
+		}
+
+		Coordinate[] getLine(int line) {
+			Coordinate[] points = new Coordinate[offset[line + 1] - offset[line]];
+			for (int i = 0; i < points.length; i++) {
+				points[i] = new Coordinate(coords[(offset[line] + i) * 2], coords[(offset[line] + i) * 2 + 1]);
+			}
+			return points;
+		}
+	}
+
+	private static final class TileBuilder {
+
+		final List<String> ids = new ArrayList<String>();
+		int[] offset = new int[] { 0 };
+		double[] coords = new double[256];
+		int coordCount = 0;
+
+		void add(String id, Coordinate[] line) {
+			if (coords.length < (coordCount + line.length) * 2) {
+				coords = Arrays.copyOf(coords, Math.max(coords.length * 2, (coordCount + line.length) * 2));
+			}
+			for (int i = 0; i < line.length; i++) {
+				coords[(coordCount + i) * 2] = line[i].x;
+				coords[(coordCount + i) * 2 + 1] = line[i].y;
+			}
+			coordCount += line.length;
+			ids.add(id);
+			if (offset.length == ids.size()) {
+				offset = Arrays.copyOf(offset, offset.length * 2 + 1);
+			}
+			offset[ids.size()] = coordCount;
+		}
+
+		//projects the coordinates in bulk, a coordinate shared by two tiles projects to the same point in both
+		Tile build(MathTransform transform) throws Exception {
+			double[] projected = Arrays.copyOf(coords, coordCount * 2);
+			transform.transform(projected, 0, projected, 0, coordCount);
+			return new Tile(ids.toArray(new String[ids.size()]), Arrays.copyOf(offset, ids.size() + 1), projected);
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package com.nearbit.common.isochrones;
+
+/*
+ * Copyright (C) 2016 Benny Chen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import jsr166y.ForkJoinPool;
+import jsr166y.RecursiveTask;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.operation.union.CascadedPolygonUnion;
+
+/**
+ * Buffers the reached edges and unions the buffers into the polygon of the
+ * "high" detail level on a ForkJoinPool, reusing the buffers that are
+ * known already. The edges are partitioned
+ * spatially like a k-d tree, splitting the envelope of a part across its
+ * longer side at the median, so each part covers a compact area; small parts
+ * are buffered and unioned with a cascaded union on one thread, and the
+ * unions of two neighbouring parts are merged on the way back up. Parts
+ * next to each other overlap little with the rest, so the merges stay cheap,
+ * and the result is the same polygon as the union of all buffers at once.
+ *
+ * @author  Benny Chen
+ */
+public class IsochronesUnion {
+
+	//parts with fewer edges are buffered and unioned on the current thread
+	private static final int SPLIT_THRESHOLD = 128;
+
+	private IsochronesUnion() {
+	}
+
+	/**
+	 * Buffers and unions the edges on the pool the parallel searches use
+	 *
+	 * @see #bufferUnion(ForkJoinPool, Geometry[], Geometry[], double)
+	 */
+	public static Geometry bufferUnion(Geometry[] edges, Geometry[] edgeBuffers, double bufSize) {
+		return bufferUnion(IsochronesDeltaStepping.getPool(), edges, edgeBuffers, bufSize);
+	}
+
+	/**
+	 * Buffers every edge and unions the buffers
+	 *
+	 * @see #bufferUnion(ForkJoinPool, Geometry[], Geometry[], double)
+	 */
+	public static Geometry bufferUnion(ForkJoinPool pool, Geometry[] edges, double bufSize) {
+		return bufferUnion(pool, edges, new Geometry[edges.length], bufSize);
+	}
+
+	/**
+	 * Buffers the edges that have no buffer yet and unions all buffers
+	 *
+	 * @param pool
+	 *            the pool the parts are buffered and merged on
+	 * @param edges
+	 *            the edge geometries, at least one
+	 * @param edgeBuffers
+	 *            the buffers known already, e.g. cached ones, null for the
+	 *            others; receives the buffers computed here
+	 * @param bufSize
+	 *            the buffer distance
+	 * @return the union of the buffers
+	 */
+	public static Geometry bufferUnion(ForkJoinPool pool, Geometry[] edges, Geometry[] edgeBuffers, double bufSize) {
+		Item[] items = new Item[edges.length];
+		for (int i = 0; i < edges.length; i++) {
+			items[i] = new Item(edges[i], edgeBuffers[i]);
+		}
+		Part part = new Part(items, 0, items.length, bufSize);
+		Geometry union = items.length <= SPLIT_THRESHOLD ? part.compute() : pool.invoke(part);
+		//the parts have been joined, so their writes are visible here
+		for (int i = 0; i < edges.length; i++) {
+			edgeBuffers[i] = items[i].buffer;
+		}
+		return union;
+	}
+
+	/**
+	 * An edge and its buffer, once known
+	 */
+	private static final class Item {
+
+		final Geometry edge;
+		Geometry buffer;
+
+		Item(Geometry edge, Geometry buffer) {
+			this.edge = edge;
+			this.buffer = buffer;
+		}
+	}
+
+	/**
+	 * The union of the buffers of a range of the items
+	 */
+	static class Part extends RecursiveTask<Geometry> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Item[] items;
+		private final int from;
+		private final int to;
+		private final double bufSize;
+
+		Part(Item[] items, int from, int to, double bufSize) {
+			this.items = items;
+			this.from = from;
+			this.to = to;
+			this.bufSize = bufSize;
+		}
+
+		@Override
+		protected Geometry compute() {
+			if (to - from <= SPLIT_THRESHOLD) {
+				List<Geometry> buffers = new ArrayList<Geometry>(to - from);
+				for (int i = from; i < to; i++) {
+					if (items[i].buffer == null) {
+						items[i].buffer = items[i].edge.buffer(bufSize);
+					}
+					buffers.add(items[i].buffer);
+				}
+				Geometry union = CascadedPolygonUnion.union(buffers);
+				//an empty range only comes from empty input
+				return union != null ? union : new GeometryFactory().createGeometryCollection(null);
+			}
+
+			Envelope env = new Envelope();
+			for (int i = from; i < to; i++) {
+				env.expandToInclude(items[i].edge.getEnvelopeInternal());
+			}
+			//a sorted copy, the items passed in stay in the order of the edges
+			Item[] sorted = Arrays.copyOfRange(items, from, to);
+			Arrays.sort(sorted, env.getWidth() >= env.getHeight() ? BY_CENTRE_X : BY_CENTRE_Y);
+
+			int mid = sorted.length >>> 1;
+			Part right = new Part(sorted, mid, sorted.length, bufSize);
+			right.fork();
+			Geometry left = new Part(sorted, 0, mid, bufSize).compute();
+			return left.union(right.join());
+		}
+	}
+
+	private static final Comparator<Item> BY_CENTRE_X = new Comparator<Item>() {
+		public int compare(Item a, Item b) {
+			Envelope ea = a.edge.getEnvelopeInternal();
+			Envelope eb = b.edge.getEnvelopeInternal();
+			return Double.compare(ea.getMinX() + ea.getMaxX(), eb.getMinX() + eb.getMaxX());
+		}
+	};
+
+	private static final Comparator<Item> BY_CENTRE_Y = new Comparator<Item>() {
+		public int compare(Item a, Item b) {
+			Envelope ea = a.edge.getEnvelopeInternal();
+			Envelope eb = b.edge.getEnvelopeInternal();
+			return Double.compare(ea.getMinY() + ea.getMaxY(), eb.getMinY() + eb.getMaxY());
+		}
+	};
+}
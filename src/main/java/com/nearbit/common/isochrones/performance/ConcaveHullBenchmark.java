@@ -0,0 +1,68 @@
+package com.nearbit.common.isochrones.performance;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.opensphere.geometry.algorithm.ConcaveHull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Times {@link ConcaveHull} on 1k, 10k and 100k random points in a disc of
+ * radius 10 km, the spread of the reached nodes of a large isochrone. The
+ * threshold is a multiple of the mean point spacing, so the hull erodes into
+ * the disc about as far at every size. Allocation is best watched with
+ * -verbose:gc next to the times.
+ *
+ * Usage: ConcaveHullBenchmark [sizes=1000,10000,100000] [spacings=3] [runs=5]
+ */
+public class ConcaveHullBenchmark {
+
+	static final Logger LOGGER = LoggerFactory.getLogger(ConcaveHullBenchmark.class);
+
+	public static void main(String[] args) throws Exception {
+
+		String[] sizes = (args.length > 0 ? args[0] : "1000,10000,100000").split(",");
+		double spacings = args.length > 1 ? Double.parseDouble(args[1]) : 3;
+		int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		GeometryFactory gf = new GeometryFactory();
+		double radius = 10000;
+		for (String size : sizes) {
+			int n = Integer.parseInt(size.trim());
+			Random random = new Random(n);
+			Coordinate[] coords = new Coordinate[n];
+			for (int i = 0; i < n; i++) {
+				double angle = random.nextDouble() * 2 * Math.PI;
+				double r = Math.sqrt(random.nextDouble()) * radius;
+				coords[i] = new Coordinate(r * Math.cos(angle), r * Math.sin(angle));
+			}
+			Geometry points = gf.createMultiPoint(coords);
+			double threshold = spacings * radius * Math.sqrt(Math.PI / n);
+
+			long[] times = new long[runs];
+			Geometry hull = null;
+			for (int r = -1; r < runs; r++) {
+				long t1 = System.nanoTime();
+				hull = new ConcaveHull(points, threshold).getConcaveHull();
+				long t2 = System.nanoTime();
+				//the first run only warms up
+				if (r >= 0) {
+					times[r] = t2 - t1;
+				}
+			}
+			LOGGER.info("==== {} points, threshold {}: concave hull {} ms, {} hull points", new Object[] { n, threshold,
+					median(times) / 1e6, hull.getNumPoints() });
+		}
+	}
+
+	private static double median(long[] times) {
+		long[] sorted = Arrays.copyOf(times, times.length);
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
@@ -0,0 +1,138 @@
+package com.nearbit.common.isochrones.performance;
+
+import java.util.Arrays;
+
+import jsr166y.ForkJoinPool;
+
+import org.geotools.geometry.jts.JTS;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.opengis.referencing.operation.MathTransform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nearbit.common.AppConfig;
+import com.nearbit.common.CRSRegistry;
+import com.nearbit.common.isochrones.IsochronesDeltaStepping;
+import com.nearbit.common.isochrones.IsochronesDijkstra;
+import com.nearbit.common.isochrones.IsochronesGraph;
+import com.nearbit.common.isochrones.IsochronesGraphStore;
+import com.nearbit.common.isochrones.IsochronesLabels;
+import com.nearbit.common.isochrones.IsochronesPHAST;
+import com.nearbit.common.isochrones.IsochronesSnap;
+import com.nearbit.dev.api.isochrones.PositionChecker;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * Compares the sequential Dijkstra search with the PHAST search, if the layer
+ * has a contraction hierarchy, and with the delta-stepping search on 1, 2, 4
+ * ... available cores, for seed points of the Melbourne test pool on a
+ * resident network layer.
+ *
+ * Usage: DeltaSteppingBenchmark [traveltype=drive] [radius=200000] [seeds=5] [runs=5]
+ */
+public class DeltaSteppingBenchmark {
+
+	static final Logger LOGGER = LoggerFactory.getLogger(DeltaSteppingBenchmark.class);
+
+	public static void main(String[] args) throws Exception {
+
+		String traveltype = args.length > 0 ? args[0] : "drive";
+		double radius = args.length > 1 ? Double.parseDouble(args[1]) : 200000;
+		int seeds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		int runs = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+		System.setProperty("org.geotools.referencing.forceXY", "true");
+		AppConfig.loadConfig();
+		PositionChecker.init();
+		CRSRegistry.init();
+		IsochronesGraphStore.init();
+
+		String layerName = AppConfig.getString("constantLAYERNAME_OSM_NETWORK_" + traveltype);
+		GeometryFactory gf = new GeometryFactory();
+		JSONArray points = new TestingController().getRandomNPoints(seeds);
+
+		for (int i = 0; i < points.length(); i++) {
+			JSONObject p = points.getJSONObject(i);
+			Point seedGeo = gf.createPoint(new Coordinate(p.getDouble("lng"), p.getDouble("lat")));
+			String epsgCode = PositionChecker.getEPSGCode(seedGeo);
+			IsochronesGraph graph = IsochronesGraphStore.getGraph(layerName, epsgCode);
+			if (graph == null) {
+				LOGGER.error("=== {} is not resident for {}, enable isochronesGRAPH_PRELOAD", layerName, epsgCode);
+				return;
+			}
+
+			MathTransform toPrj = CRSRegistry.getTransform(CRSRegistry.GEO_CODE, epsgCode);
+			Point seedPrj = (Point) JTS.transform(seedGeo, toPrj);
+			//the end of the nearest edge that is closer to the seed, like Isochrones starts a search from a node
+			IsochronesSnap snap = graph.getSnapIndex().snap(seedPrj.getX(), seedPrj.getY(), 1000);
+			if (snap == null) {
+				LOGGER.error("=== no edge near seed {}", p.toString());
+				continue;
+			}
+			int startNode = snap.offset <= graph.getEdgeLength(snap.edgeID) / 2 ? graph.getEdgeFrom(snap.edgeID)
+					: graph.getEdgeTo(snap.edgeID);
+			int[] sources = new int[] { startNode };
+			double[] sourceDistances = new double[] { 0.0 };
+
+			long[] times = new long[runs];
+			int settled = 0;
+			for (int r = -1; r < runs; r++) {
+				long t1 = System.nanoTime();
+				IsochronesLabels labels = IsochronesDijkstra.search(graph, sources, sourceDistances, radius);
+				long t2 = System.nanoTime();
+				settled = labels.getSettledCount();
+				labels.release();
+				//the first run only warms up
+				if (r >= 0) {
+					times[r] = t2 - t1;
+				}
+			}
+			double dijkstraMs = median(times) / 1e6;
+			LOGGER.info("==== seed {}: {} nodes settled, dijkstra {} ms", new Object[] { p.toString(), settled, dijkstraMs });
+
+			if (graph.getHierarchy() != null) {
+				for (int r = -1; r < runs; r++) {
+					long t1 = System.nanoTime();
+					IsochronesLabels labels = IsochronesPHAST.search(graph, sources, sourceDistances, radius);
+					long t2 = System.nanoTime();
+					labels.release();
+					if (r >= 0) {
+						times[r] = t2 - t1;
+					}
+				}
+				double phastMs = median(times) / 1e6;
+				LOGGER.info("==== phast {} ms, speedup {}", phastMs, dijkstraMs / phastMs);
+			}
+
+			for (int cores = 1; cores <= Runtime.getRuntime().availableProcessors(); cores *= 2) {
+				ForkJoinPool pool = new ForkJoinPool(cores);
+				try {
+					for (int r = -1; r < runs; r++) {
+						long t1 = System.nanoTime();
+						IsochronesLabels labels = IsochronesDeltaStepping.search(pool, graph, sources, sourceDistances, radius,
+								graph.getMeanEdgeLength());
+						long t2 = System.nanoTime();
+						labels.release();
+						if (r >= 0) {
+							times[r] = t2 - t1;
+						}
+					}
+				} finally {
+					pool.shutdown();
+				}
+				double deltaSteppingMs = median(times) / 1e6;
+				LOGGER.info("==== {} cores: delta-stepping {} ms, speedup {}", new Object[] { cores, deltaSteppingMs,
+						dijkstraMs / deltaSteppingMs });
+			}
+		}
+	}
+
+	private static double median(long[] times) {
+		long[] sorted = Arrays.copyOf(times, times.length);
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
@@ -0,0 +1,163 @@
+package com.nearbit.common.isochrones.performance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.geotools.geometry.jts.JTS;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.opengis.referencing.operation.MathTransform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nearbit.common.AppConfig;
+import com.nearbit.common.CRSRegistry;
+import com.nearbit.common.isochrones.IsochronesDijkstra;
+import com.nearbit.common.isochrones.IsochronesGraph;
+import com.nearbit.common.isochrones.IsochronesGraphBuilder;
+import com.nearbit.common.isochrones.IsochronesLabels;
+import com.nearbit.common.isochrones.IsochronesNetworkSource;
+import com.nearbit.common.isochrones.IsochronesNetworkSources;
+import com.nearbit.common.isochrones.IsochronesSnap;
+import com.nearbit.dev.api.isochrones.PositionChecker;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * Compares the Dijkstra search on the Melbourne network with the nodes in the
+ * order of the network source and laid out along a Hilbert curve, for seed
+ * points of the Melbourne test pool. The network around the seeds is read
+ * once and built into both graphs, the same way IsochronesGraphStore builds
+ * one apart from the order.
+ *
+ * Cache miss rates are not visible from Java, run a single order under perf to
+ * get them, e.g. perf stat -e L1-dcache-load-misses,LLC-load-misses java ...
+ * HilbertOrderBenchmark drive 20000 10 20 hilbert
+ *
+ * Usage: HilbertOrderBenchmark [traveltype=drive] [radius=20000] [seeds=10] [runs=10] [order=both|source|hilbert]
+ */
+public class HilbertOrderBenchmark {
+
+	static final Logger LOGGER = LoggerFactory.getLogger(HilbertOrderBenchmark.class);
+
+	public static void main(String[] args) throws Exception {
+
+		String traveltype = args.length > 0 ? args[0] : "drive";
+		double radius = args.length > 1 ? Double.parseDouble(args[1]) : 20000;
+		int seeds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		int runs = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+		String order = args.length > 4 ? args[4] : "both";
+
+		System.setProperty("org.geotools.referencing.forceXY", "true");
+		AppConfig.loadConfig();
+		PositionChecker.init();
+		CRSRegistry.init();
+
+		String layerName = AppConfig.getString("constantLAYERNAME_OSM_NETWORK_" + traveltype);
+		GeometryFactory gf = new GeometryFactory();
+		JSONArray points = new TestingController().getRandomNPoints(seeds);
+
+		//the test pool lies in one projection zone
+		List<Point> seedsGeo = new ArrayList<Point>();
+		for (int i = 0; i < points.length(); i++) {
+			JSONObject p = points.getJSONObject(i);
+			seedsGeo.add(gf.createPoint(new Coordinate(p.getDouble("lng"), p.getDouble("lat"))));
+		}
+		String epsgCode = PositionChecker.getEPSGCode(seedsGeo.get(0));
+		MathTransform toPrj = CRSRegistry.getTransform(CRSRegistry.GEO_CODE, epsgCode);
+		MathTransform toGeo = CRSRegistry.getTransform(epsgCode, CRSRegistry.GEO_CODE);
+		List<Point> seedsPrj = new ArrayList<Point>();
+		Envelope envPrj = new Envelope();
+		for (Point seedGeo : seedsGeo) {
+			Point seedPrj = (Point) JTS.transform(seedGeo, toPrj);
+			seedsPrj.add(seedPrj);
+			envPrj.expandToInclude(seedPrj.getCoordinate());
+		}
+		envPrj.expandBy(radius);
+		Geometry regionGeo = JTS.transform(JTS.toGeometry(envPrj), toGeo).getEnvelope();
+
+		final IsochronesGraphBuilder sourceBuilder = new IsochronesGraphBuilder(epsgCode);
+		final IsochronesGraphBuilder hilbertBuilder = new IsochronesGraphBuilder(epsgCode);
+		IsochronesNetworkSource source = IsochronesNetworkSources.open();
+		try {
+			source.readLines(layerName, regionGeo, new IsochronesNetworkSource.LineHandler() {
+				public void line(String id, Coordinate[] coords) {
+					sourceBuilder.addLine(coords);
+					hilbertBuilder.addLine(coords);
+				}
+			});
+		} finally {
+			source.dispose();
+		}
+		boolean compress = AppConfig.getString("isochronesCOMPRESS_CHAINS").equalsIgnoreCase("true");
+		for (IsochronesGraphBuilder builder : new IsochronesGraphBuilder[] { sourceBuilder, hilbertBuilder }) {
+			builder.transform(toPrj);
+			if (compress) {
+				builder.compressChains();
+			}
+		}
+		hilbertBuilder.sortNodes();
+
+		List<String> names = new ArrayList<String>();
+		List<IsochronesGraph> graphs = new ArrayList<IsochronesGraph>();
+		if (!order.equals("hilbert")) {
+			names.add("source");
+			graphs.add(sourceBuilder.build());
+		}
+		if (!order.equals("source")) {
+			names.add("hilbert");
+			graphs.add(hilbertBuilder.build());
+		}
+		LOGGER.info("==== {} for {}: {} nodes, {} edges", new Object[] { layerName, epsgCode, graphs.get(0).getNodeCount(),
+				graphs.get(0).getEdgeCount() });
+
+		double[] totalMs = new double[graphs.size()];
+		for (int i = 0; i < seedsPrj.size(); i++) {
+			Point seedPrj = seedsPrj.get(i);
+			for (int g = 0; g < graphs.size(); g++) {
+				IsochronesGraph graph = graphs.get(g);
+				IsochronesSnap snap = graph.getSnapIndex().snap(seedPrj.getX(), seedPrj.getY(), 1000);
+				if (snap == null) {
+					LOGGER.error("=== no edge near seed {}", points.getJSONObject(i).toString());
+					break;
+				}
+				IsochronesSnap[] snaps = new IsochronesSnap[] { snap };
+
+				long[] times = new long[runs];
+				int settled = 0;
+				for (int r = -1; r < runs; r++) {
+					long t1 = System.nanoTime();
+					IsochronesLabels labels = IsochronesDijkstra.search(graph, snaps, radius);
+					long t2 = System.nanoTime();
+					settled = labels.getSettledCount();
+					labels.release();
+					//the first run only warms up
+					if (r >= 0) {
+						times[r] = t2 - t1;
+					}
+				}
+				double ms = median(times) / 1e6;
+				totalMs[g] += ms;
+				LOGGER.info("==== seed {}: {} order, {} nodes settled, dijkstra {} ms", new Object[] {
+						points.getJSONObject(i).toString(), names.get(g), settled, ms });
+			}
+		}
+
+		for (int g = 0; g < graphs.size(); g++) {
+			LOGGER.info("==== {} order: {} ms over all seeds", names.get(g), totalMs[g]);
+		}
+		if (graphs.size() == 2) {
+			LOGGER.info("==== speedup {}", totalMs[0] / totalMs[1]);
+		}
+	}
+
+	private static double median(long[] times) {
+		long[] sorted = Arrays.copyOf(times, times.length);
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
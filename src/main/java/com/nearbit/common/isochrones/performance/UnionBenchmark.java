@@ -0,0 +1,147 @@
+package com.nearbit.common.isochrones.performance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jsr166y.ForkJoinPool;
+
+import org.geotools.geometry.jts.JTS;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.opengis.referencing.operation.MathTransform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nearbit.common.AppConfig;
+import com.nearbit.common.CRSRegistry;
+import com.nearbit.common.isochrones.IsochronesDijkstra;
+import com.nearbit.common.isochrones.IsochronesGraph;
+import com.nearbit.common.isochrones.IsochronesGraphStore;
+import com.nearbit.common.isochrones.IsochronesLabels;
+import com.nearbit.common.isochrones.IsochronesSnap;
+import com.nearbit.common.isochrones.IsochronesUnion;
+import com.nearbit.dev.api.isochrones.PositionChecker;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * Compares the union of the edge buffers of the "high" detail level, done
+ * on one thread over all buffers at once as before, with
+ * {@link IsochronesUnion} on 1, 2, 4 ... available cores, for seed points of
+ * the Melbourne test pool on a resident network layer. The edges are those
+ * with both ends within the radius of the seed, and the difference of the
+ * polygons is reported next to the times.
+ *
+ * Usage: UnionBenchmark [traveltype=walk] [radius=2000] [bufsize=50] [seeds=5] [runs=3]
+ */
+public class UnionBenchmark {
+
+	static final Logger LOGGER = LoggerFactory.getLogger(UnionBenchmark.class);
+
+	public static void main(String[] args) throws Exception {
+
+		String traveltype = args.length > 0 ? args[0] : "walk";
+		double radius = args.length > 1 ? Double.parseDouble(args[1]) : 2000;
+		double bufSize = args.length > 2 ? Double.parseDouble(args[2]) : 50;
+		int seeds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+		int runs = args.length > 4 ? Integer.parseInt(args[4]) : 3;
+
+		System.setProperty("org.geotools.referencing.forceXY", "true");
+		AppConfig.loadConfig();
+		PositionChecker.init();
+		CRSRegistry.init();
+		IsochronesGraphStore.init();
+
+		String layerName = AppConfig.getString("constantLAYERNAME_OSM_NETWORK_" + traveltype);
+		GeometryFactory gf = new GeometryFactory();
+		JSONArray points = new TestingController().getRandomNPoints(seeds);
+
+		for (int i = 0; i < points.length(); i++) {
+			JSONObject p = points.getJSONObject(i);
+			Point seedGeo = gf.createPoint(new Coordinate(p.getDouble("lng"), p.getDouble("lat")));
+			String epsgCode = PositionChecker.getEPSGCode(seedGeo);
+			IsochronesGraph graph = IsochronesGraphStore.getGraph(layerName, epsgCode);
+			if (graph == null) {
+				LOGGER.error("=== {} is not resident for {}, enable isochronesGRAPH_PRELOAD", layerName, epsgCode);
+				return;
+			}
+
+			MathTransform toPrj = CRSRegistry.getTransform(CRSRegistry.GEO_CODE, epsgCode);
+			Point seedPrj = (Point) JTS.transform(seedGeo, toPrj);
+			IsochronesSnap snap = graph.getSnapIndex().snap(seedPrj.getX(), seedPrj.getY(), 1000);
+			if (snap == null) {
+				LOGGER.error("=== no edge near seed {}", p.toString());
+				continue;
+			}
+			Geometry[] edges = reachedEdges(graph, snap, radius, gf);
+
+			long[] times = new long[runs];
+			Geometry sequential = null;
+			for (int r = -1; r < runs; r++) {
+				long t1 = System.nanoTime();
+				Geometry[] buffers = new Geometry[edges.length];
+				for (int e = 0; e < edges.length; e++) {
+					buffers[e] = edges[e].buffer(bufSize);
+				}
+				sequential = new GeometryCollection(buffers, gf).union();
+				long t2 = System.nanoTime();
+				//the first run only warms up
+				if (r >= 0) {
+					times[r] = t2 - t1;
+				}
+			}
+			double sequentialMs = median(times) / 1e6;
+			LOGGER.info("==== seed {}: {} edges, single union {} ms", new Object[] { p.toString(), edges.length, sequentialMs });
+
+			for (int cores = 1; cores <= Runtime.getRuntime().availableProcessors(); cores *= 2) {
+				ForkJoinPool pool = new ForkJoinPool(cores);
+				Geometry parallel = null;
+				try {
+					for (int r = -1; r < runs; r++) {
+						long t1 = System.nanoTime();
+						parallel = IsochronesUnion.bufferUnion(pool, edges, bufSize);
+						long t2 = System.nanoTime();
+						if (r >= 0) {
+							times[r] = t2 - t1;
+						}
+					}
+				} finally {
+					pool.shutdown();
+				}
+				double parallelMs = median(times) / 1e6;
+				LOGGER.info("==== {} cores: partitioned union {} ms, speedup {}, area difference {}", new Object[] { cores,
+						parallelMs, sequentialMs / parallelMs, sequential.symDifference(parallel).getArea() / sequential.getArea() });
+			}
+		}
+	}
+
+	//the whole edges within the radius, chopped edges are left out
+	private static Geometry[] reachedEdges(IsochronesGraph graph, IsochronesSnap snap, double radius, GeometryFactory gf) {
+		List<Geometry> edges = new ArrayList<Geometry>();
+		IsochronesLabels labels = IsochronesDijkstra.search(graph, new IsochronesSnap[] { snap }, radius);
+		try {
+			for (int e = 0; e < graph.getEdgeCount(); e++) {
+				if (labels.getDistance(graph.getEdgeFrom(e)) <= radius && labels.getDistance(graph.getEdgeTo(e)) <= radius) {
+					Coordinate[] coords = new Coordinate[graph.getEdgeCoordCount(e)];
+					for (int c = 0; c < coords.length; c++) {
+						coords[c] = new Coordinate(graph.getEdgeCoordX(e, c), graph.getEdgeCoordY(e, c));
+					}
+					edges.add(gf.createLineString(coords));
+				}
+			}
+		} finally {
+			labels.release();
+		}
+		return edges.toArray(new Geometry[edges.size()]);
+	}
+
+	private static double median(long[] times) {
+		long[] sorted = Arrays.copyOf(times, times.length);
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
@@ -11,6 +11,9 @@ import com.nearbit.common.*;
 import spark.servlet.*;
 import spark.*;
 
+import com.nearbit.common.isochrones.IsochronesBufferCache;
+import com.nearbit.common.isochrones.IsochronesGraphStore;
+import com.nearbit.common.isochrones.IsochronesTileCache;
 import com.nearbit.common.isochrones.performance.TestingController;
 import com.nearbit.dev.api.isochrones.PositionChecker;
 
@@ -37,6 +40,12 @@ public class App implements SparkApplication {
 		
 		//init position checker
 		PositionChecker.init();
+		
+		//decode the crs of every projection zone once, must be done after PositionChecker.init()
+		CRSRegistry.init();
+		
+		//load resident network graphs, must be done after PositionChecker.init() since graphs are kept per projection zone
+		IsochronesGraphStore.init();
 	
 		//returning version info
 		get(new Route("/stable/verinfo") {
@@ -112,6 +121,57 @@ public class App implements SparkApplication {
 	     });
 		
 		
+		//network distances between many origins and destinations, supports both get and post
+		get(new Route("/stable/matrix") {
+	        @Override
+	        public Object handle(Request request, Response response) {
+	           return runMatrix(request, response);
+	        }
+	     });
+		
+		post(new Route("/stable/matrix") {
+	        @Override
+	        public Object handle(Request request, Response response) {
+	           return runMatrix(request, response);
+	        }
+	     });
+		
+		//hits, misses and evictions of the network tile cache since the start
+		get(new Route("/stable/performance/tilecache") {
+	        @Override
+	        public Object handle(Request request, Response response) {
+	        	
+	        	JSONObject info = new JSONObject();
+	    		
+	    		try {
+	    			info.put("data", IsochronesTileCache.getStats());
+	    			info.put("status", 0);
+				} catch (JSONException e) {
+					LOGGER.error("=== failed to report the tile cache stats: {}", e.getMessage());
+				}
+	    		
+	           return info;
+	        }
+	     });
+		
+		//hits, misses and evictions of the edge buffer cache since the start
+		get(new Route("/stable/performance/buffercache") {
+	        @Override
+	        public Object handle(Request request, Response response) {
+	        	
+	        	JSONObject info = new JSONObject();
+	    		
+	    		try {
+	    			info.put("data", IsochronesBufferCache.getStats());
+	    			info.put("status", 0);
+				} catch (JSONException e) {
+					LOGGER.error("=== failed to report the buffer cache stats: {}", e.getMessage());
+				}
+	    		
+	           return info;
+	        }
+	     });
+		
 		get(new Route("/stable/performance/randomseeds") {
 	        @Override
 	        public Object handle(Request request, Response response) {
@@ -155,4 +215,29 @@ public class App implements SparkApplication {
 	        }
 	     });
 	}
+	
+	/**
+	 * Shared by the get and post /stable/matrix routes
+	 */
+	private static JSONObject runMatrix(Request request, Response response) {
+		
+		JSONObject info = new JSONObject();
+		
+		try {
+			
+			info = Controller.runMatrix(request, response);
+		} catch (Exception e) {
+			
+			LOGGER.error("=== failed to run the matrix: {}", e.getMessage());
+			try {
+				info.put("status", 1);
+				info.put("errdesc", e.getMessage());
+			} catch (JSONException e1) {
+				LOGGER.error("=== {}", e1.getMessage());
+			}
+			
+		}
+		
+		return info;
+	}
 }
\ No newline at end of file
@@ -10,8 +10,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.nearbit.common.AppConfig;
 import com.nearbit.common.GeometryUtils;
+import com.nearbit.common.isochrones.IsochronesGraphStore;
 import com.nearbit.dev.api.isochrones.PositionChecker;
 import com.nearbit.dev.api.isochrones.IsochronesGenerator;
+import com.nearbit.dev.api.isochrones.MatrixGenerator;
 import com.nearbit.dev.api.verification.VerificationManager;
 
 public class Controller {
@@ -40,6 +42,15 @@ public class Controller {
 				combotype = "composite";
 			}
 			
+			//if set mode='multisource', all seed points are merged into one isochrone for each radius value defined the radiusarr
+			//if set mode='partition', each seed point gets the part of the network closer to it than to any other seed, within the largest radius
+			String mode = "single";
+			if(request.queryParams("mode")!=null && request.queryParams("mode").equalsIgnoreCase("multisource")){
+				mode = "multisource";
+			}else if(request.queryParams("mode")!=null && request.queryParams("mode").equalsIgnoreCase("partition")){
+				mode = "partition";
+			}
+			
 			JSONArray coordarr = new JSONArray();
 			JSONArray coordarrRaw = null;
 			boolean coordsValidFlag = true;
@@ -231,9 +242,16 @@ public class Controller {
 				traveltype = request.queryParams("traveltype").toLowerCase();
 			}
 			
-			//check if any radius bigger than thresholdRadiusForSimpleTravelType, if yes, automatically apply traveltype="simple"
+			//check if any radius bigger than thresholdRadiusForSimpleTravelType, if yes, automatically apply traveltype="simple",
+			//unless the layer of the requested traveltype has a contraction hierarchy in the zone of every seed, which answers long radii quickly
 			boolean autoApplySimpleTravelType = false;
-			for(int i=0;i<radiusarr.length();i++){
+			String hierarchyLayerName = country_code_prefix+AppConfig.getString("constantLAYERNAME_OSM_NETWORK_"+traveltype);
+			boolean hasHierarchy = true;
+			for(int i=0;i<coordarrRaw.length() && hasHierarchy;i++){
+				JSONObject coord = coordarrRaw.getJSONObject(i);
+				hasHierarchy = IsochronesGraphStore.hasHierarchy(hierarchyLayerName, PositionChecker.getEPSGCode(coord.getDouble("lat"), coord.getDouble("lng")));
+			}
+			for(int i=0;i<radiusarr.length() && !hasHierarchy;i++){
 				if(radiusarr.getDouble(i) > thresholdRadiusForSimpleTravelType){
 					autoApplySimpleTravelType = true;
 					break;
@@ -267,7 +285,8 @@ public class Controller {
 				polygondetaillevel = request.queryParams("polygondetaillevel").toLowerCase();
 			}
 			
-			if(!polygondetaillevel.equalsIgnoreCase("mid") && !polygondetaillevel.equalsIgnoreCase("low") && !polygondetaillevel.equalsIgnoreCase("coarse"))
+			if(!polygondetaillevel.equalsIgnoreCase("mid") && !polygondetaillevel.equalsIgnoreCase("low") && !polygondetaillevel.equalsIgnoreCase("coarse")
+					&& !polygondetaillevel.equalsIgnoreCase("raster"))
 			{
 				polygondetaillevel = "high";
 			}
@@ -311,6 +330,7 @@ public class Controller {
 			options.put("returnpolygon", returnpolygon);
 			options.put("recperformance", recperformance);
 			options.put("combotype", combotype);
+			options.put("mode", mode);
 			options.put("format", format);
 			options.put("polygondetaillevel", polygondetaillevel);
 			options.put("concavehullthreshold", concavehullthreshold);
@@ -326,6 +346,129 @@ public class Controller {
 			return output;
 		}
 	}
+    /**
+     * Computes the network distance from each of originarr to each of destinationarr.
+     * All locations must be in the same projection zone, since a network graph covers one zone.
+     * @param request
+     * @param response
+     * @return the distance matrix, null for pairs further apart than maxdistance
+     * @throws Exception
+     */
+    static public JSONObject runMatrix(Request request, Response response) throws Exception {
+		synchronized (request.session()) {
+			
+			JSONObject output = new JSONObject();
+			JSONObject options = new JSONObject();
+			
+			JSONObject apiCheck = VerificationManager.verifyAPIAuthorisation(request, "ServiceArea");
+			if(apiCheck == null || apiCheck.getInt("status") > 0)
+			{
+				return apiCheck;
+			}
+			
+			JSONArray originarr = parseCoordArray(request.queryParams("originarr"));
+			JSONArray destinationarr = parseCoordArray(request.queryParams("destinationarr"));
+			if(originarr == null || destinationarr == null){
+				output.put("status", 1);
+				output.put("errdesc", "parameter originarr or destinationarr is missing or invalid. both are JSON arrays contain valid points coordinates. e.g. [{\"lat\":-37.0124, \"lng\":145.1244},{\"lat\":-37.1025, \"lng\":143.2288}]");
+				return output;
+			}
+			
+			int maxCells = 250000;
+			if(originarr.length() * destinationarr.length() > maxCells){
+				output.put("status", 1);
+				output.put("errdesc", "the matrix cannot have more than "+maxCells+" origin-destination pairs.");
+				return output;
+			}
+			
+			//a network graph covers one projection zone, so all locations need to be in the same one
+			String epsg_code = "";
+			String country_code = "";
+			boolean coordsValidFlag = true;
+			for(int i=0;i<originarr.length()+destinationarr.length() && coordsValidFlag;i++){
+				JSONObject coord = i<originarr.length() ? originarr.getJSONObject(i) : destinationarr.getJSONObject(i-originarr.length());
+				JSONObject zone = PositionChecker.check(coord.getDouble("lat"), coord.getDouble("lng"));
+				if(zone.getInt("status") > 0){
+					coordsValidFlag = false;
+				}else if(i==0){
+					epsg_code = zone.getString("epsg_code");
+					country_code = zone.getString("country_code");
+				}else if(!epsg_code.equalsIgnoreCase(zone.getString("epsg_code"))){
+					coordsValidFlag = false;
+				}
+			}
+			
+			if(!coordsValidFlag){
+				output.put("status", 1);
+				output.put("errdesc", "all coordinates need to be in the same supported projection zone.");
+				return output;
+			}
+			
+			String country_code_prefix = ""; //empty string stands for australia, others are like nz_ cn_
+			if(!country_code.equalsIgnoreCase("au")){
+				country_code_prefix = country_code+"_";
+			}
+			
+			int maxDistance = 200000;
+			int minDistance = 10;
+			double maxdistance = 10000;
+			if(request.queryParams("maxdistance")!=null){
+				try{
+					maxdistance = Double.parseDouble(request.queryParams("maxdistance"));
+				}catch (Exception e)
+				{
+					maxdistance = 10000;
+				}
+			}
+			if (maxdistance>maxDistance || maxdistance<minDistance) maxdistance = 10000;
+			
+			String traveltype = "walk";
+			if(request.queryParams("traveltype")!=null && (request.queryParams("traveltype").equalsIgnoreCase("simple") || request.queryParams("traveltype").equalsIgnoreCase("drive"))){
+				traveltype = request.queryParams("traveltype").toLowerCase();
+			}
+			
+			String networklayername = country_code_prefix+AppConfig.getString("constantLAYERNAME_OSM_NETWORK_"+traveltype);
+			
+			options.put("networklayername", networklayername);
+			options.put("epsgcode", epsg_code);
+			options.put("traveltype", traveltype);
+			options.put("originarr", originarr);
+			options.put("destinationarr", destinationarr);
+			options.put("maxdistance", maxdistance);
+			
+			output.put("status", 0);
+			output.put("errdesc", "");
+			output.put("version", AppConfig.getString("ver"));
+			output.put("lastupdate", AppConfig.getString("lastupdate"));
+			output.put("data", MatrixGenerator.exec(options));
+
+			return output;
+		}
+	}
+    
+    /**
+     * @param param
+     *            a JSON array of coordinates, e.g. [{"lat":-37.0124, "lng":145.1244}]
+     * @return the array, or null if it is missing, empty or holds an invalid coordinate
+     */
+    private static JSONArray parseCoordArray(String param){
+    	try{
+    		JSONArray coordarr = new JSONArray(param.trim());
+    		if(coordarr.length()==0){
+    			return null;
+    		}
+    		for(int i=0;i<coordarr.length();i++){
+    			JSONObject coord = coordarr.getJSONObject(i);
+    			if(!GeometryUtils.checkValidLatLngString(coord.getDouble("lat")+","+coord.getDouble("lng"))){
+    				return null;
+    			}
+    		}
+    		return coordarr;
+    	}catch(Exception e){
+    		return null;
+    	}
+    }
+    
 	    /**
 	     * Get output folder path string if target output folder doesn't exist, create a new one
 	     * @param dirname
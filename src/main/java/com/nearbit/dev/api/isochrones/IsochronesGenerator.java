@@ -4,32 +4,33 @@ import java.io.File;
 import java.sql.PreparedStatement;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.List;
 import org.apache.commons.io.FileUtils;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
-import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.feature.DefaultFeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureImpl;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.geometry.jts.WKTReader2;
-import org.geotools.referencing.CRS;
 import org.geotools.geojson.feature.FeatureJSON;
 import org.geotools.geojson.geom.GeometryJSON;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.feature.type.Name;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.Polygon;
 import com.nearbit.common.Zip;
 import com.nearbit.dev.api.DbAccess;
-import com.nearbit.common.PostgresDataStore;
 import com.nearbit.common.ShapeFileUtils;
+import com.nearbit.common.CRSRegistry;
+import com.nearbit.common.isochrones.IsochronesNetworkSource;
+import com.nearbit.common.isochrones.IsochronesNetworkSources;
 
 public class IsochronesGenerator {
 
@@ -57,6 +58,7 @@ public class IsochronesGenerator {
 		boolean returnpoint = options.getBoolean("returnpoint");
 		boolean returnpolygon = options.getBoolean("returnpolygon");
 		String combotype = options.getString("combotype").toLowerCase();
+		String mode = options.getString("mode").toLowerCase();
 		String format = options.getString("format");
 		String polygondetaillevel = options.getString("polygondetaillevel");
 		int concavehullthreshold = options.getInt("concavehullthreshold");
@@ -87,12 +89,8 @@ public class IsochronesGenerator {
 
 		SimpleFeatureCollection pointsFC = DataUtilities.simple(pointsDFC);
 
-		PostgresDataStore pgDS = new PostgresDataStore();
-
-		// get walk or drive network data
-		SimpleFeatureType schemaNetwork = pgDS.getDataStore().getSchema(networklayername);
-		SimpleFeatureSource sourceNetwork = pgDS.getFeatureSource(networklayername);
-		Name geomNameNetwork = schemaNetwork.getGeometryDescriptor().getName();
+		// get walk or drive network data, only read if the layer is not resident
+		IsochronesNetworkSource sourceNetwork = IsochronesNetworkSources.open();
 
 		// guid_polygon.shp is created for each type of services, an servicetype
 		// column will be created to indicate which service type this buffer
@@ -157,9 +155,17 @@ public class IsochronesGenerator {
 		}
 
 		com.nearbit.common.isochrones.IsochronesBatch nbb = new com.nearbit.common.isochrones.IsochronesBatch(
-				sourceNetwork, pointsFC, distanceArr, bufsize, polygondetaillevel, concavehullthreshold);
-
-		nbb.createBuffersAdvanced();
+				sourceNetwork, networklayername, pointsFC, distanceArr, bufsize, polygondetaillevel, concavehullthreshold);
+
+		//multisource merges all seeds into one isochrone per radius, partition splits the network between the seeds
+		if(mode.equalsIgnoreCase("multisource")){
+			nbb.createMultiSourceBuffers();
+		}else if(mode.equalsIgnoreCase("partition")){
+			nbb.createPartitionBuffers();
+		}else{
+			nbb.createBuffersAdvanced();
+		}
+		List<Double> bufferRadii = nbb.getBufferRadii();
 		
 		SimpleFeatureCollection fcBuffers = nbb.getBuffers();
 		SimpleFeatureCollection fcLines = nbb.getRoadLines();
@@ -181,19 +187,24 @@ public class IsochronesGenerator {
 
 				SimpleFeatureImpl fNB = (SimpleFeatureImpl) iteratorNB.next();
 
-				Polygon gNB = (Polygon) fNB.getDefaultGeometry();
+				// a merged multisource isochrone or a raster one is a MultiPolygon where its parts fall apart
+				Geometry gNB = (Geometry) fNB.getDefaultGeometry();
 				if (!gNB.isValid()) {
 					// skip bad data
 					continue;
 				}
 
 				if (removeholes) {
-					outputf_netbuf.setAttribute("the_geom", gNB.getBoundary().getGeometryN(0));
+					LineString[] shells = new LineString[gNB.getNumGeometries()];
+					for (int i = 0; i < shells.length; i++) {
+						shells[i] = ((Polygon) gNB.getGeometryN(i)).getExteriorRing();
+					}
+					outputf_netbuf.setAttribute("the_geom", shells.length == 1 ? shells[0] : gNB.getFactory().createMultiLineString(shells));
 				} else {
 					outputf_netbuf.setAttribute("the_geom", gNB);
 				}
 
-				outputf_netbuf.setAttribute("radius", distanceArr.get(count));
+				outputf_netbuf.setAttribute("radius", bufferRadii.get(count));
 				outputf_netbuf.setAttribute("bufsize", bufsize);
 				outputf_netbuf.setAttribute("id", fNB.getAttribute("id"));
 				outputf_netbuf.setAttribute("seedcoord", fNB.getAttribute("seedcoord"));
@@ -208,7 +219,7 @@ public class IsochronesGenerator {
 			if(format.equalsIgnoreCase("shp")){
 				//create shp file for service area polygon
 				File shpFile = new File(outputShpFilePath_netbuf);
-				ShapeFileUtils.featuresExportToShapeFile(outputFeatureType_netbuf, outfc_buffers, shpFile, true, CRS.decode("EPSG:4326"));
+				ShapeFileUtils.featuresExportToShapeFile(outputFeatureType_netbuf, outfc_buffers, shpFile, true, CRSRegistry.getCRS(CRSRegistry.GEO_CODE));
 			 
 				String zipfileName = shpFile.getParentFile().getAbsolutePath()+ "_polygon.zip";
 				Zip zip = new Zip(zipfileName, shpFile.getParentFile().getAbsolutePath());
@@ -232,7 +243,7 @@ public class IsochronesGenerator {
 				//create shp file for roadsegs
 				File shpFile = new File(outputShpFilePath_roadsegs);
 				//ShapeFileUtils.featuresExportToShapeFile(outputFeatureType_line, outfc_lines, shpFile, true, CRS.decode("EPSG:4326"));
-				ShapeFileUtils.featuresExportToShapeFile(fcLines.getSchema(), fcLines, shpFile, true, CRS.decode("EPSG:4326"));
+				ShapeFileUtils.featuresExportToShapeFile(fcLines.getSchema(), fcLines, shpFile, true, CRSRegistry.getCRS(CRSRegistry.GEO_CODE));
 
 				String zipfileName = shpFile.getParentFile().getAbsolutePath()+ "_line.zip";
 				Zip zip = new Zip(zipfileName, shpFile.getParentFile().getAbsolutePath());
@@ -257,7 +268,7 @@ public class IsochronesGenerator {
 				//create shp file for roadsegs
 				File shpFile = new File(outputShpFilePath_roadnodes);
 				//ShapeFileUtils.featuresExportToShapeFile(outputFeatureType_line, outfc_lines, shpFile, true, CRS.decode("EPSG:4326"));
-				ShapeFileUtils.featuresExportToShapeFile(fcNodes.getSchema(), fcNodes, shpFile, true, CRS.decode("EPSG:4326"));
+				ShapeFileUtils.featuresExportToShapeFile(fcNodes.getSchema(), fcNodes, shpFile, true, CRSRegistry.getCRS(CRSRegistry.GEO_CODE));
 
 				String zipfileName = shpFile.getParentFile().getAbsolutePath()+ "_point.zip";
 				Zip zip = new Zip(zipfileName, shpFile.getParentFile().getAbsolutePath());
@@ -275,7 +286,7 @@ public class IsochronesGenerator {
 			}
 		}
 		
-		pgDS.dispose();
+		sourceNetwork.dispose();
 		
 		
 		long execEnd = System.currentTimeMillis();
@@ -291,6 +302,7 @@ public class IsochronesGenerator {
 		output.put("returnpoint", returnpoint);
 		output.put("returnpolygon", returnpolygon);
 		output.put("combotype", combotype);
+		output.put("mode", mode);
 		output.put("polygondetaillevel", polygondetaillevel);
 		output.put("concavehullthreshold", concavehullthreshold);
 		output.put("processingtime", df.format((execEnd - execStart) / 1000d));
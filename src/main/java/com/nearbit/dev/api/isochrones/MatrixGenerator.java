@@ -0,0 +1,84 @@
+package com.nearbit.dev.api.isochrones;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+import com.nearbit.common.isochrones.IsochronesMatrix;
+import com.nearbit.common.isochrones.IsochronesNetworkSource;
+import com.nearbit.common.isochrones.IsochronesNetworkSources;
+
+public class MatrixGenerator {
+
+	static final Logger LOGGER = LoggerFactory.getLogger(MatrixGenerator.class);
+
+	public static JSONObject exec(JSONObject options) throws Exception {
+
+		DecimalFormat df = new DecimalFormat("#.00");
+		long execStart = System.currentTimeMillis();
+
+		JSONObject output = new JSONObject();
+
+		// parameters
+		String networklayername = options.getString("networklayername");
+		String epsgcode = options.getString("epsgcode");
+		String traveltype = options.getString("traveltype").toLowerCase();
+		JSONArray originarr = options.getJSONArray("originarr");
+		JSONArray destinationarr = options.getJSONArray("destinationarr");
+		double maxdistance = options.getDouble("maxdistance");
+
+		GeometryFactory gf = new GeometryFactory();
+		List<Point> origins = toPoints(originarr, gf);
+		List<Point> destinations = toPoints(destinationarr, gf);
+
+		// the network layer is only read if it is not kept in memory
+		IsochronesNetworkSource sourceNetwork = IsochronesNetworkSources.open();
+		JSONObject performanceStats = new JSONObject();
+		double[][] matrix;
+		try {
+			matrix = IsochronesMatrix.run(sourceNetwork, networklayername, origins, destinations, maxdistance, epsgcode,
+					performanceStats);
+		} finally {
+			sourceNetwork.dispose();
+		}
+
+		// unreachable pairs are null, distances are in metres
+		JSONArray distances = new JSONArray();
+		for (int i = 0; i < matrix.length; i++) {
+			JSONArray row = new JSONArray();
+			for (int j = 0; j < matrix[i].length; j++) {
+				row.put(Double.isInfinite(matrix[i][j]) ? JSONObject.NULL : Math.round(matrix[i][j] * 100) / 100d);
+			}
+			distances.put(row);
+		}
+
+		long execEnd = System.currentTimeMillis();
+		LOGGER.info("==== API Total Execution time is:{} seconds", df.format((execEnd - execStart) / 1000d));
+
+		output.put("distances", distances);
+		output.put("originarr", originarr);
+		output.put("destinationarr", destinationarr);
+		output.put("crs", "EPSG:4326");
+		output.put("traveltype", traveltype);
+		output.put("maxdistance", maxdistance);
+		output.put("searches", performanceStats.getInt("num_searches"));
+		output.put("processingtime", df.format((execEnd - execStart) / 1000d));
+
+		return output;
+	}
+
+	private static List<Point> toPoints(JSONArray coordarr, GeometryFactory gf) throws Exception {
+		List<Point> points = new ArrayList<Point>();
+		for (int i = 0; i < coordarr.length(); i++) {
+			JSONObject p = coordarr.getJSONObject(i);
+			points.add(gf.createPoint(new Coordinate(p.getDouble("lng"), p.getDouble("lat"))));
+		}
+		return points;
+	}
+}
@@ -1,5 +1,7 @@
 package com.nearbit.dev.api.isochrones;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import org.geotools.data.DataSourceException;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
@@ -61,6 +63,28 @@ public class PositionChecker {
 		}
 	}
 	
+	/**
+	 * Get the projection zones (bbox polygon, epsg_code, epsg_num, country_code) of a country
+	 * @param countryCode null for the zones of all countries
+	 * @return the zone features
+	 */
+	public static List<SimpleFeature> getZones(String countryCode){
+
+		List<SimpleFeature> zones = new ArrayList<SimpleFeature>();
+
+		SimpleFeatureIterator iterator = prj_epsg_codes.features();
+		while (iterator.hasNext())
+		{
+			SimpleFeature zone = iterator.next();
+			if(countryCode == null || countryCode.equalsIgnoreCase(String.valueOf(zone.getAttribute("country_code")))){
+				zones.add(zone);
+			}
+		}
+		iterator.close();
+
+		return zones;
+	}
+
 	public static JSONObject check(Geometry point){
 		return check(point.getCoordinate().y, point.getCoordinate().x);
 	}
@@ -124,8 +148,12 @@ public class PositionChecker {
 	}
 	
 	public static String getEPSGCode (Geometry point){
+		return getEPSGCode(point.getCoordinate().y, point.getCoordinate().x);
+	}
+	
+	public static String getEPSGCode (double lat, double lng){
 		
-		JSONObject result = check(point);
+		JSONObject result = check(lat, lng);
 		
 		try {
 			if(result.getInt("status")==0){
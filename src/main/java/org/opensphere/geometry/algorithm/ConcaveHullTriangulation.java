@@ -0,0 +1,606 @@
+/*
+ * This file is part of the OpenSphere project which aims to
+ * develop geospatial algorithms.
+ * 
+ * Copyright (C) 2012 Eric Grosso
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * For more information, contact:
+ * Eric Grosso, eric.grosso.os@gmail.com
+ * 
+ */
+package org.opensphere.geometry.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.operation.linemerge.LineMerger;
+import com.vividsolutions.jts.triangulate.IncrementalDelaunayTriangulator;
+import com.vividsolutions.jts.triangulate.quadedge.LastFoundQuadEdgeLocator;
+import com.vividsolutions.jts.triangulate.quadedge.QuadEdge;
+import com.vividsolutions.jts.triangulate.quadedge.QuadEdgeSubdivision;
+import com.vividsolutions.jts.triangulate.quadedge.Vertex;
+import com.vividsolutions.jts.util.UniqueCoordinateArrayFilter;
+
+/**
+ * Delaunay triangulation of a set of points from which concave hulls are
+ * eroded, see {@link ConcaveHull}. The triangulation is not changed by the
+ * erosion, so it gives the hulls of any number of thresholds, and it can be
+ * used from several threads.
+ * 
+ * <p>
+ * The points may carry values, e.g. the travel distance of a reached node,
+ * with the maximum values of the subsets to get hulls of. The points are
+ * inserted into one incremental triangulation subset by subset, from the
+ * smallest maximum value, and the triangulation is copied after each. So
+ * the hulls of all the subsets cost about one triangulation, and each is the
+ * hull of its subset, as if the subset was triangulated on its own.
+ * 
+ * <p>
+ * A triangulation is held in int indexed arrays: vertices, edges with
+ * their two end vertices and two triangles, and triangles with their three
+ * edges. The border edges longer than the threshold are kept in a max-heap
+ * of edge indexes ordered by length, so the erosion takes the longest one
+ * in O(log n) and allocates nothing per step.
+ * 
+ * @author Eric Grosso
+ * 
+ */
+public class ConcaveHullTriangulation {
+
+	/** Side of the grid the points are ordered on */
+	private static final int HILBERT_SIZE = 1 << 15;
+
+	private GeometryFactory geomFactory;
+	
+	/** The maximum values of the subsets, ascending */
+	private double[] maxValues;
+	
+	/** The triangulation of each subset */
+	private Triangulation[] triangulations;
+
+	/**
+	 * Create the triangulation of the points of the input {@link Geometry}.
+	 * 
+	 * @param geometry
+	 */
+	public ConcaveHullTriangulation(Geometry geometry) {
+		this.geomFactory = geometry.getFactory();
+		UniqueCoordinateArrayFilter filter = new UniqueCoordinateArrayFilter();
+		geometry.apply(filter);
+		Coordinate[] coordinates = filter.getCoordinates();
+		setMaxValues(new double[] { Double.POSITIVE_INFINITY });
+		triangulate(coordinates, new int[coordinates.length]);
+	}
+
+	/**
+	 * Create the triangulations of the subsets of points up to each of the
+	 * maximum values. Of repeated points the smallest value is kept, points
+	 * above the largest maximum value are left out.
+	 * 
+	 * @param coordinates
+	 * 		the points
+	 * @param values
+	 * 		the value of each point
+	 * @param maxValues
+	 * 		the maximum values of the subsets
+	 * @param geomFactory
+	 * 		the factory of the hulls
+	 */
+	public ConcaveHullTriangulation(Coordinate[] coordinates, double[] values, double[] maxValues,
+			GeometryFactory geomFactory) {
+		this.geomFactory = geomFactory;
+		setMaxValues(maxValues);
+		
+		// the subset of each point, the first with a maximum value not below its value,
+		// the number of subsets if there is none
+		int[] subsets = new int[coordinates.length];
+		for (int i = 0 ; i < coordinates.length ; i++) {
+			int s = Arrays.binarySearch(this.maxValues, values[i]);
+			if (s < 0) {
+				s = -s - 1;
+			}
+			while (s > 0 && this.maxValues[s - 1] == values[i]) {
+				s--;
+			}
+			subsets[i] = s;
+		}
+		triangulate(coordinates, subsets);
+	}
+
+	/**
+	 * Returns the concave hull of all the points, or of the largest subset,
+	 * according to the threshold, see {@link ConcaveHull#getConcaveHull()}.
+	 * 
+	 * @param threshold
+	 * 		the maximum length of the border edges
+	 * @return
+	 * 		the concave hull
+	 */
+	public Geometry getConcaveHull(double threshold) {
+		return this.triangulations[this.triangulations.length - 1].getConcaveHull(threshold);
+	}
+
+	/**
+	 * Returns the concave hull of the points up to a maximum value according
+	 * to the threshold.
+	 * 
+	 * @param threshold
+	 * 		the maximum length of the border edges
+	 * @param maxValue
+	 * 		one of the maximum values the triangulation was created with
+	 * @return
+	 * 		the concave hull
+	 */
+	public Geometry getConcaveHull(double threshold, double maxValue) {
+		int i = Arrays.binarySearch(this.maxValues, maxValue);
+		if (i < 0) {
+			throw new IllegalArgumentException("No triangulation of the points up to " + maxValue);
+		}
+		return this.triangulations[i].getConcaveHull(threshold);
+	}
+
+	private void setMaxValues(double[] maxValues) {
+		if (maxValues.length == 0) {
+			throw new IllegalArgumentException("No maximum values of the subsets");
+		}
+		this.maxValues = maxValues.clone();
+		Arrays.sort(this.maxValues);
+	}
+
+	/**
+	 * Insert the points into one Delaunay triangulation, the same way the
+	 * ConformingDelaunayTriangulationBuilder does, and copy it after the
+	 * last point of each subset. The points come by subset, and along a
+	 * Hilbert curve within a subset, so that each is located from the last
+	 * in a few steps.
+	 */
+	private void triangulate(final Coordinate[] coordinates, final int[] subsets) {
+		
+		Envelope env = new Envelope();
+		for (int i = 0 ; i < coordinates.length ; i++) {
+			if (subsets[i] < this.maxValues.length) {
+				env.expandToInclude(coordinates[i]);
+			}
+		}
+		final long[] keys = new long[coordinates.length];
+		double scale = (HILBERT_SIZE - 1) / Math.max(Math.max(env.getWidth(), env.getHeight()), Double.MIN_VALUE);
+		Integer[] order = new Integer[coordinates.length];
+		for (int i = 0 ; i < coordinates.length ; i++) {
+			if (subsets[i] < this.maxValues.length) {
+				keys[i] = hilbert((int) ((coordinates[i].x - env.getMinX()) * scale), (int) ((coordinates[i].y - env.getMinY()) * scale));
+			}
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				if (subsets[a] != subsets[b]) {
+					return subsets[a] - subsets[b];
+				}
+				if (keys[a] != keys[b]) {
+					return keys[a] < keys[b] ? -1 : 1;
+				}
+				return coordinates[a].compareTo(coordinates[b]);
+			}
+		});
+		
+		// of repeated points the first, in the smallest subset
+		Set<Coordinate> unique = new HashSet<Coordinate>();
+		List<Vertex> sites = new ArrayList<Vertex>();
+		int[] siteSubsets = new int[coordinates.length];
+		for (Integer i : order) {
+			if (subsets[i] < this.maxValues.length && unique.add(coordinates[i])) {
+				siteSubsets[sites.size()] = subsets[i];
+				sites.add(new Vertex(coordinates[i]));
+			}
+		}
+		env.expandBy(Math.max(env.getWidth() * 0.2, env.getHeight() * 0.2));
+		
+		QuadEdgeSubdivision qes = new QuadEdgeSubdivision(env, 0.0);
+		qes.setLocator(new LastFoundQuadEdgeLocator(qes));
+		IncrementalDelaunayTriangulator triangulator = new IncrementalDelaunayTriangulator(qes);
+		
+		this.triangulations = new Triangulation[this.maxValues.length];
+		IdentityTable vertexIds = new IdentityTable(sites.size());
+		int inserted = 0;
+		for (int s = 0 ; s < this.maxValues.length ; s++) {
+			if (s > 0 && this.maxValues[s - 1] == this.maxValues[s]) {
+				this.triangulations[s] = this.triangulations[s - 1];
+				continue;
+			}
+			while (inserted < sites.size() && siteSubsets[inserted] == s) {
+				triangulator.insertSite(sites.get(inserted));
+				vertexIds.put(sites.get(inserted), inserted);
+				inserted++;
+			}
+			this.triangulations[s] = new Triangulation(qes, sites, inserted, vertexIds);
+		}
+	}
+
+	/**
+	 * Position of a grid cell along a Hilbert curve over the grid.
+	 */
+	private static long hilbert(int x, int y) {
+		long d = 0;
+		for (int s = HILBERT_SIZE / 2 ; s > 0 ; s /= 2) {
+			int rx = (x & s) > 0 ? 1 : 0;
+			int ry = (y & s) > 0 ? 1 : 0;
+			d += (long) s * s * ((3 * rx) ^ ry);
+			// rotate the quadrant so the curve continues where the last one ended
+			if (ry == 0) {
+				if (rx == 1) {
+					x = HILBERT_SIZE - 1 - x;
+					y = HILBERT_SIZE - 1 - y;
+				}
+				int swap = x;
+				x = y;
+				y = swap;
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * The Delaunay triangulation of a subset in int indexed arrays.
+	 */
+	private class Triangulation {
+
+		/** Coordinates of the vertices */
+		private Coordinate[] vertices;
+
+		/** Number of edges */
+		private int edgeCount;
+		
+		/** Origin and end vertex of each edge, 2 entries per edge */
+		private int[] edgeVertices;
+		
+		/** Length of each edge */
+		private double[] edgeLengths;
+		
+		/** Triangles on each side of an edge, 2 entries per edge, -1 if none */
+		private int[] edgeTriangles;
+		
+		/** Edges on the border of the triangulation */
+		private boolean[] borderEdges;
+
+		/** Number of triangles */
+		private int triangleCount;
+		
+		/** Edges of each triangle, 3 entries per triangle */
+		private int[] triangleEdges;
+
+		/**
+		 * Copy the subdivision holding the first vertexCount sites. The edges
+		 * of the frame are left out and the edges next to it are the initial
+		 * border edges.
+		 */
+		@SuppressWarnings("unchecked")
+		Triangulation(QuadEdgeSubdivision qes, List<Vertex> sites, int vertexCount, IdentityTable vertexIds) {
+			
+			this.vertices = new Coordinate[vertexCount];
+			for (int v = 0 ; v < vertexCount ; v++) {
+				this.vertices[v] = sites.get(v).getCoordinate();
+			}
+			
+			Collection<QuadEdge> quadEdges = qes.getEdges();
+
+			// edges, both directions of an edge share its index
+			IdentityTable edgeIds = new IdentityTable(2 * quadEdges.size());
+			QuadEdge[] edges = new QuadEdge[quadEdges.size()];
+			this.edgeVertices = new int[2 * quadEdges.size()];
+			this.edgeLengths = new double[quadEdges.size()];
+			this.borderEdges = new boolean[quadEdges.size()];
+			for (QuadEdge qe : quadEdges) {
+				if (qes.isFrameEdge(qe)) {
+					continue;
+				}
+				int e = this.edgeCount++;
+				edges[e] = qe;
+				this.edgeVertices[2 * e] = vertexIds.get(qe.orig());
+				this.edgeVertices[2 * e + 1] = vertexIds.get(qe.dest());
+				this.edgeLengths[e] = qe.getLength();
+				this.borderEdges[e] = qes.isFrameBorderEdge(qe);
+				edgeIds.put(qe, e);
+				edgeIds.put(qe.sym(), e);
+			}
+
+			// triangles, linked to their edges: the faces left of both directions
+			// of the edges, each taken from its edge of the smallest index, and
+			// without the faces on the frame, whose frame edges have no index
+			this.triangleEdges = new int[2 * this.edgeCount];
+			this.edgeTriangles = new int[2 * this.edgeCount];
+			Arrays.fill(this.edgeTriangles, -1);
+			for (int e = 0 ; e < this.edgeCount ; e++) {
+				for (int side = 0 ; side < 2 ; side++) {
+					QuadEdge qA = side == 0 ? edges[e] : edges[e].sym();
+					QuadEdge qB = qA.lNext();
+					QuadEdge qC = qB.lNext();
+					if (qC.lNext() != qA) {
+						continue;
+					}
+					int eB = edgeIds.get(qB);
+					int eC = edgeIds.get(qC);
+					if (eB < e || eC < e) {
+						// seen already, or on the frame
+						continue;
+					}
+					int t = this.triangleCount++;
+					this.triangleEdges[3 * t] = e;
+					this.triangleEdges[3 * t + 1] = eB;
+					this.triangleEdges[3 * t + 2] = eC;
+					this.edgeTriangles[this.edgeTriangles[2 * e] == -1 ? 2 * e : 2 * e + 1] = t;
+					this.edgeTriangles[this.edgeTriangles[2 * eB] == -1 ? 2 * eB : 2 * eB + 1] = t;
+					this.edgeTriangles[this.edgeTriangles[2 * eC] == -1 ? 2 * eC : 2 * eC + 1] = t;
+				}
+			}
+		}
+
+		/**
+		 * @return if the concave hull contains 3 or more points, a {@link Polygon};
+		 * 2 points, a {@link LineString};
+		 * 1 point, a Point;
+		 * 0 points, an empty GeometryCollection.
+		 */
+		Geometry getConcaveHull(double threshold) {
+			
+			if (this.vertices.length == 0) {
+				return geomFactory.createGeometryCollection(null);
+			}
+			if (this.vertices.length == 1) {
+				return geomFactory.createPoint(this.vertices[0]);
+			}
+			if (this.vertices.length == 2) {
+				return geomFactory.createLineString(this.vertices);
+			}
+			
+			Erosion erosion = new Erosion(this, threshold);
+			erosion.run();
+			
+			// concave hull creation
+			List<LineString> edges = new ArrayList<LineString>();
+			for (int e = 0 ; e < this.edgeCount ; e++) {
+				if (erosion.borderEdges[e] && !erosion.removedEdges[e]) {
+					Coordinate p0 = this.vertices[this.edgeVertices[2 * e]];
+					Coordinate p1 = this.vertices[this.edgeVertices[2 * e + 1]];
+					if (p0.compareTo(p1) > 0) {
+						Coordinate p = p0;
+						p0 = p1;
+						p1 = p;
+					}
+					edges.add(geomFactory.createLineString(new Coordinate[] { p0, p1 }));
+				}
+			}
+
+			// merge
+			LineMerger lineMerger = new LineMerger();
+			lineMerger.add(edges);
+			LineString merge = (LineString)lineMerger.getMergedLineStrings().iterator().next();
+			
+			if (merge.isRing()) {
+				LinearRing lr = new LinearRing(merge.getCoordinateSequence(), geomFactory);
+				Polygon concaveHull = new Polygon(lr, null, geomFactory);
+				return concaveHull;
+			}
+			
+			return merge;
+		}
+	}
+
+	/**
+	 * One erosion of a triangulation. The triangles it removes and the
+	 * border it moves are kept in its own copies of the arrays.
+	 */
+	private static class Erosion {
+
+		private Triangulation tri;
+		private double threshold;
+		
+		/** Triangles on each side of an edge, cleared as triangles are removed */
+		private int[] edgeTriangles;
+
+		/** Border indicators, set once and never cleared */
+		private boolean[] borderVertices;
+		private boolean[] borderEdges;
+		
+		/** Edges removed with their triangle */
+		private boolean[] removedEdges;
+
+		/** Max-heap of the border edges longer than the threshold */
+		private int[] heap;
+		private int heapSize;
+
+		Erosion(Triangulation tri, double threshold) {
+			this.tri = tri;
+			this.threshold = threshold;
+			this.edgeTriangles = tri.edgeTriangles.clone();
+			this.borderVertices = new boolean[tri.vertices.length];
+			this.borderEdges = new boolean[tri.edgeCount];
+			this.removedEdges = new boolean[tri.edgeCount];
+			this.heap = new int[tri.edgeCount];
+		}
+
+		void run() {
+			
+			int[] edgeVertices = this.tri.edgeVertices;
+			int[] triangleEdges = this.tri.triangleEdges;
+			
+			// initial border edges
+			for (int e = 0 ; e < this.tri.edgeCount ; e++) {
+				if (this.tri.borderEdges[e]) {
+					setBorder(e);
+				}
+			}
+			
+			// concave hull algorithm: erode the longest border edge as long as
+			// it is longer than the threshold
+			while (this.heapSize > 0) {
+				int e = pop();
+				int triangle = this.edgeTriangles[2 * e] != -1 ? this.edgeTriangles[2 * e] : this.edgeTriangles[2 * e + 1];
+				if (triangle == -1) {
+					// collinear input, no triangle to remove
+					continue;
+				}
+
+				int t = 3 * triangle;
+				int eA = triangleEdges[t];
+				int eB = triangleEdges[t + 1];
+				int eC = triangleEdges[t + 2];
+				
+				// irregular triangle test
+				if (neighbours(triangle, eA) + neighbours(triangle, eB) + neighbours(triangle, eC) == 1) {
+					continue;
+				}
+				// test if all the vertices are on the border
+				if (this.borderVertices[edgeVertices[2 * eA]] && this.borderVertices[edgeVertices[2 * eA + 1]]
+						&& this.borderVertices[edgeVertices[2 * eB]] && this.borderVertices[edgeVertices[2 * eB + 1]]) {
+					continue;
+				}
+				
+				// the triangle is removed, its two other edges become border edges
+				this.removedEdges[e] = true;
+				for (int i = 0 ; i < 3 ; i++) {
+					int edge = triangleEdges[t + i];
+					if (edge != e) {
+						if (this.edgeTriangles[2 * edge] == triangle) {
+							this.edgeTriangles[2 * edge] = -1;
+						} else {
+							this.edgeTriangles[2 * edge + 1] = -1;
+						}
+						setBorder(edge);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Number of neighbour triangles of a triangle through one of its edges.
+		 */
+		private int neighbours(int triangle, int edge) {
+			int other = this.edgeTriangles[2 * edge] == triangle ? this.edgeTriangles[2 * edge + 1] : this.edgeTriangles[2 * edge];
+			return other == -1 ? 0 : 1;
+		}
+
+		/**
+		 * Mark an edge and its vertices as border, the edge is queued for
+		 * erosion if it is longer than the threshold.
+		 */
+		private void setBorder(int e) {
+			this.borderEdges[e] = true;
+			this.borderVertices[this.tri.edgeVertices[2 * e]] = true;
+			this.borderVertices[this.tri.edgeVertices[2 * e + 1]] = true;
+			if (this.tri.edgeLengths[e] > this.threshold) {
+				push(e);
+			}
+		}
+
+		/**
+		 * Heap order: longer edges first, equal lengths by edge index.
+		 */
+		private boolean before(int a, int b) {
+			double[] edgeLengths = this.tri.edgeLengths;
+			return edgeLengths[a] > edgeLengths[b] || (edgeLengths[a] == edgeLengths[b] && a < b);
+		}
+
+		private void push(int e) {
+			int i = this.heapSize++;
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (!before(e, this.heap[parent])) {
+					break;
+				}
+				this.heap[i] = this.heap[parent];
+				i = parent;
+			}
+			this.heap[i] = e;
+		}
+
+		private int pop() {
+			int top = this.heap[0];
+			int e = this.heap[--this.heapSize];
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= this.heapSize) {
+					break;
+				}
+				if (child + 1 < this.heapSize && before(this.heap[child + 1], this.heap[child])) {
+					child++;
+				}
+				if (!before(this.heap[child], e)) {
+					break;
+				}
+				this.heap[i] = this.heap[child];
+				i = child;
+			}
+			this.heap[i] = e;
+			return top;
+		}
+	}
+
+	/**
+	 * Open addressing map from objects, compared by identity, to int
+	 * indexes. Avoids boxing the indexes and the equals/hashCode of the
+	 * triangulation classes.
+	 */
+	private static class IdentityTable {
+
+		private Object[] keys;
+		private int[] values;
+		private int mask;
+
+		IdentityTable(int expected) {
+			int capacity = 16;
+			while (capacity < 2 * expected) {
+				capacity <<= 1;
+			}
+			this.keys = new Object[capacity];
+			this.values = new int[capacity];
+			this.mask = capacity - 1;
+		}
+
+		private int slot(Object key) {
+			int i = (System.identityHashCode(key) * 0x9E3779B9) & this.mask;
+			while (this.keys[i] != null && this.keys[i] != key) {
+				i = (i + 1) & this.mask;
+			}
+			return i;
+		}
+
+		void put(Object key, int value) {
+			int i = slot(key);
+			this.keys[i] = key;
+			this.values[i] = value;
+		}
+
+		int get(Object key) {
+			int i = slot(key);
+			return this.keys[i] == null ? -1 : this.values[i];
+		}
+	}
+
+}